@@ -0,0 +1,172 @@
+package uk.ac.ed.inf.aqmaps.benchmarks;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.mapbox.geojson.FeatureCollection;
+import com.mapbox.geojson.Point;
+
+import uk.ac.ed.inf.aqmaps.application.App;
+import uk.ac.ed.inf.aqmaps.map.FlightWorld;
+import uk.ac.ed.inf.aqmaps.map.TwoDimensionalMapObject;
+import uk.ac.ed.inf.aqmaps.webserver.JsonSensorStub;
+import uk.ac.ed.inf.aqmaps.webserver.JsonWhat3WordsStub;
+
+/**
+ * This class loads the real scenario data that our benchmarks run on - the no
+ * fly zones and the sensors of a given day. It reads the files that the web
+ * server would serve directly from disk, so that benchmarks do not depend on a
+ * running server (or measure it by accident).
+ *
+ * The directory the files are read from is ../aqmaps/WebServer by default,
+ * which is where it lies relative to this module. It can be changed with the
+ * system property aqmaps.fixtures, e.g. by passing
+ * -jvmArgsAppend -Daqmaps.fixtures=/some/path to the benchmark jar.
+ */
+public class BenchmarkFixtures {
+
+    /* The system property that overrides the directory the fixtures are read from */
+    private static final String FIXTURE_DIRECTORY_PROPERTY = "aqmaps.fixtures";
+    private static final String DEFAULT_FIXTURE_DIRECTORY = "../aqmaps/WebServer";
+
+    /* The system property that overrides the directory of the reference results */
+    private static final String ILP_RESULTS_DIRECTORY_PROPERTY = "aqmaps.ilpresults";
+    private static final String DEFAULT_ILP_RESULTS_DIRECTORY = "../ilp-results";
+
+    /* The day whose sensors are used by default - the same one that AppTest uses */
+    public static final int DAY = 15;
+    public static final int MONTH = 6;
+    public static final int YEAR = 2021;
+
+    /* The starting point of the drone, which is also the one AppTest uses */
+    public static final Point STARTING_POINT = Point.fromLngLat(-3.1878, 55.9444);
+
+    /**
+     * This method loads the no fly zones from disk and combines them with the
+     * confinement area into the world our drones fly in.
+     *
+     * @return the FlightWorld of our scenario
+     */
+    public static FlightWorld loadFlightWorld() {
+        var noFlyZonesString = readFixture("buildings", "no-fly-zones.geojson");
+        var noFlyZonesFeatCol = FeatureCollection.fromJson(noFlyZonesString);
+
+        var noFlyZones = new ArrayList<TwoDimensionalMapObject>();
+        for (var feat : noFlyZonesFeatCol.features()) {
+            noFlyZones.add(new TwoDimensionalMapObject(feat));
+        }
+
+        return App.createFlightWorld(noFlyZones);
+    }
+
+    /**
+     * This method loads the positions of the sensors that are to be read on the
+     * given day, in the order in which they are listed on the server.
+     *
+     * @param day   the day of month
+     * @param month the month
+     * @param year  the year
+     *
+     * @return the positions of all sensors of that day
+     */
+    public static List<Point> loadSensorPositions(int day, int month, int year) {
+        var sensorsString = readFixture("maps", String.format("%04d", year), String.format("%02d", month),
+                String.format("%02d", day), "air-quality-data.json");
+
+        Type listType = new TypeToken<ArrayList<JsonSensorStub>>() {
+        }.getType();
+        ArrayList<JsonSensorStub> sensorStubs = new Gson().fromJson(sensorsString, listType);
+
+        var positions = new ArrayList<Point>();
+        for (var sensorStub : sensorStubs) {
+            var w3wParts = sensorStub.getLocation().split("\\.");
+            var w3wString = readFixture("words", w3wParts[0], w3wParts[1], w3wParts[2], "details.json");
+            var w3wStub = new Gson().fromJson(w3wString, JsonWhat3WordsStub.class);
+
+            var coordinates = w3wStub.getCoordinates();
+            positions.add(Point.fromLngLat(coordinates.getLng(), coordinates.getLat()));
+        }
+
+        return positions;
+    }
+
+    /**
+     * This method loads the nodes of the tour of our default day, just like App
+     * would pass them to the TourPlanner - the sensors, followed by the starting
+     * point of the drone.
+     *
+     * @return the nodes of the tour, the last one being the starting point
+     */
+    public static List<Point> loadTourNodes() {
+        return loadTourNodes(LocalDate.of(YEAR, MONTH, DAY));
+    }
+
+    /**
+     * This method loads the nodes of the tour of the given day, just like App would
+     * pass them to the TourPlanner - the sensors, followed by the starting point of
+     * the drone.
+     *
+     * @param date the day in question
+     *
+     * @return the nodes of the tour, the last one being the starting point
+     */
+    public static List<Point> loadTourNodes(LocalDate date) {
+        var tourNodes = new ArrayList<Point>(
+                loadSensorPositions(date.getDayOfMonth(), date.getMonthValue(), date.getYear()));
+        tourNodes.add(STARTING_POINT);
+
+        return tourNodes;
+    }
+
+    /**
+     * This method finds the days for which the ilp-results directory holds a flight
+     * path, i.e. the days our results were submitted for. It lies in ../ilp-results
+     * by default, which can be changed with the system property aqmaps.ilpresults.
+     *
+     * @return the days in question, in chronological order
+     */
+    public static List<LocalDate> loadIlpResultsDates() {
+        var directory = Path.of(System.getProperty(ILP_RESULTS_DIRECTORY_PROPERTY, DEFAULT_ILP_RESULTS_DIRECTORY));
+        var format = DateTimeFormatter.ofPattern("'flightpath-'dd-MM-yyyy'.txt'");
+        try (var files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith("flightpath-"))
+                    .map(name -> LocalDate.parse(name, format))
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            System.out.println("Fatal error: Unable to list the ilp results in " + directory.toAbsolutePath() + ".");
+            System.exit(1);
+            return null;
+        }
+    }
+
+    /**
+     * This helper method reads the file at the given path, relative to the fixture
+     * directory.
+     *
+     * @param pathElements the folders and name of the file
+     *
+     * @return the String contents of the file
+     */
+    private static String readFixture(String... pathElements) {
+        var path = Path.of(System.getProperty(FIXTURE_DIRECTORY_PROPERTY, DEFAULT_FIXTURE_DIRECTORY), pathElements);
+        try {
+            return Files.readString(path);
+        } catch (IOException e) {
+            System.out.println("Fatal error: Unable to read the benchmark fixture " + path.toAbsolutePath() + ".");
+            System.exit(1);
+            return null;
+        }
+    }
+
+}
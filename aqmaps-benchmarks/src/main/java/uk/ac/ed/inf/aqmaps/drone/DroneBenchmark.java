@@ -0,0 +1,190 @@
+package uk.ac.ed.inf.aqmaps.drone;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.mapbox.geojson.Point;
+
+import uk.ac.ed.inf.aqmaps.benchmarks.BenchmarkFixtures;
+import uk.ac.ed.inf.aqmaps.map.FlightWorld;
+import uk.ac.ed.inf.aqmaps.map.Sensor;
+import uk.ac.ed.inf.aqmaps.map.TwoDimensionalMapObject;
+import uk.ac.ed.inf.aqmaps.map.What3WordsLocation;
+
+/**
+ * Benchmarks the decisions a single drone makes while flying - checking whether
+ * a move is legal, estimating the cost of flying around an obstacle and parking
+ * next to its destination. These are what every simulation of the TourPlanner
+ * consists of.
+ *
+ * This class lives in the drone package so that it can call the protected
+ * methods of our drones directly.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DroneBenchmark {
+
+    private FlightWorld world;
+
+    /* The positions of the sensors of our default day, and the starting point */
+    private List<Point> sensorPositions;
+
+    /* A shadow drone that is teleported around to check moves at all positions */
+    private ShadowDrone scout;
+
+    /*
+     * Flights between two sensors that are blocked by an obstacle right at the
+     * start - the situations in which a main drone asks its shadows for help.
+     */
+    private List<Point> avoidanceStarts;
+    private List<Point> avoidanceDestinations;
+    private List<TwoDimensionalMapObject> avoidanceObstacles;
+
+    /* Whether obstacles are avoided in a clockwise or counter-clockwise manner */
+    @State(Scope.Benchmark)
+    public static class Direction {
+        @Param({ "true", "false" })
+        public boolean clockwise;
+    }
+
+    /* Whether a main drone sends out both of its shadow drones at the same time */
+    @State(Scope.Benchmark)
+    public static class Concurrency {
+        @Param({ "false", "true" })
+        public boolean concurrentAvoidance;
+    }
+
+    /* The way a main drone finds its way to its destination */
+    @State(Scope.Benchmark)
+    public static class Navigation {
+        @Param({ "GREEDY", "A_STAR", "BEAM_SEARCH" })
+        public MainDrone.NavigationEngine navigationEngine;
+
+        /*
+         * Whether the drone looks up its ways around obstacles in the avoidance cache,
+         * which has seen every one of these flights after the first invocation
+         */
+        @Param({ "false", "true" })
+        public boolean avoidanceCache;
+    }
+
+    @Setup
+    public void setUp() {
+        world = BenchmarkFixtures.loadFlightWorld();
+        sensorPositions = BenchmarkFixtures.loadTourNodes();
+        scout = new ShadowDrone(sensorPositions.get(0), sensorPositions.get(0), world, false);
+
+        avoidanceStarts = new ArrayList<Point>();
+        avoidanceDestinations = new ArrayList<Point>();
+        avoidanceObstacles = new ArrayList<TwoDimensionalMapObject>();
+        for (var start : sensorPositions) {
+            for (var destination : sensorPositions) {
+                var drone = new ShadowDrone(start, destination, world, false);
+                if (start != destination && !drone.canMoveTowardsGoal()) {
+                    avoidanceStarts.add(start);
+                    avoidanceDestinations.add(destination);
+                    avoidanceObstacles.add(drone.getObstacleInOurWay());
+                }
+            }
+        }
+    }
+
+    /*
+     * Checks every legal angle at the position of every sensor.
+     */
+    @Benchmark
+    public int canMove() {
+        var numLegalMoves = 0;
+        for (var position : sensorPositions) {
+            scout.setPosition(position);
+            for (int angle = 0; angle < 360; angle += Drone.ANGLE_GRANULARITY) {
+                if (scout.canMove(angle)) {
+                    numLegalMoves++;
+                }
+            }
+        }
+        return numLegalMoves;
+    }
+
+    /*
+     * Lets a fresh shadow drone estimate the cost of avoiding the obstacle in each
+     * of the blocked flights.
+     */
+    @Benchmark
+    public void costOfAvoidingObstacle(Direction direction, Blackhole blackhole) {
+        for (int i = 0; i < avoidanceStarts.size(); i++) {
+            var shadow = new ShadowDrone(avoidanceStarts.get(i), avoidanceDestinations.get(i), world, false);
+            var obstacle = avoidanceObstacles.get(i);
+            blackhole.consume(shadow.costOfAvoidingObstacle(obstacle, Drone.MAX_READ_DISTANCE, direction.clockwise));
+        }
+    }
+
+    /*
+     * Lets a main drone decide how to get around the obstacle in each of the
+     * blocked flights, and make the moves - without the avoidance cache, which
+     * would remember every decision after the first invocation.
+     */
+    @Benchmark
+    public void avoidObstacle(Concurrency concurrency, Blackhole blackhole) {
+        for (int i = 0; i < avoidanceStarts.size(); i++) {
+            var mockSensor = new Sensor(0.0f, 0.0, new What3WordsLocation("a.b.c", avoidanceDestinations.get(i)));
+            var drone = new MainDrone(avoidanceStarts.get(i), new ArrayList<Sensor>(Arrays.asList(mockSensor)),
+                    world, false);
+            drone.setUsesAvoidanceCache(false);
+            drone.setConcurrentAvoidance(concurrency.concurrentAvoidance);
+            drone.avoidObstacle(avoidanceObstacles.get(i));
+            blackhole.consume(drone.getCurrentPosition());
+        }
+    }
+
+    /*
+     * Lets a main drone fly each of the blocked flights in full, with the given
+     * navigation engine, sending out shadow drones or replaying their moves.
+     */
+    @Benchmark
+    public int flyBlockedFlights(Navigation navigation) {
+        var totalSteps = 0;
+        for (int i = 0; i < avoidanceStarts.size(); i++) {
+            var mockSensor = new Sensor(0.0f, 0.0, new What3WordsLocation("a.b.c", avoidanceDestinations.get(i)));
+            var drone = new MainDrone(avoidanceStarts.get(i), new ArrayList<Sensor>(Arrays.asList(mockSensor)),
+                    world, false);
+            drone.setNavigationEngine(navigation.navigationEngine);
+            drone.setUsesAvoidanceCache(navigation.avoidanceCache);
+            totalSteps += drone.flyToCurrentDestination();
+        }
+        return totalSteps;
+    }
+
+    /*
+     * Makes a waiting move at every sensor, which is what happens whenever two
+     * sensors of a tour are within reading range of each other.
+     */
+    @Benchmark
+    public void park(Blackhole blackhole) {
+        for (var position : sensorPositions) {
+            var mockSensor = new Sensor(0.0f, 0.0, new What3WordsLocation("a.b.c", position));
+            var drone = new MainDrone(position, new ArrayList<Sensor>(Arrays.asList(mockSensor)), world, false);
+            blackhole.consume(drone.park());
+        }
+    }
+
+}
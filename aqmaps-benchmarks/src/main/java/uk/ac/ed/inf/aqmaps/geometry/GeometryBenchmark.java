@@ -0,0 +1,97 @@
+package uk.ac.ed.inf.aqmaps.geometry;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.ed.inf.aqmaps.benchmarks.BenchmarkFixtures;
+
+/**
+ * Benchmarks the most basic geometric operation of our application - deciding
+ * whether two line segments intersect. Every move a drone considers boils down
+ * to (a lot of) these checks.
+ *
+ * Each invocation tests a fixed set of random moves within the confinement area
+ * against every edge of every forbidden object of the real scenario.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeometryBenchmark {
+
+    /* The number of random moves tested per invocation */
+    private static final int NUM_MOVES = 100;
+
+    /* The boundaries of the area the random moves start in */
+    private static final double MIN_LONGITUDE = -3.192473;
+    private static final double MAX_LONGITUDE = -3.184319;
+    private static final double MIN_LATITUDE = 55.942617;
+    private static final double MAX_LATITUDE = 55.946233;
+
+    /* The moves, 4 coordinates each (start longitude/latitude, end longitude/latitude) */
+    private double[] moves;
+
+    /* The edges of all forbidden objects, 4 coordinates each */
+    private double[] edges;
+
+    @Setup
+    public void setUp() {
+        var random = new Random(42);
+        moves = new double[4 * NUM_MOVES];
+        for (int i = 0; i < NUM_MOVES; i++) {
+            var startLong = MIN_LONGITUDE + random.nextDouble() * (MAX_LONGITUDE - MIN_LONGITUDE);
+            var startLat = MIN_LATITUDE + random.nextDouble() * (MAX_LATITUDE - MIN_LATITUDE);
+            var angle = 10 * random.nextInt(36);
+            moves[4 * i] = startLong;
+            moves[4 * i + 1] = startLat;
+            moves[4 * i + 2] = EuclideanUtils.getNextLongitude(startLong, angle, 0.0003);
+            moves[4 * i + 3] = EuclideanUtils.getNextLatitude(startLat, angle, 0.0003);
+        }
+
+        var world = BenchmarkFixtures.loadFlightWorld();
+        var numEdges = 0;
+        for (var forbiddenObject : world.getForbiddenObjects()) {
+            numEdges += forbiddenObject.getPolygon().coordinates().get(0).size() - 1;
+        }
+        edges = new double[4 * numEdges];
+        var edgeIndex = 0;
+        for (var forbiddenObject : world.getForbiddenObjects()) {
+            var vertices = forbiddenObject.getPolygon().coordinates().get(0);
+            for (int k = 0; k < vertices.size() - 1; k++) {
+                edges[4 * edgeIndex] = vertices.get(k).longitude();
+                edges[4 * edgeIndex + 1] = vertices.get(k).latitude();
+                edges[4 * edgeIndex + 2] = vertices.get(k + 1).longitude();
+                edges[4 * edgeIndex + 3] = vertices.get(k + 1).latitude();
+                edgeIndex++;
+            }
+        }
+    }
+
+    @Benchmark
+    public int lineSegmentsIntersect() {
+        var numIntersections = 0;
+        for (int i = 0; i < moves.length; i += 4) {
+            for (int k = 0; k < edges.length; k += 4) {
+                if (EuclideanUtils.lineSegmentsIntersect(moves[i], moves[i + 1], moves[i + 2], moves[i + 3], edges[k],
+                        edges[k + 1], edges[k + 2], edges[k + 3])) {
+                    numIntersections++;
+                }
+            }
+        }
+        return numIntersections;
+    }
+
+}
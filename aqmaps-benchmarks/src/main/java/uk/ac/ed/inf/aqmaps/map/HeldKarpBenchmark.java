@@ -0,0 +1,140 @@
+package uk.ac.ed.inf.aqmaps.map;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.ed.inf.aqmaps.benchmarks.BenchmarkFixtures;
+
+/**
+ * Benchmarks the exact HeldKarpSolver on the first few sensors of our default
+ * day (plus the starting point), in both of its variants.
+ *
+ * Running the main method of this class instead measures how far 2-opt is from
+ * the optimum: for each of the days in the ilp-results directory, it plans a
+ * tour through the first sensors of the day with both, and prints their costs,
+ * e.g. via
+ * java -cp target/benchmarks.jar uk.ac.ed.inf.aqmaps.map.HeldKarpBenchmark 15
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HeldKarpBenchmark {
+
+    /* The number of sensors in the solved problem */
+    @Param({ "12", "16", "20" })
+    public int numSensors;
+
+    @Param({ "false", "true" })
+    public boolean memoryBounded;
+
+    private int[][] distanceMatrix;
+
+    @Setup
+    public void setUp() {
+        var fullMatrix = new TourPlanner(BenchmarkFixtures.loadTourNodes(), BenchmarkFixtures.loadFlightWorld())
+                .getDistanceMatrix();
+        distanceMatrix = restrictToFirstSensors(fullMatrix, numSensors);
+    }
+
+    @Benchmark
+    public int[] solve() {
+        var solver = new HeldKarpSolver(distanceMatrix);
+        solver.setMemoryBounded(memoryBounded);
+        return solver.solve();
+    }
+
+    /**
+     * Prints the cost of the tour 2-opt finds and of the shortest tour, through
+     * the first sensors of each of the days in the ilp-results directory.
+     *
+     * @param args optionally, the number of sensors (15 by default)
+     */
+    public static void main(String[] args) {
+        var numSensors = args.length > 0 ? Integer.parseInt(args[0]) : 15;
+        var world = BenchmarkFixtures.loadFlightWorld();
+
+        System.out.println(String.format("%-10s %7s %7s %7s %10s", "Day", "2-opt", "Optimal", "Gap", "Held-Karp"));
+        var totalTwoOptCost = 0;
+        var totalOptimalCost = 0;
+        for (var date : BenchmarkFixtures.loadIlpResultsDates()) {
+            var fullMatrix = new TourPlanner(BenchmarkFixtures.loadTourNodes(date), world).getDistanceMatrix();
+            var distanceMatrix = restrictToFirstSensors(fullMatrix, numSensors);
+
+            var twoOptPlanner = new TourPlanner(distanceMatrix);
+            twoOptPlanner.setExactSolverThreshold(0);
+            var twoOptCost = computeTourCost(distanceMatrix, twoOptPlanner.findShortestTour());
+
+            var startTime = System.nanoTime();
+            var solver = new HeldKarpSolver(distanceMatrix);
+            solver.solve();
+            var solvingMillis = (System.nanoTime() - startTime) / 1e6;
+
+            var optimalCost = solver.getOptimalCost();
+            totalTwoOptCost += twoOptCost;
+            totalOptimalCost += optimalCost;
+            System.out.println(String.format("%-10s %7d %7d %6.1f%% %8.1fms", date, twoOptCost, optimalCost,
+                    100.0 * (twoOptCost - optimalCost) / optimalCost, solvingMillis));
+        }
+        System.out.println(String.format("%-10s %7d %7d %6.1f%%", "Total", totalTwoOptCost, totalOptimalCost,
+                100.0 * (totalTwoOptCost - totalOptimalCost) / totalOptimalCost));
+    }
+
+    /**
+     * This helper method restricts a distance matrix to its first sensors and the
+     * starting point (which is its last node).
+     *
+     * @param fullMatrix the distance matrix of a whole day
+     * @param numSensors the number of sensors to keep
+     *
+     * @return the distance matrix of the smaller problem
+     */
+    private static int[][] restrictToFirstSensors(int[][] fullMatrix, int numSensors) {
+        var numPoints = numSensors + 1;
+        var nodes = new int[numPoints];
+        for (int k = 0; k < numSensors; k++) {
+            nodes[k] = k;
+        }
+        nodes[numSensors] = fullMatrix.length - 1;
+
+        var distanceMatrix = new int[numPoints][numPoints];
+        for (int i = 0; i < numPoints; i++) {
+            for (int j = 0; j < numPoints; j++) {
+                distanceMatrix[i][j] = fullMatrix[nodes[i]][nodes[j]];
+            }
+        }
+        return distanceMatrix;
+    }
+
+    /**
+     * This helper method computes the cost of a tour returned by the TourPlanner,
+     * which starts and ends at the last node.
+     *
+     * @param distanceMatrix the distance matrix of the problem
+     * @param tour           the sensors in the order they are visited
+     *
+     * @return the total cost of the tour
+     */
+    private static int computeTourCost(int[][] distanceMatrix, int[] tour) {
+        var start = distanceMatrix.length - 1;
+        var cost = distanceMatrix[start][tour[0]] + distanceMatrix[tour[tour.length - 1]][start];
+        for (int k = 0; k + 1 < tour.length; k++) {
+            cost += distanceMatrix[tour[k]][tour[k + 1]];
+        }
+        return cost;
+    }
+
+}
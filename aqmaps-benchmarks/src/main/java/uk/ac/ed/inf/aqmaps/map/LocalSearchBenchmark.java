@@ -0,0 +1,156 @@
+package uk.ac.ed.inf.aqmaps.map;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.mapbox.geojson.Point;
+
+import uk.ac.ed.inf.aqmaps.benchmarks.BenchmarkFixtures;
+import uk.ac.ed.inf.aqmaps.drone.MainDrone;
+
+/**
+ * Compares the local searches of the TourPlanner on the days of our submitted
+ * results (those in the ilp-results directory).
+ *
+ * The benchmark measures how long planning the tours of all of these days takes
+ * with each local search, given their distance matrices. How many steps the
+ * drone then actually flies is not something JMH can measure, so it is printed
+ * once per local search when the benchmark is set up. Running the main method
+ * of this class prints the same comparison as a table, without JMH, e.g. via
+ * java -cp target/benchmarks.jar uk.ac.ed.inf.aqmaps.map.LocalSearchBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocalSearchBenchmark {
+
+    @Param({ "TWO_OPT", "OR_OPT", "THREE_OPT" })
+    public TourPlanner.LocalSearch localSearch;
+
+    private FlightWorld world;
+
+    private List<LocalDate> dates;
+
+    /* The nodes and the distance matrix of each day, computed once */
+    private List<List<Point>> tourNodesOfDays;
+    private List<int[][]> distanceMatricesOfDays;
+
+    @Setup
+    public void setUp() {
+        loadDays();
+        System.out.println();
+        System.out.println("Steps flown with " + localSearch + ": " + flyAllDays(localSearch));
+    }
+
+    @Benchmark
+    public void planAllDays(Blackhole blackhole) {
+        for (var distanceMatrix : distanceMatricesOfDays) {
+            var tourPlanner = new TourPlanner(distanceMatrix);
+            tourPlanner.setLocalSearch(localSearch);
+            blackhole.consume(tourPlanner.findShortestTour());
+        }
+    }
+
+    /**
+     * Prints the number of steps flown on each of the days, and the time planning
+     * all of them took, for every local search.
+     *
+     * @param args unused
+     */
+    public static void main(String[] args) {
+        var benchmark = new LocalSearchBenchmark();
+        benchmark.loadDays();
+
+        var header = new StringBuilder(String.format("%-10s", "Search"));
+        for (var date : benchmark.dates) {
+            var dateString = String.format("%02d-%02d", date.getDayOfMonth(), date.getMonthValue());
+            header.append(String.format(" %5s", dateString));
+        }
+        header.append(String.format(" %7s %10s", "Total", "Planning"));
+        System.out.println(header);
+
+        for (var localSearch : TourPlanner.LocalSearch.values()) {
+            /* Plan once to warm up, then measure */
+            benchmark.flyAllDays(localSearch);
+            var startTime = System.nanoTime();
+            for (var distanceMatrix : benchmark.distanceMatricesOfDays) {
+                var tourPlanner = new TourPlanner(distanceMatrix);
+                tourPlanner.setLocalSearch(localSearch);
+                tourPlanner.findShortestTour();
+            }
+            var planningMillis = (System.nanoTime() - startTime) / 1e6;
+
+            var stepsOfDays = benchmark.flyAllDays(localSearch);
+            var line = new StringBuilder(String.format("%-10s", localSearch));
+            var totalSteps = 0;
+            for (var steps : stepsOfDays) {
+                line.append(String.format(" %5d", steps));
+                totalSteps += steps;
+            }
+            line.append(String.format(" %7d %8.2fms", totalSteps, planningMillis));
+            System.out.println(line);
+        }
+    }
+
+    /**
+     * This helper method loads the world, the days of our submitted results and
+     * their distance matrices.
+     */
+    private void loadDays() {
+        world = BenchmarkFixtures.loadFlightWorld();
+        dates = BenchmarkFixtures.loadIlpResultsDates();
+        tourNodesOfDays = new ArrayList<List<Point>>();
+        distanceMatricesOfDays = new ArrayList<int[][]>();
+        for (var date : dates) {
+            var tourNodes = BenchmarkFixtures.loadTourNodes(date);
+            tourNodesOfDays.add(tourNodes);
+            distanceMatricesOfDays.add(new TourPlanner(tourNodes, world).getDistanceMatrix());
+        }
+    }
+
+    /**
+     * This helper method plans the tour of each day with the given local search,
+     * and lets a main drone fly it.
+     *
+     * @param localSearch the local search used to plan the tours
+     *
+     * @return the number of steps the drone needed on each day
+     */
+    private List<Integer> flyAllDays(TourPlanner.LocalSearch localSearch) {
+        var stepsOfDays = new ArrayList<Integer>();
+        for (int d = 0; d < dates.size(); d++) {
+            var tourPlanner = new TourPlanner(distanceMatricesOfDays.get(d));
+            tourPlanner.setLocalSearch(localSearch);
+            var tourIndices = tourPlanner.findShortestTour();
+
+            var tourNodes = tourNodesOfDays.get(d);
+            var tour = new ArrayList<Sensor>();
+            for (var index : tourIndices) {
+                tour.add(new Sensor(0.0f, 0.0, new What3WordsLocation("a.b.c", tourNodes.get(index))));
+            }
+            var mainDrone = new MainDrone(BenchmarkFixtures.STARTING_POINT, tour, world, false);
+            mainDrone.completeTour();
+            stepsOfDays.add(mainDrone.getStepsMade());
+        }
+        return stepsOfDays;
+    }
+
+}
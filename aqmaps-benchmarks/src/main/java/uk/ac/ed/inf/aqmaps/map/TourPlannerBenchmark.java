@@ -0,0 +1,164 @@
+package uk.ac.ed.inf.aqmaps.map;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mapbox.geojson.Point;
+
+import uk.ac.ed.inf.aqmaps.benchmarks.BenchmarkFixtures;
+import uk.ac.ed.inf.aqmaps.drone.MainDrone;
+
+/**
+ * Benchmarks the two stages of planning a tour on our default day - computing
+ * the distance matrix (one drone simulation per pair of nodes) and running
+ * 2-opt on it - as well as planning the whole tour at once, with a simulated or
+ * an estimated matrix.
+ *
+ * The avoidance cache shared by all main drones is cleared before every
+ * invocation that flies drones, so that each one plans the day from scratch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TourPlannerBenchmark {
+
+    private FlightWorld world;
+
+    private List<Point> tourNodes;
+
+    /* The distance matrix of our default day, computed once */
+    private int[][] distanceMatrix;
+
+    /* The number of threads used to compute the distance matrix */
+    @State(Scope.Benchmark)
+    public static class Parallelism {
+        @Param({ "1", "4" })
+        public int numThreads;
+    }
+
+    /*
+     * Whether the distance matrix is computed lazily, and how many initial tours
+     * the planner searches from
+     */
+    @State(Scope.Benchmark)
+    public static class Laziness {
+        @Param({ "false", "true" })
+        public boolean lazyDistanceMatrix;
+
+        @Param({ "1", "32" })
+        public int numStarts;
+    }
+
+    /*
+     * A synthetic tour that is much larger than any of our real days, with
+     * asymmetric, integer costs similar to our step counts.
+     */
+    @State(Scope.Benchmark)
+    public static class LargeTour {
+        @Param({ "200", "1000" })
+        public int numPoints;
+
+        /* Whether 2-opt uses neighbour lists and don't-look bits, or scans all pairs */
+        @Param({ "true", "false" })
+        public boolean useNeighbourLists;
+
+        private int[][] distanceMatrix;
+
+        @Setup
+        public void setUp() {
+            var random = new Random(42);
+            var positions = new double[numPoints][2];
+            for (var position : positions) {
+                position[0] = random.nextDouble() * 100;
+                position[1] = random.nextDouble() * 100;
+            }
+            distanceMatrix = new int[numPoints][numPoints];
+            for (int i = 0; i < numPoints; i++) {
+                for (int j = 0; j < numPoints; j++) {
+                    if (i != j) {
+                        var dx = positions[i][0] - positions[j][0];
+                        var dy = positions[i][1] - positions[j][1];
+                        distanceMatrix[i][j] = 1 + (int) Math.sqrt(dx * dx + dy * dy) + random.nextInt(3);
+                    }
+                }
+            }
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        world = BenchmarkFixtures.loadFlightWorld();
+        tourNodes = BenchmarkFixtures.loadTourNodes();
+        distanceMatrix = new TourPlanner(tourNodes, world).getDistanceMatrix();
+    }
+
+    @Benchmark
+    public int[][] computeDistanceMatrix(Parallelism parallelism) {
+        MainDrone.getAvoidanceCache().clear();
+        var tourPlanner = new TourPlanner(tourNodes, world);
+        tourPlanner.setParallelism(parallelism.numThreads);
+        return tourPlanner.getDistanceMatrix();
+    }
+
+    /*
+     * Plans the tour from scratch, like App does - but on a single thread, so that
+     * the number of flights simulated is what matters.
+     */
+    @Benchmark
+    public int[] findShortestTour(Laziness laziness) {
+        MainDrone.getAvoidanceCache().clear();
+        var tourPlanner = new TourPlanner(tourNodes, world);
+        tourPlanner.setParallelism(1);
+        tourPlanner.setLazyDistanceMatrix(laziness.lazyDistanceMatrix);
+        tourPlanner.setMultiStart(laziness.numStarts, 5678);
+        return tourPlanner.findShortestTour();
+    }
+
+    /*
+     * Plans the tour on a matrix estimated from the visibility graph, choosing
+     * between the best few tours by flying them.
+     */
+    @Benchmark
+    public int[] findShortestTourFromEstimates() {
+        MainDrone.getAvoidanceCache().clear();
+        var tourPlanner = new TourPlanner(tourNodes, world);
+        tourPlanner.setParallelism(1);
+        tourPlanner.setEstimatedDistanceMatrix(true);
+        tourPlanner.setMultiStart(32, 5678);
+        tourPlanner.setSimulatedCandidates(8);
+        return tourPlanner.findShortestTour();
+    }
+
+    /*
+     * The planner is given the precomputed matrix, so this only measures 2-opt
+     * (starting from the identity permutation every time).
+     */
+    @Benchmark
+    public int[] applyTwoOptAlgorithm() {
+        return new TourPlanner(distanceMatrix).findShortestTour();
+    }
+
+    @Benchmark
+    public int[] applyTwoOptAlgorithmToLargeTour(LargeTour largeTour) {
+        var tourPlanner = new TourPlanner(largeTour.distanceMatrix);
+        tourPlanner.setNeighbourListThreshold(largeTour.useNeighbourLists ? 0 : Integer.MAX_VALUE);
+        return tourPlanner.findShortestTour();
+    }
+
+}
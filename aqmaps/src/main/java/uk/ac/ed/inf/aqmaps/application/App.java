@@ -7,9 +7,13 @@ import com.mapbox.geojson.Point;
 import com.mapbox.geojson.Polygon;
 
 import uk.ac.ed.inf.aqmaps.drone.MainDrone;
+import uk.ac.ed.inf.aqmaps.map.FlightWorld;
+import uk.ac.ed.inf.aqmaps.map.PairCostCache;
 import uk.ac.ed.inf.aqmaps.map.Sensor;
 import uk.ac.ed.inf.aqmaps.map.TourPlanner;
 import uk.ac.ed.inf.aqmaps.map.TwoDimensionalMapObject;
+import uk.ac.ed.inf.aqmaps.webserver.ServerUnreachableException;
+import uk.ac.ed.inf.aqmaps.webserver.WebServerFileFetcher;
 
 import java.io.IOException;
 
@@ -24,10 +28,26 @@ public class App {
     private static final double MIN_LATITUDE = 55.942617;
     private static final double MAX_LATITUDE = 55.946233;
 
-    /* The confinement area that the drone cannot leave, as a Mapbox Polygon */
-    private static TwoDimensionalMapObject confinementArea;
-    /* The zones the drone is not allowed to enter */
-    private static List<TwoDimensionalMapObject> noFlyZones;
+    /*
+     * The number of initial tours the TourPlanner searches from. Each start costs
+     * well below a millisecond on a day of 33 sensors, and beyond this, further
+     * starts rarely find a shorter tour.
+     */
+    private static final int NUM_TOUR_STARTS = 32;
+
+    /*
+     * The number of the cheapest of those tours that are flown in full before one
+     * of them is chosen. The starts rarely end up in more than a handful of
+     * distinct tours anyway.
+     */
+    private static final int NUM_SIMULATED_TOURS = 8;
+
+    /*
+     * The confinement area that the drone cannot leave, as a Mapbox Polygon. It is
+     * fixed, as opposed to the no fly zones, which are loaded from the server and
+     * combined with it into a FlightWorld.
+     */
+    private static final TwoDimensionalMapObject confinementArea;
 
     static {
         /* Initialising the confinement area from the given boundaries */
@@ -62,17 +82,69 @@ public class App {
         var year = Integer.parseInt(args[2]);
         var droneStartLatitude = Double.parseDouble(args[3]);
         var droneStartLongitude = Double.parseDouble(args[4]);
+        var seed = Integer.parseInt(args[5]);
         var port = Integer.parseInt(args[6]);
+
+        var w3wCache = What3WordsCache.openDefault();
+        var pairCostCache = PairCostCache.openDefault();
+        var inputProcessor = new InputProcessor(new WebServerFileFetcher(port), w3wCache);
+        var droneStartingPoint = Point.fromLngLat(droneStartLongitude, droneStartLatitude);
+
         /*
-         * Currently unused but given as argument according to the task specification.
+         * There is nothing we can do without our input files, so a failed request ends
+         * the application. We exit with 418 if the server could not be reached at all.
          */
-        // var seed = Integer.parseInt(args[5]);
+        try {
+            var world = loadFlightWorld(inputProcessor);
+            runDay(day, month, year, droneStartingPoint, seed, world, inputProcessor, pairCostCache,
+                    Runtime.getRuntime().availableProcessors(), true);
+        } catch (ServerUnreachableException e) {
+            System.out.println("Fatal error: " + e.getMessage());
+            System.exit(418);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
 
-        var inputProcessor = new InputProcessor(port);
-        noFlyZones = inputProcessor.loadNoFlyZonesFromServer();
+        System.out.println(inputProcessor.getFileFetcher().getStatisticsSummary());
+        System.out.println(w3wCache.getStatisticsSummary());
+        if (pairCostCache != null) {
+            System.out.println(pairCostCache.getStatisticsSummary());
+        }
+        if (MainDrone.isAvoidanceCacheEnabled()) {
+            System.out.println(MainDrone.getAvoidanceCache().getStatisticsSummary());
+        }
+    }
+
+    /**
+     * This method plans and flies the drone's tour on a given day, before writing
+     * the output files for that day. It is used for a single day by the main
+     * method, and for many days in a row (or at once) by the BatchRunner.
+     * 
+     * Note: Days are independent of each other, so this method may be called by
+     * several threads at the same time, as long as they use different dates.
+     * 
+     * @param day                the day of month of the tour
+     * @param month              the month of the tour
+     * @param year               the year of the tour
+     * @param droneStartingPoint the point the drone starts and lands at
+     * @param seed               the seed the TourPlanner builds its random initial
+     *                           tours from
+     * @param world              the world the drone flies in
+     * @param inputProcessor     the input processor used to load the sensors of the
+     *                           day
+     * @param pairCostCache      the cache of costs of flights between two points,
+     *                           or null if all of them should be simulated
+     * @param plannerParallelism the number of threads the TourPlanner may use
+     * @param verbose            whether the tour and the moves of the drone should
+     *                           be printed to standard output
+     * 
+     * @return the main drone, after it has completed its tour
+     */
+    static MainDrone runDay(int day, int month, int year, Point droneStartingPoint, long seed, FlightWorld world,
+            InputProcessor inputProcessor, PairCostCache pairCostCache, int plannerParallelism, boolean verbose) {
 
         /* Preparing drone parameters for its tour of the day */
-        var droneStartingPoint = Point.fromLngLat(droneStartLongitude, droneStartLatitude);
         var sensors = inputProcessor.getSensorsForDate(day, month, year);
 
         var tourNodes = new ArrayList<Point>();
@@ -85,7 +157,19 @@ public class App {
          * Find a suitable tour for the drone to embark on. Disclaimer: Not actually
          * guaranteed to be the shortest tour - that problem is NP-hard!
          */
-        var tourPlanner = new TourPlanner(tourNodes);
+        var tourPlanner = new TourPlanner(tourNodes, world);
+        tourPlanner.setParallelism(plannerParallelism);
+        tourPlanner.setPairCostCache(pairCostCache);
+        tourPlanner.setLazyDistanceMatrix(true);
+        tourPlanner.setLocalSearch(TourPlanner.getDefaultLocalSearch());
+        tourPlanner.setMultiStart(NUM_TOUR_STARTS, seed);
+        tourPlanner.setSimulatedCandidates(NUM_SIMULATED_TOURS);
+        tourPlanner.setNavigationEngine(MainDrone.getDefaultNavigationEngine());
+        tourPlanner.setTimeBudget(TourPlanner.getDefaultTimeBudget());
+        if (verbose) {
+            tourPlanner.addProgressListener((bestCost, numIterations, elapsedMillis) -> System.out
+                    .println("Best tour after " + elapsedMillis + " ms: " + bestCost + " steps"));
+        }
         var shortestTourIndices = tourPlanner.findShortestTour();
         var shortestTour = new ArrayList<Sensor>();
         for (int i = 0; i < shortestTourIndices.length; i++) {
@@ -93,13 +177,19 @@ public class App {
             shortestTour.add(sensor);
             var sensorPos = sensor.getPosition();
 
-            System.out.println("Sensor " + i + " : (" + sensorPos.longitude() + "," + sensorPos.latitude() + ") - "
-                    + sensor.getW3wLocation().toString());
+            if (verbose) {
+                System.out.println("Sensor " + i + " : (" + sensorPos.longitude() + "," + sensorPos.latitude()
+                        + ") - " + sensor.getW3wLocation().toString());
+            }
         }
 
         /* Initialise main drone and send on its tour */
-        System.out.println("\nThe main drone embarks on its journey! - " + day + " - " + month + " - " + year + "\n");
-        MainDrone mainDrone = new MainDrone(droneStartingPoint, shortestTour, true);
+        if (verbose) {
+            System.out.println(
+                    "\nThe main drone embarks on its journey! - " + day + " - " + month + " - " + year + "\n");
+        }
+        MainDrone mainDrone = new MainDrone(droneStartingPoint, shortestTour, world, verbose);
+        mainDrone.setNavigationEngine(MainDrone.getDefaultNavigationEngine());
         mainDrone.completeTour();
 
         /* Print path & sensor output to GeoJSON file */
@@ -113,20 +203,46 @@ public class App {
             e.printStackTrace();
         }
 
+        return mainDrone;
     }
 
-    /*
-     * The following two getters are needed because the Drone class needs to have
-     * access to them and because the attributes themselves make slightly more sense
-     * in the App class (since they are parameters of the drone only indirectly, but
-     * rather of the scenario at hand).
+    /**
+     * This method loads the no fly zones from the file server running on the given
+     * port and combines them with our confinement area into the world that our
+     * drones fly in.
+     * 
+     * @param port the port the file server runs on
+     * 
+     * @return the FlightWorld of this scenario
      */
-    public static TwoDimensionalMapObject getConfinementArea() {
-        return confinementArea;
+    public static FlightWorld loadFlightWorld(int port) {
+        return loadFlightWorld(new InputProcessor(port));
     }
 
-    public static List<TwoDimensionalMapObject> getNoFlyZones() {
-        return noFlyZones;
+    /**
+     * This helper method uses the given input processor to load the no fly zones
+     * and build the world that our drones fly in.
+     * 
+     * @param inputProcessor the input processor connected to the file server
+     * 
+     * @return the FlightWorld of this scenario
+     */
+    static FlightWorld loadFlightWorld(InputProcessor inputProcessor) {
+        var noFlyZones = inputProcessor.loadNoFlyZonesFromServer();
+        return createFlightWorld(noFlyZones);
+    }
+
+    /**
+     * This method combines the given no fly zones with our confinement area into
+     * the world that our drones fly in. It is useful whenever the no fly zones do
+     * not come from the file server, e.g. in benchmarks.
+     * 
+     * @param noFlyZones the zones the drone is not allowed to enter
+     * 
+     * @return the FlightWorld of this scenario
+     */
+    public static FlightWorld createFlightWorld(List<TwoDimensionalMapObject> noFlyZones) {
+        return new FlightWorld(confinementArea, noFlyZones);
     }
 
 }
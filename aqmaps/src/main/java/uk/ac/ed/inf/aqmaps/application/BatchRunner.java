@@ -0,0 +1,177 @@
+package uk.ac.ed.inf.aqmaps.application;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.mapbox.geojson.Point;
+
+import uk.ac.ed.inf.aqmaps.drone.MainDrone;
+import uk.ac.ed.inf.aqmaps.map.PairCostCache;
+import uk.ac.ed.inf.aqmaps.webserver.ServerUnreachableException;
+import uk.ac.ed.inf.aqmaps.webserver.WebServerFileFetcher;
+
+/**
+ * The BatchRunner is an alternative entry point to this application that
+ * processes a whole range of days in a single run, rather than one day per
+ * launch of the JVM. The no fly zones are only loaded once, and the days are
+ * distributed across a bounded pool of threads.
+ *
+ * For each day, exactly the same readings- and flightpath- files are written as
+ * if App had been run for that day.
+ */
+public class BatchRunner {
+
+    /**
+     * The main method of the batch mode.
+     *
+     * @param args Command line arguments - the first and last date of the range
+     *             (both inclusive, each given as day, month and year), the
+     *             starting location of our drone, a random seed and a server
+     *             port, optionally followed by the number of days that are
+     *             processed at the same time.
+     */
+    public static void main(String[] args) {
+
+        if (args.length != 10 && args.length != 11) {
+            System.out.println("The wrong number of arguments was given to the batch runner!");
+            System.out.println("Expected: startDay startMonth startYear endDay endMonth endYear "
+                    + "latitude longitude seed port [numThreads]");
+            System.exit(1);
+        }
+
+        /* Load/Parse the Input Data */
+        LocalDate firstDate = null;
+        LocalDate lastDate = null;
+        try {
+            firstDate = LocalDate.of(Integer.parseInt(args[2]), Integer.parseInt(args[1]), Integer.parseInt(args[0]));
+            lastDate = LocalDate.of(Integer.parseInt(args[5]), Integer.parseInt(args[4]), Integer.parseInt(args[3]));
+        } catch (NumberFormatException | DateTimeException e) {
+            System.out.println("The dates given to the batch runner are invalid: " + e.getMessage());
+            System.exit(1);
+        }
+        var droneStartLatitude = Double.parseDouble(args[6]);
+        var droneStartLongitude = Double.parseDouble(args[7]);
+        var seed = Integer.parseInt(args[8]);
+        var port = Integer.parseInt(args[9]);
+
+        var numProcessors = Runtime.getRuntime().availableProcessors();
+        var numThreads = args.length == 11 ? Integer.parseInt(args[10]) : numProcessors;
+        numThreads = Math.max(1, numThreads);
+
+        if (lastDate.isBefore(firstDate)) {
+            System.out.println("The last date of the range lies before the first one!");
+            System.exit(1);
+        }
+
+        var droneStartingPoint = Point.fromLngLat(droneStartLongitude, droneStartLatitude);
+        var numFailedDays = 0;
+        try {
+            numFailedDays = runDays(firstDate, lastDate, droneStartingPoint, seed, port, numThreads);
+        } catch (ServerUnreachableException e) {
+            /* The no fly zones are needed by every day, so this ends the whole batch */
+            System.out.println("Fatal error: " + e.getMessage());
+            System.exit(418);
+        }
+
+        /* A nightly job should notice if any of the days went wrong */
+        if (numFailedDays > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * This method flies the drone's tour on every day of the given range, writing
+     * the output files of each day.
+     *
+     * Each day is simulated on a single thread of the pool. The processors that
+     * are not needed by the pool are shared out among the TourPlanners, so that
+     * (at least) the distance matrices still use the whole machine if only few days
+     * run at once.
+     *
+     * @param firstDate          the first day of the range
+     * @param lastDate           the last day of the range (inclusive)
+     * @param droneStartingPoint the point the drone starts and lands at every day
+     * @param seed               the seed used to plan the tour of every day, so
+     *                           that each day gets the same tour as if App had
+     *                           been run for it with this seed
+     * @param port               the port the file server runs on
+     * @param numThreads         the number of days processed at the same time
+     *
+     * @return the number of days that could not be processed
+     */
+    public static int runDays(LocalDate firstDate, LocalDate lastDate, Point droneStartingPoint, long seed,
+            int port, int numThreads) {
+
+        var startTime = System.currentTimeMillis();
+
+        /* These are the same for every day, so they are only set up once */
+        var w3wCache = What3WordsCache.openDefault();
+        var pairCostCache = PairCostCache.openDefault();
+        var inputProcessor = new InputProcessor(new WebServerFileFetcher(port), w3wCache);
+        var world = App.loadFlightWorld(inputProcessor);
+
+        var plannerParallelism = Math.max(1, Runtime.getRuntime().availableProcessors() / numThreads);
+
+        var dates = new ArrayList<LocalDate>();
+        for (var date = firstDate; !date.isAfter(lastDate); date = date.plusDays(1)) {
+            dates.add(date);
+        }
+
+        var executor = Executors.newFixedThreadPool(numThreads);
+        List<Future<Integer>> tours = new ArrayList<Future<Integer>>();
+        try {
+            for (var date : dates) {
+                tours.add(executor.submit(() -> {
+                    var mainDrone = App.runDay(date.getDayOfMonth(), date.getMonthValue(), date.getYear(),
+                            droneStartingPoint, seed, world, inputProcessor, pairCostCache, plannerParallelism,
+                            false);
+                    return mainDrone.getStepsMade();
+                }));
+            }
+
+            /*
+             * We report the days in order. A day that fails does not keep the others from
+             * being processed.
+             */
+            var numFailedDays = 0;
+            for (int i = 0; i < dates.size(); i++) {
+                var dateString = String.format("%02d-%02d-%04d", dates.get(i).getDayOfMonth(),
+                        dates.get(i).getMonthValue(), dates.get(i).getYear());
+                try {
+                    var stepsMade = tours.get(i).get();
+                    System.out.println("Finished the tour of " + dateString + " after " + stepsMade + " steps.");
+                } catch (ExecutionException e) {
+                    System.out.println("The tour of " + dateString + " failed:");
+                    e.getCause().printStackTrace();
+                    numFailedDays++;
+                }
+            }
+
+            var elapsedSeconds = (System.currentTimeMillis() - startTime) / 1000.0;
+            System.out.println("Processed " + (dates.size() - numFailedDays) + " of " + dates.size() + " days in "
+                    + elapsedSeconds + " seconds.");
+            System.out.println(inputProcessor.getFileFetcher().getStatisticsSummary());
+            System.out.println(w3wCache.getStatisticsSummary());
+            if (pairCostCache != null) {
+                System.out.println(pairCostCache.getStatisticsSummary());
+            }
+            if (MainDrone.isAvoidanceCacheEnabled()) {
+                System.out.println(MainDrone.getAvoidanceCache().getStatisticsSummary());
+            }
+
+            return numFailedDays;
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            System.exit(1);
+            return dates.size();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
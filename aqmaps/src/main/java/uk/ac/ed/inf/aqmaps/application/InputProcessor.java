@@ -2,6 +2,8 @@ package uk.ac.ed.inf.aqmaps.application;
 
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
@@ -33,6 +35,13 @@ public class InputProcessor {
      */
     private final WebServerFileFetcher fileFetcher;
 
+    /*
+     * Remembers the What3Words locations we have fetched before, possibly in
+     * earlier runs. May be null, in which case every location is fetched from the
+     * server.
+     */
+    private final What3WordsCache w3wCache;
+
     /**
      * The constructor of the InputProcessor class.
      * 
@@ -40,7 +49,32 @@ public class InputProcessor {
      *             responsible for the connection to the relevant file server
      */
     public InputProcessor(int port) {
-        this.fileFetcher = new WebServerFileFetcher(port);
+        this(new WebServerFileFetcher(port));
+    }
+
+    /**
+     * This constructor lets the InputProcessor use a file fetcher that has been
+     * configured in a specific way (e.g. with different timeouts).
+     * 
+     * @param fileFetcher the entity responsible for the connection to the file
+     *                    server
+     */
+    public InputProcessor(WebServerFileFetcher fileFetcher) {
+        this(fileFetcher, null);
+    }
+
+    /**
+     * This constructor additionally lets the InputProcessor look up What3Words
+     * locations in the given cache before fetching them from the server.
+     * 
+     * @param fileFetcher the entity responsible for the connection to the file
+     *                    server
+     * @param w3wCache    the cache of What3Words locations, or null if every
+     *                    location should be fetched from the server
+     */
+    public InputProcessor(WebServerFileFetcher fileFetcher, What3WordsCache w3wCache) {
+        this.fileFetcher = fileFetcher;
+        this.w3wCache = w3wCache;
     }
 
     /**
@@ -66,9 +100,16 @@ public class InputProcessor {
         }.getType();
         ArrayList<JsonSensorStub> sensorStubs = new Gson().fromJson(jsonSensorsString, listType);
 
+        var w3wStrings = new ArrayList<String>();
+        for (var sensorStub : sensorStubs) {
+            w3wStrings.add(sensorStub.getLocation());
+        }
+        var w3wLocations = resolveW3wStrings(w3wStrings);
+
         var sensors = new ArrayList<Sensor>();
 
-        for (var sensorStub : sensorStubs) {
+        for (int i = 0; i < sensorStubs.size(); i++) {
+            var sensorStub = sensorStubs.get(i);
 
             var battery = Float.parseFloat(sensorStub.getBattery());
 
@@ -87,9 +128,7 @@ public class InputProcessor {
                 readingDouble = Double.NaN;
             }
 
-            var w3wLocation = processW3wString(sensorStub.getLocation());
-
-            var sensor = new Sensor(battery, readingDouble, w3wLocation);
+            var sensor = new Sensor(battery, readingDouble, w3wLocations.get(i));
             sensors.add(sensor);
         }
 
@@ -97,26 +136,65 @@ public class InputProcessor {
     }
 
     /**
-     * This method turns the name of a What3Words Location into a proper instance of
-     * the corresponding class, so that it can be used as attribute of a Sensor
-     * object. It does so by asking the WebServerFileFetcher to return the relevant
-     * JSON String from the server.
+     * This method turns the names of What3Words Locations into proper instances of
+     * the corresponding class. Locations that are in our cache are taken from
+     * there, all others are fetched from the server at once (which is much faster
+     * than waiting for each of them in turn) and then added to the cache. A
+     * location that appears several times is only fetched once.
      * 
-     * @param w3wString the name of the relevant What3Words Location
-     * @return an instance of the What3WordsLocation class
+     * @param w3wStrings the names of the relevant What3Words Locations
+     * 
+     * @return the corresponding What3WordsLocation instances, in the same order
      */
-    private What3WordsLocation processW3wString(String w3wString) {
-        var w3wParts = w3wString.split("\\.");
-        assert (w3wParts.length == 3);
-        /*
-         * We split the w3w identifier into its 3 parts before fetching the according
-         * information from the server.
-         */
-        var first = w3wParts[0];
-        var second = w3wParts[1];
-        var third = w3wParts[2];
-        var jsonW3wString = fileFetcher.getW3wJsonFromServer(first, second, third);
+    private List<What3WordsLocation> resolveW3wStrings(List<String> w3wStrings) {
+        var w3wLocations = new ArrayList<What3WordsLocation>();
+        var uncachedIndices = new ArrayList<Integer>();
+        var uncachedW3wStrings = new ArrayList<String>();
+        /* The position of each uncached name in uncachedW3wStrings */
+        var fetchIndexOfW3wString = new HashMap<String, Integer>();
+        for (int i = 0; i < w3wStrings.size(); i++) {
+            var w3wString = w3wStrings.get(i);
+            var cachedLocation = w3wCache == null ? null : w3wCache.get(w3wString);
+            w3wLocations.add(cachedLocation);
+            if (cachedLocation == null) {
+                uncachedIndices.add(i);
+                if (!fetchIndexOfW3wString.containsKey(w3wString)) {
+                    fetchIndexOfW3wString.put(w3wString, uncachedW3wStrings.size());
+                    uncachedW3wStrings.add(w3wString);
+                }
+            }
+        }
+
+        if (uncachedW3wStrings.isEmpty()) {
+            return w3wLocations;
+        }
+
+        var jsonW3wStrings = fileFetcher.getW3wJsonsFromServer(uncachedW3wStrings);
+        var fetchedLocations = new ArrayList<What3WordsLocation>();
+        for (var jsonW3wString : jsonW3wStrings) {
+            fetchedLocations.add(processW3wJson(jsonW3wString));
+        }
+        for (var i : uncachedIndices) {
+            w3wLocations.set(i, fetchedLocations.get(fetchIndexOfW3wString.get(w3wStrings.get(i))));
+        }
+
+        if (w3wCache != null) {
+            w3wCache.putAll(fetchedLocations);
+        }
+
+        return w3wLocations;
+    }
 
+    /**
+     * This method turns the JSON description of a What3Words Location, as fetched
+     * from the server, into a proper instance of the corresponding class, so that
+     * it can be used as attribute of a Sensor object.
+     * 
+     * @param jsonW3wString the contents of the details.json file of the relevant
+     *                      What3Words Location
+     * @return an instance of the What3WordsLocation class
+     */
+    private What3WordsLocation processW3wJson(String jsonW3wString) {
         /* Turn the textual information into w3wStub, then "proper object" */
         var w3wStub = new Gson().fromJson(jsonW3wString, JsonWhat3WordsStub.class);
 
@@ -174,4 +252,10 @@ public class InputProcessor {
         return noFlyZones;
     }
 
+    /* Getters */
+
+    public WebServerFileFetcher getFileFetcher() {
+        return fileFetcher;
+    }
+
 }
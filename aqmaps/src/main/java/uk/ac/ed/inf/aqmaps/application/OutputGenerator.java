@@ -11,6 +11,7 @@ import com.mapbox.geojson.Feature;
 import com.mapbox.geojson.FeatureCollection;
 import com.mapbox.geojson.Geometry;
 import com.mapbox.geojson.LineString;
+import com.mapbox.geojson.Point;
 
 import uk.ac.ed.inf.aqmaps.drone.MainDrone;
 
@@ -156,7 +157,8 @@ public class OutputGenerator {
         /* The sensors the drone visited, in the correct order */
         var sensors = drone.getSensorTour();
 
-        var positionHistory = drone.getPositionHistory();
+        var longitudeHistory = drone.getLongitudeHistory();
+        var latitudeHistory = drone.getLatitudeHistory();
         var visitedArr = drone.getSensorsVisitedArray();
         var allReadings = drone.getReadingsForAllSensors();
 
@@ -166,6 +168,10 @@ public class OutputGenerator {
          * Draw a line for each adjacent pair of points in the given position history of
          * the main drone.
          */
+        var positionHistory = new ArrayList<Point>(longitudeHistory.length);
+        for (int i = 0; i < longitudeHistory.length; i++) {
+            positionHistory.add(Point.fromLngLat(longitudeHistory[i], latitudeHistory[i]));
+        }
         var dronePath = LineString.fromLngLats(positionHistory);
         var dronePathGeometry = (Geometry) dronePath;
         var dronePathFeature = Feature.fromGeometry(dronePathGeometry);
@@ -245,37 +251,36 @@ public class OutputGenerator {
         var printWriter = new PrintWriter(fileWriter);
 
         /* Get the relevant data gathered by the drone */
-        var positionHistory = drone.getPositionHistory();
+        var longitudeHistory = drone.getLongitudeHistory();
+        var latitudeHistory = drone.getLatitudeHistory();
         var angleHistory = drone.getMoveAngleHistory();
         var sensorReadHistory = drone.getSensorReadHistory();
 
-        var numMoves = positionHistory.size() - 1;
+        var numMoves = longitudeHistory.length - 1;
 
-        if (numMoves != angleHistory.size() || numMoves != sensorReadHistory.size()) {
+        if (numMoves != angleHistory.length || numMoves != sensorReadHistory.size()) {
             System.out.println("Critical failure while writing flight path to file: " + "Inconsistent number of moves");
             System.exit(1);
         }
 
         /* Add a corresponding line for each move our drone made. */
         for (int i = 1; i <= numMoves; i++) {
-            var dronePosBefore = positionHistory.get(i - 1);
-            var angleOfMove = (int) Math.round(angleHistory.get(i - 1));
-            var dronePosAfter = positionHistory.get(i);
+            var angleOfMove = angleHistory[i - 1];
             var sensorW3wLoc = sensorReadHistory.get(i - 1);
 
             var stringBuilder = new StringBuilder();
 
             stringBuilder.append(i);
             stringBuilder.append(",");
-            stringBuilder.append(dronePosBefore.longitude());
+            stringBuilder.append(longitudeHistory[i - 1]);
             stringBuilder.append(",");
-            stringBuilder.append(dronePosBefore.latitude());
+            stringBuilder.append(latitudeHistory[i - 1]);
             stringBuilder.append(",");
             stringBuilder.append(angleOfMove);
             stringBuilder.append(",");
-            stringBuilder.append(dronePosAfter.longitude());
+            stringBuilder.append(longitudeHistory[i]);
             stringBuilder.append(",");
-            stringBuilder.append(dronePosAfter.latitude());
+            stringBuilder.append(latitudeHistory[i]);
             stringBuilder.append(",");
             stringBuilder.append(sensorW3wLoc);
 
@@ -0,0 +1,238 @@
+package uk.ac.ed.inf.aqmaps.application;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.mapbox.geojson.Point;
+
+import uk.ac.ed.inf.aqmaps.map.What3WordsLocation;
+
+/**
+ * The What3WordsCache remembers the positions of all What3Words locations we
+ * have ever fetched from the server, across runs of the application. The same
+ * sensors are read on many days, so most locations only ever need to be fetched
+ * once.
+ *
+ * The cache is stored in a plain text file with one location per line, of the
+ * form "first.second.third,longitude,latitude". New locations are appended to
+ * the end of the file, so writing to the cache never rewrites what is already
+ * there. Lines that cannot be parsed are simply ignored.
+ *
+ * A run that is killed while writing may leave a line without its line break
+ * at the end of the file. Such a line is never trusted, since a number that was
+ * cut off (e.g. -3.186 instead of -3.1862) still parses - just as the wrong
+ * position. It is ignored when the file is read, and cut off before the next
+ * locations are appended.
+ *
+ * All methods are synchronized, so a single cache can be shared by all days of
+ * a batch run.
+ */
+public class What3WordsCache {
+
+    /* The system properties that control the cache used by App and BatchRunner */
+    private static final String FILE_PROPERTY = "aqmaps.w3wcache";
+    private static final String INVALIDATE_PROPERTY = "aqmaps.w3wcache.invalidate";
+    private static final String DEFAULT_FILE_NAME = "w3w-cache.txt";
+
+    /* The file the cache is persisted in */
+    private final Path file;
+
+    /*
+     * The length of the file in bytes, up to and including the line break of its
+     * last complete line, and whether anything follows it. See putAll.
+     */
+    private long completeLength;
+    private boolean hasIncompleteLine;
+
+    /* All locations we know of, by their three-word identifier */
+    private final Map<String, What3WordsLocation> locations;
+
+    /* Statistics about the lookups made so far */
+    private long numHits;
+    private long numMisses;
+
+    /**
+     * The constructor of the What3WordsCache class. Loads all locations that are
+     * already stored in the given file, if it exists.
+     *
+     * @param file the file the cache is persisted in
+     */
+    public What3WordsCache(Path file) {
+        this.file = file;
+        this.locations = new HashMap<String, What3WordsLocation>();
+
+        if (!Files.exists(file)) {
+            return;
+        }
+
+        try {
+            var bytes = Files.readAllBytes(file);
+            var lastLineBreak = bytes.length - 1;
+            while (lastLineBreak >= 0 && bytes[lastLineBreak] != '\n') {
+                lastLineBreak--;
+            }
+            completeLength = lastLineBreak + 1;
+            hasIncompleteLine = completeLength < bytes.length;
+
+            var completeLines = new String(bytes, 0, (int) completeLength, StandardCharsets.UTF_8);
+            for (var line : completeLines.split("\n")) {
+                var location = parseLine(line.strip());
+                if (location != null) {
+                    locations.put(location.getThreeWordsString(), location);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println(
+                    "Warning! Unable to read the What3Words cache " + file + ". Starting with an empty one.");
+            locations.clear();
+        }
+    }
+
+    /**
+     * This method opens the cache that App and BatchRunner use. It lives in the
+     * file w3w-cache.txt in the working directory, unless the system property
+     * aqmaps.w3wcache specifies a different file. If the system property
+     * aqmaps.w3wcache.invalidate is set to true, the cache is cleared first.
+     *
+     * @return the cache to be used by this run of the application
+     */
+    public static What3WordsCache openDefault() {
+        var cache = new What3WordsCache(Path.of(System.getProperty(FILE_PROPERTY, DEFAULT_FILE_NAME)));
+        if (Boolean.getBoolean(INVALIDATE_PROPERTY)) {
+            cache.invalidate();
+        }
+        return cache;
+    }
+
+    /**
+     * This method looks up the location with the given identifier.
+     *
+     * @param w3wString the three-word identifier of the location
+     *
+     * @return the location, or null if it is not in the cache
+     */
+    public synchronized What3WordsLocation get(String w3wString) {
+        var location = locations.get(w3wString);
+        if (location == null) {
+            numMisses++;
+        } else {
+            numHits++;
+        }
+        return location;
+    }
+
+    /**
+     * This method adds the given locations to the cache, and appends those that
+     * were not known yet to its file.
+     *
+     * @param newLocations the locations to be added
+     */
+    public synchronized void putAll(List<What3WordsLocation> newLocations) {
+        var newLines = new ArrayList<String>();
+        for (var location : newLocations) {
+            if (!locations.containsKey(location.getThreeWordsString())) {
+                locations.put(location.getThreeWordsString(), location);
+                newLines.add(formatLine(location));
+            }
+        }
+
+        if (newLines.isEmpty()) {
+            return;
+        }
+
+        try {
+            if (hasIncompleteLine) {
+                try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    channel.truncate(completeLength);
+                }
+                hasIncompleteLine = false;
+            }
+            Files.write(file, newLines, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            System.out.println("Warning! Unable to write to the What3Words cache " + file + ".");
+        }
+    }
+
+    /**
+     * This method forgets all locations, both in memory and on disk. This is needed
+     * if the locations on the server ever change.
+     */
+    public synchronized void invalidate() {
+        locations.clear();
+        hasIncompleteLine = false;
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.out.println("Warning! Unable to delete the What3Words cache " + file + ".");
+        }
+    }
+
+    /**
+     * This method summarises the lookups made so far, e.g. to be printed at the end
+     * of a run.
+     *
+     * @return a human-readable summary of the cache statistics
+     */
+    public synchronized String getStatisticsSummary() {
+        return "What3Words cache: " + numHits + " hits, " + numMisses + " misses, " + locations.size()
+                + " locations stored.";
+    }
+
+    /**
+     * This helper method turns a location into a line of the cache file. Doubles
+     * are written in their shortest exact representation, so they are read back as
+     * exactly the same numbers.
+     *
+     * @param location the location in question
+     *
+     * @return the line describing the location
+     */
+    private static String formatLine(What3WordsLocation location) {
+        var position = location.getPosition();
+        return location.getThreeWordsString() + "," + position.longitude() + "," + position.latitude();
+    }
+
+    /**
+     * This helper method turns a line of the cache file back into a location.
+     *
+     * @param line the line in question
+     *
+     * @return the location, or null if the line is malformed
+     */
+    private static What3WordsLocation parseLine(String line) {
+        var fields = line.split(",");
+        if (fields.length != 3 || fields[0].split("\\.").length != 3) {
+            return null;
+        }
+
+        try {
+            var position = Point.fromLngLat(Double.parseDouble(fields[1]), Double.parseDouble(fields[2]));
+            return new What3WordsLocation(fields[0], position);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /* Getters */
+
+    public synchronized long getNumHits() {
+        return numHits;
+    }
+
+    public synchronized long getNumMisses() {
+        return numMisses;
+    }
+
+    public synchronized int size() {
+        return locations.size();
+    }
+
+}
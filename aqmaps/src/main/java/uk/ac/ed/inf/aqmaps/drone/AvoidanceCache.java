@@ -0,0 +1,219 @@
+package uk.ac.ed.inf.aqmaps.drone;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.mapbox.geojson.Point;
+
+import uk.ac.ed.inf.aqmaps.map.FlightWorld;
+import uk.ac.ed.inf.aqmaps.map.TwoDimensionalMapObject;
+
+/**
+ * The AvoidanceCache remembers how a main drone got around an obstacle, so
+ * that the shadow drones do not need to be sent out again when another drone
+ * finds itself in exactly the same situation. That happens whenever the same
+ * flight is simulated twice - e.g. by the TourPlanner when it flies candidate
+ * tours that share legs, and by the main drone of App afterwards.
+ *
+ * A situation is identified by the world the drone flies in, the exact
+ * position of the drone, its destination, its action range and the obstacle in
+ * its way. The world is part of it because several worlds may share the same
+ * obstacles - a way around one of them that is legal in one world may well lead
+ * into a no fly zone that only another world has. The positions are
+ * deliberately not rounded: The moves of a shadow drone are only guaranteed to
+ * be legal from the very position it started at, so an entry must never be
+ * replayed from anywhere else.
+ *
+ * The cache holds at most a fixed number of entries, dropping the least
+ * recently used one when it is full. It may be used by many threads at once.
+ */
+public class AvoidanceCache {
+
+    /**
+     * The outcome of sending out shadow drones in one situation: the estimated
+     * cost of going around the obstacle either way, and the moves that were
+     * chosen.
+     */
+    static final class Avoidance {
+        private final double clockwiseCost;
+        private final double counterClockwiseCost;
+        /* The angles of the moves of the cheaper shadow drone, or null if both failed */
+        private final int[] angles;
+
+        Avoidance(double clockwiseCost, double counterClockwiseCost, int[] angles) {
+            this.clockwiseCost = clockwiseCost;
+            this.counterClockwiseCost = counterClockwiseCost;
+            this.angles = angles == null ? null : angles.clone();
+        }
+
+        double getClockwiseCost() {
+            return clockwiseCost;
+        }
+
+        double getCounterClockwiseCost() {
+            return counterClockwiseCost;
+        }
+
+        int[] getAngles() {
+            return angles;
+        }
+    }
+
+    /**
+     * The situation a drone is in when an obstacle keeps it from flying towards
+     * its destination. Worlds and obstacles are compared by identity, since
+     * neither of them defines equality.
+     */
+    private static final class Situation {
+        private final FlightWorld world;
+        private final double longitude;
+        private final double latitude;
+        private final double destinationLong;
+        private final double destinationLat;
+        private final double actionRange;
+        private final TwoDimensionalMapObject obstacle;
+
+        private Situation(FlightWorld world, double longitude, double latitude, Point destination,
+                double actionRange, TwoDimensionalMapObject obstacle) {
+            this.world = world;
+            this.longitude = longitude;
+            this.latitude = latitude;
+            this.destinationLong = destination.longitude();
+            this.destinationLat = destination.latitude();
+            this.actionRange = actionRange;
+            this.obstacle = obstacle;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Situation)) {
+                return false;
+            }
+            var situation = (Situation) other;
+            return world == situation.world && Double.compare(longitude, situation.longitude) == 0
+                    && Double.compare(latitude, situation.latitude) == 0
+                    && Double.compare(destinationLong, situation.destinationLong) == 0
+                    && Double.compare(destinationLat, situation.destinationLat) == 0
+                    && Double.compare(actionRange, situation.actionRange) == 0 && obstacle == situation.obstacle;
+        }
+
+        @Override
+        public int hashCode() {
+            var hash = System.identityHashCode(world);
+            hash = 31 * hash + Double.hashCode(longitude);
+            hash = 31 * hash + Double.hashCode(latitude);
+            hash = 31 * hash + Double.hashCode(destinationLong);
+            hash = 31 * hash + Double.hashCode(destinationLat);
+            hash = 31 * hash + Double.hashCode(actionRange);
+            return 31 * hash + System.identityHashCode(obstacle);
+        }
+    }
+
+    /* The largest number of entries the cache holds */
+    private final int capacity;
+
+    /* The entries, from the least to the most recently used one */
+    private final LinkedHashMap<Situation, Avoidance> avoidances;
+
+    /* Statistics about the lookups made so far */
+    private long numHits;
+    private long numMisses;
+    private long numEvictions;
+
+    /**
+     * The constructor of the AvoidanceCache class.
+     *
+     * @param capacity the largest number of entries the cache holds
+     */
+    public AvoidanceCache(int capacity) {
+        this.capacity = capacity;
+        this.avoidances = new LinkedHashMap<Situation, Avoidance>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Situation, Avoidance> eldest) {
+                if (size() > AvoidanceCache.this.capacity) {
+                    numEvictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * This method looks up how a drone got around an obstacle before.
+     *
+     * @param world       the world the drone flies in
+     * @param longitude   the longitude of the drone
+     * @param latitude    the latitude of the drone
+     * @param destination the point the drone flies to
+     * @param actionRange the distance to the destination the drone needs to reach
+     * @param obstacle    the obstacle in the way of the drone
+     *
+     * @return the outcome, or null if the situation is not in the cache
+     */
+    synchronized Avoidance get(FlightWorld world, double longitude, double latitude, Point destination,
+            double actionRange, TwoDimensionalMapObject obstacle) {
+        var avoidance = avoidances.get(new Situation(world, longitude, latitude, destination, actionRange, obstacle));
+        if (avoidance == null) {
+            numMisses++;
+        } else {
+            numHits++;
+        }
+        return avoidance;
+    }
+
+    /**
+     * This method adds an entry to the cache, possibly dropping the least recently
+     * used one.
+     *
+     * @param world       the world the drone flies in
+     * @param longitude   the longitude of the drone
+     * @param latitude    the latitude of the drone
+     * @param destination the point the drone flies to
+     * @param actionRange the distance to the destination the drone needs to reach
+     * @param obstacle    the obstacle in the way of the drone
+     * @param avoidance   the outcome of sending out shadow drones
+     */
+    synchronized void put(FlightWorld world, double longitude, double latitude, Point destination,
+            double actionRange, TwoDimensionalMapObject obstacle, Avoidance avoidance) {
+        avoidances.put(new Situation(world, longitude, latitude, destination, actionRange, obstacle), avoidance);
+    }
+
+    /**
+     * This method removes all entries, e.g. to measure flights without the cache.
+     * The statistics are kept.
+     */
+    public synchronized void clear() {
+        avoidances.clear();
+    }
+
+    /**
+     * This method summarises the lookups made so far, e.g. to be printed at the end
+     * of a run.
+     *
+     * @return a human-readable summary of the cache statistics
+     */
+    public synchronized String getStatisticsSummary() {
+        var numLookups = numHits + numMisses;
+        var hitRate = numLookups == 0 ? 0 : Math.round(1000.0 * numHits / numLookups) / 10.0;
+        return "Avoidance cache: " + numHits + " hits, " + numMisses + " misses (" + hitRate + "% hit rate), "
+                + avoidances.size() + " situations stored, " + numEvictions + " evicted.";
+    }
+
+    /* Getters */
+
+    public synchronized long getNumHits() {
+        return numHits;
+    }
+
+    public synchronized long getNumMisses() {
+        return numMisses;
+    }
+
+    public synchronized int size() {
+        return avoidances.size();
+    }
+
+}
@@ -0,0 +1,560 @@
+package uk.ac.ed.inf.aqmaps.drone;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import com.mapbox.geojson.Point;
+
+import uk.ac.ed.inf.aqmaps.geometry.EuclideanUtils;
+import uk.ac.ed.inf.aqmaps.map.FlightWorld;
+
+/**
+ * The BeamSearchPlanner lets a drone look a few moves ahead before making each
+ * one. Where the greedy drone only ever considers the move straight towards its
+ * destination (and asks its shadow drones for help once that is blocked), this
+ * planner tries every legal angle from every position on its beam, for a fixed
+ * number of moves.
+ *
+ * A partial path is scored by the number of moves it is made of plus the number
+ * of moves still needed - the remaining distance to the edge of the action
+ * range, divided by MOVE_DISTANCE. As in the LatticePathPlanner, the distance is
+ * measured along the shortest way around the no fly zones wherever the
+ * VisibilityGraph of the world allows it, so the beam heads for the right corner
+ * of a building long before running into it. After each level, only the
+ * beamWidth best paths are kept, and of all paths ending in the same cell of a
+ * fine grid, only the best one.
+ *
+ * The drone only makes the first move of the best path found, and then plans
+ * again from its new position - unless the path reaches the destination, in
+ * which case all of its moves are made. Since the drone never returns to a cell
+ * it has already been in on its way to the current destination, it can not go
+ * round in circles. If it gets stuck all the same, the planner gives up, and the
+ * greedy flight of the MainDrone takes over.
+ *
+ * Where a leg ends matters as much as how many moves it takes, since the next
+ * leg starts there. Of all moves that reach the destination on the same level,
+ * the planner therefore picks the one that ends closest to the destination after
+ * that, if there is one.
+ *
+ * Planning again after every move means that most of the positions of the
+ * previous search are explored again. Which moves are legal from a position and
+ * how far it is from the destination are therefore remembered in a table that
+ * all searches of the planner share, keyed by the exact position. The drone
+ * replays exactly the moves that were explored, so the positions match to the
+ * last bit.
+ */
+public class BeamSearchPlanner {
+
+    /* The number of partial paths kept after each level of the search */
+    public static final int DEFAULT_BEAM_WIDTH = 8;
+
+    /* The number of moves the search looks ahead */
+    public static final int DEFAULT_LOOKAHEAD_DEPTH = 4;
+
+    /*
+     * The side length of the grid cells used to tell positions apart, as in the
+     * LatticePathPlanner.
+     */
+    private static final double POSITION_QUANTUM = Drone.MOVE_DISTANCE / 6;
+
+    /* The number of angles a drone can move at */
+    private static final int NUM_ANGLES = 360 / Drone.ANGLE_GRANULARITY;
+
+    /* The world the drone flies in */
+    private final FlightWorld world;
+
+    private final int beamWidth;
+    private final int lookaheadDepth;
+
+    /* What is known about the positions explored so far */
+    private final PositionTable positionTable = new PositionTable();
+
+    /* The destination the drone currently flies to and the one after that, see startLeg */
+    private Point destination;
+    private double actionRange;
+    private Point followingDestination;
+    private double[] distancesFromCorners;
+
+    /* The cells the drone has been in on its way to the current destination */
+    private final HashSet<Long> visitedCells = new HashSet<Long>();
+
+    /*
+     * The beam, level by level: The position of each path, its score, and the
+     * index of the path on the previous level it continues, with the angle of
+     * that move. Each level is sorted by score, best first.
+     */
+    private final double[][] beamLongitudes;
+    private final double[][] beamLatitudes;
+    private final double[][] beamScores;
+    private final long[][] beamCells;
+    private final int[][] beamParents;
+    private final int[][] beamAngles;
+    private final int[] beamSizes;
+
+    /**
+     * The table of positions explored by the searches of a planner. For each
+     * position, it remembers which of the moves from it have been checked, and
+     * which of those are legal, as bit masks over the angle indices. It also
+     * remembers the estimated remaining distance to the destination, which is only
+     * valid during the leg it was computed in.
+     *
+     * Positions are stored in primitive arrays with open addressing, so looking one
+     * up never creates an object.
+     */
+    private static final class PositionTable {
+        private static final int INITIAL_CAPACITY = 1 << 10;
+
+        private double[] longitudes = new double[INITIAL_CAPACITY];
+        private double[] latitudes = new double[INITIAL_CAPACITY];
+        private boolean[] used = new boolean[INITIAL_CAPACITY];
+        private long[] checkedMoves = new long[INITIAL_CAPACITY];
+        private long[] legalMoves = new long[INITIAL_CAPACITY];
+        private double[] remainingDistances = new double[INITIAL_CAPACITY];
+        private int[] legs = new int[INITIAL_CAPACITY];
+        private int size = 0;
+
+        /**
+         * This method finds the slot of a position, adding the position if it is not
+         * in the table yet. Slots are only valid until the next call, since adding a
+         * position may grow the table.
+         *
+         * @param longitude the longitude of the position
+         * @param latitude  the latitude of the position
+         *
+         * @return the index of the slot of the position
+         */
+        private int findSlot(double longitude, double latitude) {
+            var mask = used.length - 1;
+            var slot = hash(longitude, latitude) & mask;
+            while (used[slot]) {
+                if (longitudes[slot] == longitude && latitudes[slot] == latitude) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            /* Keeping the table at most half full keeps the probe sequences short */
+            if (2 * (size + 1) > used.length) {
+                grow();
+                return findSlot(longitude, latitude);
+            }
+            used[slot] = true;
+            longitudes[slot] = longitude;
+            latitudes[slot] = latitude;
+            checkedMoves[slot] = 0;
+            legalMoves[slot] = 0;
+            legs[slot] = -1;
+            size++;
+            return slot;
+        }
+
+        /**
+         * This helper method doubles the capacity of the table, moving every position
+         * to its new slot.
+         */
+        private void grow() {
+            var oldLongitudes = longitudes;
+            var oldLatitudes = latitudes;
+            var oldUsed = used;
+            var oldCheckedMoves = checkedMoves;
+            var oldLegalMoves = legalMoves;
+            var oldRemainingDistances = remainingDistances;
+            var oldLegs = legs;
+
+            var capacity = 2 * oldUsed.length;
+            longitudes = new double[capacity];
+            latitudes = new double[capacity];
+            used = new boolean[capacity];
+            checkedMoves = new long[capacity];
+            legalMoves = new long[capacity];
+            remainingDistances = new double[capacity];
+            legs = new int[capacity];
+
+            var mask = capacity - 1;
+            for (int i = 0; i < oldUsed.length; i++) {
+                if (!oldUsed[i]) {
+                    continue;
+                }
+                var slot = hash(oldLongitudes[i], oldLatitudes[i]) & mask;
+                while (used[slot]) {
+                    slot = (slot + 1) & mask;
+                }
+                used[slot] = true;
+                longitudes[slot] = oldLongitudes[i];
+                latitudes[slot] = oldLatitudes[i];
+                checkedMoves[slot] = oldCheckedMoves[i];
+                legalMoves[slot] = oldLegalMoves[i];
+                remainingDistances[slot] = oldRemainingDistances[i];
+                legs[slot] = oldLegs[i];
+            }
+        }
+
+        /**
+         * This helper method mixes the bits of both coordinates of a position, since
+         * nearby positions differ in their lowest bits only.
+         *
+         * @param longitude the longitude of the position
+         * @param latitude  the latitude of the position
+         *
+         * @return the hash of the position
+         */
+        private static int hash(double longitude, double latitude) {
+            var hash = Double.doubleToLongBits(longitude) * 0x9E3779B97F4A7C15L ^ Double.doubleToLongBits(latitude);
+            hash ^= hash >>> 31;
+            hash *= 0xBF58476D1CE4E5B9L;
+            return (int) (hash ^ (hash >>> 32));
+        }
+    }
+
+    /* Statistics about the move checks made so far */
+    private long numCachedChecks;
+    private long numComputedChecks;
+
+    /* The number of the current leg, which the remaining distances are valid for */
+    private int currentLeg = -1;
+
+    /**
+     * The constructor of the BeamSearchPlanner class.
+     *
+     * @param world          the world the drone flies in
+     * @param beamWidth      the number of partial paths kept after each level
+     * @param lookaheadDepth the number of moves the search looks ahead
+     */
+    public BeamSearchPlanner(FlightWorld world, int beamWidth, int lookaheadDepth) {
+        if (beamWidth < 1 || lookaheadDepth < 1) {
+            throw new IllegalArgumentException("A beam search needs a width and depth of at least 1.");
+        }
+        this.world = world;
+        this.beamWidth = beamWidth;
+        this.lookaheadDepth = lookaheadDepth;
+
+        this.beamLongitudes = new double[lookaheadDepth + 1][beamWidth];
+        this.beamLatitudes = new double[lookaheadDepth + 1][beamWidth];
+        this.beamScores = new double[lookaheadDepth + 1][beamWidth];
+        this.beamCells = new long[lookaheadDepth + 1][beamWidth];
+        this.beamParents = new int[lookaheadDepth + 1][beamWidth];
+        this.beamAngles = new int[lookaheadDepth + 1][beamWidth];
+        this.beamSizes = new int[lookaheadDepth + 1];
+    }
+
+    /**
+     * This method tells the planner that the drone sets off for a new destination.
+     * It has to be called before the first call of planMoves for that destination.
+     *
+     * @param destination          the point the drone flies to
+     * @param actionRange          the distance to the destination the drone needs
+     *                             to reach
+     * @param followingDestination the point the drone flies to next, or null if
+     *                             there is none
+     */
+    public void startLeg(Point destination, double actionRange, Point followingDestination) {
+        this.destination = destination;
+        this.followingDestination = followingDestination;
+        this.actionRange = actionRange;
+        this.currentLeg++;
+        this.visitedCells.clear();
+
+        /* As in the LatticePathPlanner, see there */
+        var visibilityGraph = world.getVisibilityGraph();
+        this.distancesFromCorners = visibilityGraph.computeClearance(destination) > actionRange
+                ? visibilityGraph.computeDistancesFromCorners(destination)
+                : null;
+    }
+
+    /**
+     * This method searches the moves ahead of a drone and picks the ones it should
+     * make next.
+     *
+     * @param longitude the longitude of the drone
+     * @param latitude  the latitude of the drone
+     * @param maxSteps  the largest number of moves the drone may still make
+     *
+     * @return the angles of the moves to make, in order - either all moves of a
+     *         path into the action range of the destination, or the first move of
+     *         the most promising path. Null if the drone is stuck.
+     */
+    public int[] planMoves(double longitude, double latitude, int maxSteps) {
+        var destinationLong = destination.longitude();
+        var destinationLat = destination.latitude();
+        visitedCells.add(computeCellKey(longitude, latitude));
+
+        beamLongitudes[0][0] = longitude;
+        beamLatitudes[0][0] = latitude;
+        beamSizes[0] = 1;
+
+        var depth = Math.min(lookaheadDepth, maxSteps);
+        var deepestLevel = 0;
+        for (int level = 1; level <= depth; level++) {
+            beamSizes[level] = 0;
+
+            /* The move that reaches the destination on this level, ending closest to the following one */
+            var bestFinalParent = -1;
+            var bestFinalAngle = 0;
+            var bestFinalDistance = Double.POSITIVE_INFINITY;
+
+            for (int parent = 0; parent < beamSizes[level - 1]; parent++) {
+                var parentLong = beamLongitudes[level - 1][parent];
+                var parentLat = beamLatitudes[level - 1][parent];
+
+                var towardsGoal = (int) Math.round(EuclideanUtils.computeAngleInDegrees(parentLong, parentLat,
+                        destinationLong, destinationLat) / Drone.ANGLE_GRANULARITY);
+                for (int k = 0; k < NUM_ANGLES; k++) {
+                    var offset = (k % 2 == 0) ? k / 2 : -(k + 1) / 2;
+                    var i = ((towardsGoal + offset) % NUM_ANGLES + NUM_ANGLES) % NUM_ANGLES;
+                    var angle = i * Drone.ANGLE_GRANULARITY;
+                    var nextLong = Drone.STEP_TABLE.getNextLongitude(parentLong, angle);
+                    var nextLat = Drone.STEP_TABLE.getNextLatitude(parentLat, angle);
+                    var distance = EuclideanUtils.computeDistance(nextLong, nextLat, destinationLong, destinationLat);
+
+                    if (distance <= actionRange) {
+                        var finalDistance = followingDestination == null ? distance
+                                : EuclideanUtils.computeDistance(nextLong, nextLat, followingDestination.longitude(),
+                                        followingDestination.latitude());
+                        if (finalDistance < bestFinalDistance && isLegalMove(parentLong, parentLat, i)) {
+                            bestFinalParent = parent;
+                            bestFinalAngle = angle;
+                            bestFinalDistance = finalDistance;
+                        }
+                        continue;
+                    }
+                    /* Once the destination can be reached on this level, no other path matters */
+                    if (bestFinalParent >= 0) {
+                        continue;
+                    }
+
+                    /*
+                     * The straight line is never longer than the way around the obstacles, so a
+                     * path that would not make it onto the beam even then needs no further work.
+                     */
+                    if (beamSizes[level] == beamWidth
+                            && computeScore(level, distance) >= beamScores[level][beamWidth - 1]) {
+                        continue;
+                    }
+                    if (!isLegalMove(parentLong, parentLat, i)) {
+                        continue;
+                    }
+                    var cellKey = computeCellKey(nextLong, nextLat);
+                    if (visitedCells.contains(cellKey)) {
+                        continue;
+                    }
+                    var score = computeScore(level, getRemainingDistance(nextLong, nextLat));
+                    addToBeam(level, nextLong, nextLat, score, cellKey, parent, angle);
+                }
+            }
+
+            if (bestFinalParent >= 0) {
+                var path = reconstructPath(level - 1, bestFinalParent);
+                var moves = Arrays.copyOf(path, path.length + 1);
+                moves[path.length] = bestFinalAngle;
+                return moves;
+            }
+            if (beamSizes[level] == 0) {
+                break;
+            }
+            deepestLevel = level;
+        }
+
+        if (deepestLevel == 0) {
+            return null;
+        }
+        var path = reconstructPath(deepestLevel, 0);
+        return new int[] { path[0] };
+    }
+
+    /**
+     * This helper method scores a partial path by the number of moves it is made
+     * of plus the number of moves still needed to reach the destination.
+     *
+     * @param stepsMade         the number of moves of the path
+     * @param remainingDistance the length of the way from its end to the
+     *                          destination
+     *
+     * @return the score of the path, lower is better
+     */
+    private double computeScore(int stepsMade, double remainingDistance) {
+        return stepsMade + (remainingDistance - actionRange) / Drone.MOVE_DISTANCE;
+    }
+
+    /**
+     * This helper method adds a path to a level of the beam, if it is among the
+     * beamWidth best ones. Of two paths ending in the same cell, only the better
+     * one is kept. Ties are broken in favour of the path that was added first.
+     *
+     * @param level     the level of the beam
+     * @param longitude the longitude the path ends at
+     * @param latitude  the latitude the path ends at
+     * @param score     the score of the path, lower is better
+     * @param cellKey   the cell the path ends in
+     * @param parent    the index of the path it continues on the previous level
+     * @param angle     the angle of its last move
+     */
+    private void addToBeam(int level, double longitude, double latitude, double score, long cellKey, int parent,
+            int angle) {
+        var scores = beamScores[level];
+        var cells = beamCells[level];
+        var size = beamSizes[level];
+
+        /* A better path into the same cell may be on the beam already */
+        for (int i = 0; i < size; i++) {
+            if (cells[i] == cellKey) {
+                if (scores[i] <= score) {
+                    return;
+                }
+                removeFromBeam(level, i);
+                size--;
+                break;
+            }
+        }
+        if (size == beamWidth && scores[size - 1] <= score) {
+            return;
+        }
+
+        /* Insert the path at its place in the order, dropping the worst one if the beam is full */
+        var position = Math.min(size, beamWidth - 1);
+        while (position > 0 && scores[position - 1] > score) {
+            moveWithinBeam(level, position - 1, position);
+            position--;
+        }
+        beamLongitudes[level][position] = longitude;
+        beamLatitudes[level][position] = latitude;
+        scores[position] = score;
+        cells[position] = cellKey;
+        beamParents[level][position] = parent;
+        beamAngles[level][position] = angle;
+        beamSizes[level] = Math.min(size + 1, beamWidth);
+    }
+
+    /**
+     * This helper method removes a path from a level of the beam, keeping the
+     * others in order.
+     *
+     * @param level the level of the beam
+     * @param index the index of the path to remove
+     */
+    private void removeFromBeam(int level, int index) {
+        for (int i = index + 1; i < beamSizes[level]; i++) {
+            moveWithinBeam(level, i, i - 1);
+        }
+        beamSizes[level]--;
+    }
+
+    /**
+     * This helper method copies a path to another place on the same level of the
+     * beam.
+     *
+     * @param level the level of the beam
+     * @param from  the index of the path
+     * @param to    the index it is copied to
+     */
+    private void moveWithinBeam(int level, int from, int to) {
+        beamLongitudes[level][to] = beamLongitudes[level][from];
+        beamLatitudes[level][to] = beamLatitudes[level][from];
+        beamScores[level][to] = beamScores[level][from];
+        beamCells[level][to] = beamCells[level][from];
+        beamParents[level][to] = beamParents[level][from];
+        beamAngles[level][to] = beamAngles[level][from];
+    }
+
+    /**
+     * This helper method collects the angles of the moves of a path on the beam.
+     *
+     * @param level the level the path ends on
+     * @param index the index of the path on that level
+     *
+     * @return the angles of the moves, in the order they are made
+     */
+    private int[] reconstructPath(int level, int index) {
+        var angles = new int[level];
+        for (int l = level; l > 0; l--) {
+            angles[l - 1] = beamAngles[l][index];
+            index = beamParents[l][index];
+        }
+        return angles;
+    }
+
+    /**
+     * This helper method checks whether a move is legal, looking the answer up in
+     * the position table first.
+     *
+     * @param longitude  the longitude the move starts at
+     * @param latitude   the latitude the move starts at
+     * @param angleIndex the angle of the move, divided by ANGLE_GRANULARITY
+     *
+     * @return whether the move crosses no forbidden object
+     */
+    private boolean isLegalMove(double longitude, double latitude, int angleIndex) {
+        var slot = positionTable.findSlot(longitude, latitude);
+        var bit = 1L << angleIndex;
+        if ((positionTable.checkedMoves[slot] & bit) != 0) {
+            numCachedChecks++;
+            return (positionTable.legalMoves[slot] & bit) != 0;
+        }
+
+        numComputedChecks++;
+        var angle = angleIndex * Drone.ANGLE_GRANULARITY;
+        var nextLong = Drone.STEP_TABLE.getNextLongitude(longitude, angle);
+        var nextLat = Drone.STEP_TABLE.getNextLatitude(latitude, angle);
+        var isLegal = world.findObstacleCrossedBy(longitude, latitude, nextLong, nextLat) == null;
+        positionTable.checkedMoves[slot] |= bit;
+        if (isLegal) {
+            positionTable.legalMoves[slot] |= bit;
+        }
+        return isLegal;
+    }
+
+    /**
+     * This helper method computes the length of the way from a position to the
+     * destination of the current leg, around the no fly zones where that is known,
+     * looking the answer up in the position table first.
+     *
+     * @param longitude the longitude of the position
+     * @param latitude  the latitude of the position
+     *
+     * @return the length of the way to the destination
+     */
+    private double getRemainingDistance(double longitude, double latitude) {
+        var slot = positionTable.findSlot(longitude, latitude);
+        if (positionTable.legs[slot] == currentLeg) {
+            return positionTable.remainingDistances[slot];
+        }
+
+        var distance = EuclideanUtils.computeDistance(longitude, latitude, destination.longitude(),
+                destination.latitude());
+        if (distancesFromCorners != null) {
+            var distanceAroundObstacles = world.getVisibilityGraph().computeShortestDistance(longitude, latitude,
+                    distancesFromCorners, destination);
+            /* Positions hugging an obstacle may not see any corner, but can still be left */
+            if (!Double.isInfinite(distanceAroundObstacles)) {
+                distance = distanceAroundObstacles;
+            }
+        }
+        positionTable.remainingDistances[slot] = distance;
+        positionTable.legs[slot] = currentLeg;
+        return distance;
+    }
+
+    /**
+     * This helper method identifies the cell of the grid that a position lies in.
+     *
+     * @param longitude the longitude of the position
+     * @param latitude  the latitude of the position
+     *
+     * @return a key that is the same for all positions in the cell
+     */
+    private static long computeCellKey(double longitude, double latitude) {
+        var column = (long) Math.floor(longitude / POSITION_QUANTUM);
+        var row = (long) Math.floor(latitude / POSITION_QUANTUM);
+        return (column << 32) ^ (row & 0xFFFFFFFFL);
+    }
+
+    /* Getters */
+
+    public long getNumCachedChecks() {
+        return numCachedChecks;
+    }
+
+    public long getNumComputedChecks() {
+        return numComputedChecks;
+    }
+
+}
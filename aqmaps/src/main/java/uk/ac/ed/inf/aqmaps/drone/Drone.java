@@ -1,12 +1,11 @@
 package uk.ac.ed.inf.aqmaps.drone;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 
 import com.mapbox.geojson.Point;
 
-import uk.ac.ed.inf.aqmaps.application.App;
 import uk.ac.ed.inf.aqmaps.geometry.EuclideanUtils;
-import uk.ac.ed.inf.aqmaps.geometry.LineSegment;
+import uk.ac.ed.inf.aqmaps.map.FlightWorld;
 import uk.ac.ed.inf.aqmaps.map.TwoDimensionalMapObject;
 
 /**
@@ -14,14 +13,50 @@ import uk.ac.ed.inf.aqmaps.map.TwoDimensionalMapObject;
  * shared properties, which we would expect each potential other type of drone
  * to incorporate as well.
  *
+ * Drones are simulated many thousands of times while a tour is planned, so
+ * their state is kept in primitive fields and arrays: Making a move does not
+ * create a single object. Points are only created when a position is asked for
+ * from outside.
+ *
+ * For the same reason, a drone that wants to know what would happen if it
+ * made some moves does not create a copy of itself. It saves a Snapshot of its
+ * state, makes the moves and rolls back to the Snapshot afterwards.
  */
 public abstract class Drone {
 
-    /*
-     * We capture the position of objects in our map as points - this eventually
-     * makes converting them to GeoJSON features easier.
+    /**
+     * A saved state of a drone - its position, the number of steps it has made
+     * (and therefore the length of its move history) and the obstacle that was in
+     * its way last. A drone can be rolled back to any Snapshot taken earlier on its
+     * current line of moves.
+     *
+     * Snapshots are mutable and meant to be reused, so that a drone can branch off
+     * and roll back as often as it likes without creating any objects.
      */
-    protected Point currentPosition;
+    public static final class Snapshot {
+        private double longitude;
+        private double latitude;
+        private int stepsMade;
+        private TwoDimensionalMapObject obstacleInOurWay;
+
+        /* Getters */
+
+        public double getLongitude() {
+            return longitude;
+        }
+
+        public double getLatitude() {
+            return latitude;
+        }
+
+        public int getStepsMade() {
+            return stepsMade;
+        }
+    }
+
+    /* The position of the drone */
+    protected double currentLong;
+    protected double currentLat;
 
     /*
      * The "range" of the action the drone wants to complete next. MAX_READ_DISTANCE
@@ -38,9 +73,10 @@ public abstract class Drone {
 
     /*
      * A history of all angles the drone ever chose to move. This is useful for the
-     * output of the main drone and for copying the moves of a "shadow drone".
+     * output of the main drone and for copying the moves of a "shadow drone". Only
+     * the first stepsMade entries are used, the array grows as needed.
      */
-    protected ArrayList<Integer> moveAngleHistory;
+    protected int[] moveAngleHistory;
 
     /*
      * This field is updated when a drone finds that it can not advance straight
@@ -51,9 +87,20 @@ public abstract class Drone {
 
     /*
      * The current Destination of the drone. May correspond to a sensor or the
-     * starting point.
+     * starting point. Its coordinates are kept separately as well, since they are
+     * needed on every move. Use setCurrentDestination to change it.
      */
     protected Point currentDestination;
+    protected double destinationLong;
+    protected double destinationLat;
+
+    /*
+     * The world the drone flies in, which knows all 2D objects the boundaries of
+     * which the drone may not cross - the confinement area as well as the no fly
+     * zones. Worlds are immutable, so many drones can be simulated in the same (or
+     * different) worlds at the same time, e.g. by the TourPlanner.
+     */
+    protected final FlightWorld world;
 
     /*
      * The verbose flag tells the drone whether it should print feedback to standard
@@ -80,21 +127,36 @@ public abstract class Drone {
     /* Radius of circle around starting point in which drone is allowed to land */
     protected static final double MAX_LANDING_DISTANCE = 0.0003;
 
+    /*
+     * The displacement caused by a move at each of the legal angles, computed once
+     * so that no move needs to evaluate any trigonometric functions.
+     */
+    protected static final StepTable STEP_TABLE = new StepTable(ANGLE_GRANULARITY, MOVE_DISTANCE);
+
+    /* The number of moves the history of a new drone has room for */
+    private static final int INITIAL_HISTORY_CAPACITY = 16;
+
+    /* The state the drone rolls back to after trying out parking manoeuvres */
+    private final Snapshot parkingSnapshot = new Snapshot();
+
     /**
      * The constructor of the abstract Drone (super)class. Has behaviour that is
      * needed for Main- as well as ShadowDrones.
      * 
      * @param startingPoint the starting point of the drone
+     * @param world         the world the drone flies in
      * @param verbose       whether we expect printed output from this drone even if
      *                      no error occurs
      */
-    public Drone(Point startingPoint, boolean verbose) {
-        this.currentPosition = startingPoint;
+    public Drone(Point startingPoint, FlightWorld world, boolean verbose) {
+        this.currentLong = startingPoint.longitude();
+        this.currentLat = startingPoint.latitude();
+        this.world = world;
         this.verbose = verbose;
 
         this.currentActionRange = MAX_READ_DISTANCE;
         this.stepsMade = 0;
-        this.moveAngleHistory = new ArrayList<Integer>();
+        this.moveAngleHistory = new int[INITIAL_HISTORY_CAPACITY];
     }
 
     /**
@@ -107,6 +169,51 @@ public abstract class Drone {
      */
     protected abstract void makeMove(int angle);
 
+    /**
+     * This method moves the drone at the given angle and records the move,
+     * without checking whether it is legal. It is the common part of the makeMove
+     * methods of all drones.
+     * 
+     * @param angle the angle of the move
+     */
+    protected void recordMove(int angle) {
+        if (stepsMade == moveAngleHistory.length) {
+            moveAngleHistory = Arrays.copyOf(moveAngleHistory, 2 * moveAngleHistory.length);
+        }
+        moveAngleHistory[stepsMade] = angle;
+        currentLong = STEP_TABLE.getNextLongitude(currentLong, angle);
+        currentLat = STEP_TABLE.getNextLatitude(currentLat, angle);
+        stepsMade++;
+    }
+
+    /**
+     * This method saves the current state of the drone, so that it can later be
+     * rolled back to it.
+     * 
+     * @param snapshot the Snapshot to overwrite with the current state
+     */
+    public void saveSnapshot(Snapshot snapshot) {
+        snapshot.longitude = currentLong;
+        snapshot.latitude = currentLat;
+        snapshot.stepsMade = stepsMade;
+        snapshot.obstacleInOurWay = obstacleInOurWay;
+    }
+
+    /**
+     * This method rolls the drone back to a state it was in before, forgetting all
+     * moves made since. The Snapshot must have been taken earlier on the current
+     * line of moves of this drone, or else its move history would no longer match
+     * its position.
+     * 
+     * @param snapshot the Snapshot that was saved by saveSnapshot
+     */
+    public void restoreSnapshot(Snapshot snapshot) {
+        currentLong = snapshot.longitude;
+        currentLat = snapshot.latitude;
+        stepsMade = snapshot.stepsMade;
+        obstacleInOurWay = snapshot.obstacleInOurWay;
+    }
+
     /**
      * This method is a short-cut that tells a drone to move straight towards its
      * destination, which should only be done assuming that no obstacle is keeping
@@ -143,29 +250,17 @@ public abstract class Drone {
      */
     protected boolean canMove(int angle) {
 
-        var nextPos = EuclideanUtils.getNextPosition(this.currentPosition, angle, MOVE_DISTANCE);
-
-        var moveLineSegment = new LineSegment(this.currentPosition, nextPos);
-
-        /*
-         * We get a list of all 2D objects the boundaries of which may not be crossed.
-         */
-        var forbiddenObjects = new ArrayList<TwoDimensionalMapObject>();
-        forbiddenObjects.add(App.getConfinementArea());
-        for (var noFlyZone : App.getNoFlyZones()) {
-            forbiddenObjects.add(noFlyZone);
-        }
+        var nextLong = STEP_TABLE.getNextLongitude(currentLong, angle);
+        var nextLat = STEP_TABLE.getNextLatitude(currentLat, angle);
 
         /*
          * If we are trying to cross the boundaries of a forbidden object, we refrain
          * from doing so and remember which object hindered us.
          */
-        for (var forbiddenObject : forbiddenObjects) {
-            var forbiddenPolygon = forbiddenObject.getPolygon();
-            if (EuclideanUtils.lineSegmentAndPolygonIntersect(moveLineSegment, forbiddenPolygon)) {
-                obstacleInOurWay = forbiddenObject;
-                return false;
-            }
+        var forbiddenObject = world.findObstacleCrossedBy(currentLong, currentLat, nextLong, nextLat);
+        if (forbiddenObject != null) {
+            obstacleInOurWay = forbiddenObject;
+            return false;
         }
 
         /*
@@ -192,12 +287,35 @@ public abstract class Drone {
      * enter the required range in two (or preferably only one) steps, that one will
      * do.
      * 
-     * This is not necessarily efficient, but the movement of our drone is not a
-     * bottleneck in the performance of this application anyways.
+     * Each candidate manoeuvre is tried out by making its moves and rolling back
+     * to a Snapshot afterwards, so no other drone is needed for this.
      * 
      * @return whether the parking manoeuvre was successful
      */
     public boolean park() {
+        return searchParkingManoeuvre(true);
+    }
+
+    /**
+     * This method finds out whether the drone could park (see above), without
+     * moving it.
+     * 
+     * @return whether a parking manoeuvre would be successful
+     */
+    protected boolean canPark() {
+        return searchParkingManoeuvre(false);
+    }
+
+    /**
+     * This helper method looks for a parking manoeuvre of 1 or 2 moves, as
+     * described for the park method.
+     * 
+     * @param execute whether the drone should actually make the moves of the
+     *                manoeuvre it finds
+     * 
+     * @return whether a parking manoeuvre was found
+     */
+    private boolean searchParkingManoeuvre(boolean execute) {
 
         var numAngles = 360 / ANGLE_GRANULARITY;
 
@@ -206,6 +324,11 @@ public abstract class Drone {
         /* The angle that was chosen for the final step of the drone before its goal */
         Integer chosenParkingMoveAngle = null;
 
+        /*
+         * Manoeuvres always have to end within reading range of the destination, even
+         * when landing - which is the stricter of the two ranges.
+         */
+
         /* Try all possible angles, starting with the one straight towards the goal */
         var idealAngle = computeRoundedAngleOfLineToGoal();
         for (int i = 0; i < numAngles; i++) {
@@ -216,11 +339,9 @@ public abstract class Drone {
              * consider it as an option.
              */
             if (canMove(angleForCandidateInBetweenMove)) {
-                var posAfterCandidateInBetweenMove = EuclideanUtils.getNextPosition(this.currentPosition,
-                        angleForCandidateInBetweenMove, MOVE_DISTANCE);
-
-                var shadowForSecondStep = new ShadowDrone(posAfterCandidateInBetweenMove, this.currentDestination,
-                        verbose);
+                /* The move is legal, so there is no need to check it again while trying it out */
+                saveSnapshot(parkingSnapshot);
+                recordMove(angleForCandidateInBetweenMove);
 
                 /*
                  * If this single move takes us into the required range, it is all we need from
@@ -230,23 +351,26 @@ public abstract class Drone {
                  * is possible - but only if none has been found yet, because any legal 2-move
                  * combination that works... works.
                  */
-                if (shadowForSecondStep.isInRangeOfDestination()) {
-                    makeMove(angleForCandidateInBetweenMove);
+                if (computeDistanceToDestination() <= MAX_READ_DISTANCE) {
+                    restoreSnapshot(parkingSnapshot);
+                    if (execute) {
+                        makeMove(angleForCandidateInBetweenMove);
+                    }
                     return true;
-                } else if (chosenInBetweenMoveAngle == null && shadowForSecondStep.canMoveTowardsGoal()) {
+                } else if (chosenInBetweenMoveAngle == null && canMoveTowardsGoal()) {
                     /*
                      * After the in-between move we take a step straight at the goal and see if this
                      * works. If it does, we record it in case no 1-step manoeuvre is later found.
                      */
-                    shadowForSecondStep.makeMoveTowardsGoal();
-                    if (shadowForSecondStep.isInRangeOfDestination()) {
-                        var parkingAngle = shadowForSecondStep.getMoveAngleHistory().get(0);
-
+                    var parkingAngle = computeRoundedAngleOfLineToGoal();
+                    recordMove(parkingAngle);
+                    if (computeDistanceToDestination() <= MAX_READ_DISTANCE) {
                         chosenInBetweenMoveAngle = angleForCandidateInBetweenMove;
                         chosenParkingMoveAngle = parkingAngle;
 
                     }
                 }
+                restoreSnapshot(parkingSnapshot);
             }
         }
 
@@ -255,10 +379,12 @@ public abstract class Drone {
          * - but hopefully we have found a 2-step manoeuvre, which we now go for.
          */
         if (chosenInBetweenMoveAngle == null) {
-            if (verbose) {
+            if (verbose && execute) {
                 System.out.println("The parking attempt was not successful.");                                                              
             }
             return false;
+        } else if (!execute) {
+            return true;
         } else {
             makeMove(chosenInBetweenMoveAngle);
             makeMove(chosenParkingMoveAngle);
@@ -283,9 +409,8 @@ public abstract class Drone {
      *         a multiple of the angle granularity
      */
     protected int computeRoundedAngleOfLineToGoal() {
-        var straightPath = new LineSegment(this.currentPosition, this.currentDestination);
-
-        var exactAngle = straightPath.getAngleInDegrees();
+        var exactAngle = EuclideanUtils.computeAngleInDegrees(currentLong, currentLat, destinationLong,
+                destinationLat);
         var scaledAngle = exactAngle / ANGLE_GRANULARITY;
         var roundedAngle = (ANGLE_GRANULARITY * (int) Math.round(scaledAngle) + 360) % 360;
 
@@ -300,13 +425,35 @@ public abstract class Drone {
      *         it plans to do next
      */
     protected boolean isInRangeOfDestination() {
-        return EuclideanUtils.computeDistance(currentPosition, currentDestination) <= currentActionRange;
+        return computeDistanceToDestination() <= currentActionRange;
+    }
+
+    /**
+     * This method is a shortcut to find out how far the drone is from its current
+     * destination.
+     * 
+     * @return the distance between the drone and its destination
+     */
+    protected double computeDistanceToDestination() {
+        return EuclideanUtils.computeDistance(currentLong, currentLat, destinationLong, destinationLat);
     }
 
     /* The following are just getters and a setter. Nothing unexpected here. */
 
+    /*
+     * Creates a new Point every time, so this is not meant to be called on every
+     * move.
+     */
     public Point getCurrentPosition() {
-        return currentPosition;
+        return Point.fromLngLat(currentLong, currentLat);
+    }
+
+    public double getCurrentLongitude() {
+        return currentLong;
+    }
+
+    public double getCurrentLatitude() {
+        return currentLat;
     }
 
     public int getStepsMade() {
@@ -329,8 +476,22 @@ public abstract class Drone {
         return MAX_LANDING_DISTANCE;
     }
 
-    public ArrayList<Integer> getMoveAngleHistory() {
-        return moveAngleHistory;
+    public static double getMoveDistance() {
+        return MOVE_DISTANCE;
+    }
+
+    public int[] getMoveAngleHistory() {
+        return Arrays.copyOf(moveAngleHistory, stepsMade);
+    }
+
+    protected void setCurrentDestination(Point destination) {
+        currentDestination = destination;
+        destinationLong = destination.longitude();
+        destinationLat = destination.latitude();
+    }
+
+    public FlightWorld getWorld() {
+        return world;
     }
 
     public void setCurrentActionRange(double range) {
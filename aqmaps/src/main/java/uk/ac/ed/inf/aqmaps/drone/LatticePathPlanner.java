@@ -0,0 +1,302 @@
+package uk.ac.ed.inf.aqmaps.drone;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+import com.mapbox.geojson.Point;
+
+import uk.ac.ed.inf.aqmaps.geometry.EuclideanUtils;
+import uk.ac.ed.inf.aqmaps.map.FlightWorld;
+
+/**
+ * The LatticePathPlanner finds a shortest flight from one point to the range of
+ * another, using A* search. Rather than flying straight at its destination and
+ * dodging obstacles as they come up, a drone using this planner knows all of
+ * its moves before making the first one.
+ *
+ * The positions a drone can reach form a lattice: From each position, it can
+ * move MOVE_DISTANCE at any of 360 / ANGLE_GRANULARITY angles, as long as it
+ * does not cross the boundary of a forbidden object. The search explores this
+ * lattice in order of the number of steps made so far plus a lower bound on the
+ * number of steps still needed - the remaining distance to the edge of the
+ * action range, divided by MOVE_DISTANCE. That distance is measured along the
+ * shortest way around the no fly zones, as found by the VisibilityGraph of the
+ * world, wherever that is valid. Since every step covers exactly MOVE_DISTANCE,
+ * the bound never overestimates, so no position the search takes from its queue
+ * later can be on a shorter path than one found before.
+ *
+ * A shortest path is rarely unique, and where it ends matters: The TourPlanner
+ * estimates the cost of the next flight from the exact position of the sensor,
+ * so the closer to it the drone ends up, the better. Of all shortest paths the
+ * search finds, it therefore returns the one that ends closest to the
+ * destination.
+ *
+ * Moves at different angles almost never lead to exactly the same position, so
+ * the lattice would grow without bound. Positions are therefore deduplicated on
+ * a grid whose cells are much smaller than a move: Of all positions in the same
+ * cell, only the one reached in the fewest steps is explored further. The path
+ * found is made of real moves from the real starting point, so the drone can
+ * replay it exactly - it is merely possible (if rare) that a path that is one
+ * step shorter is missed because it passes through a cell that was already
+ * taken.
+ */
+public class LatticePathPlanner {
+
+    /*
+     * The side length of the grid cells positions are deduplicated on. Finer grids
+     * miss fewer shortest paths, but the number of positions explored grows with
+     * the square of their resolution.
+     */
+    private static final double POSITION_QUANTUM = Drone.MOVE_DISTANCE / 6;
+
+    /*
+     * The search gives up after exploring this many positions. That only happens
+     * if the destination cannot be reached at all (e.g. it lies in a no fly zone),
+     * in which case the search would otherwise explore the whole confinement area.
+     */
+    static final int MAX_EXPANDED_STATES = 100_000;
+
+    /* The world the drone flies in */
+    private final FlightWorld world;
+
+    /**
+     * A position of the drone that has been reached during the search, together
+     * with the path that led there.
+     */
+    private static final class SearchState {
+        private final double longitude;
+        private final double latitude;
+        private final int stepsMade;
+        /* The number of steps made plus the lower bound on those still needed */
+        private final double estimatedSteps;
+        /* The order in which states were created, to break ties deterministically */
+        private final long sequenceNumber;
+        /* The state this one was reached from, and the angle of that move */
+        private final SearchState previousState;
+        private final int angle;
+
+        private SearchState(double longitude, double latitude, int stepsMade, double estimatedSteps,
+                long sequenceNumber, SearchState previousState, int angle) {
+            this.longitude = longitude;
+            this.latitude = latitude;
+            this.stepsMade = stepsMade;
+            this.estimatedSteps = estimatedSteps;
+            this.sequenceNumber = sequenceNumber;
+            this.previousState = previousState;
+            this.angle = angle;
+        }
+    }
+
+    /**
+     * The constructor of the LatticePathPlanner class.
+     *
+     * @param world the world the drone flies in
+     */
+    public LatticePathPlanner(FlightWorld world) {
+        this.world = world;
+    }
+
+    /**
+     * This method finds a shortest sequence of moves that takes a drone from its
+     * starting point into the given range of its destination.
+     *
+     * @param start       the position the drone starts at
+     * @param destination the point the drone flies to
+     * @param actionRange the distance to the destination the drone needs to reach
+     * @param maxSteps    the largest number of moves the drone may make
+     *
+     * @return the angles of the moves, in the order they are made (empty if the
+     *         drone already is in range), or null if no such sequence was found
+     */
+    public ArrayList<Integer> findPath(Point start, Point destination, double actionRange, int maxSteps) {
+        if (EuclideanUtils.computeDistance(start, destination) <= actionRange) {
+            return new ArrayList<Integer>();
+        }
+
+        var destinationLong = destination.longitude();
+        var destinationLat = destination.latitude();
+        var numAngles = 360 / Drone.ANGLE_GRANULARITY;
+
+        /*
+         * Behind a building, the shortest way around the no fly zones is a much better
+         * estimate than the straight line, so the search heads for the right corner
+         * straight away. It is only a lower bound if the whole range of the
+         * destination can be seen from it, though.
+         */
+        var visibilityGraph = world.getVisibilityGraph();
+        var distancesFromCorners = visibilityGraph.computeClearance(destination) > actionRange
+                ? visibilityGraph.computeDistancesFromCorners(destination)
+                : null;
+
+        /* Ties are broken deepest first, and then in the order states were created */
+        var queue = new PriorityQueue<SearchState>((a, b) -> {
+            if (a.estimatedSteps != b.estimatedSteps) {
+                return Double.compare(a.estimatedSteps, b.estimatedSteps);
+            }
+            if (a.stepsMade != b.stepsMade) {
+                return Integer.compare(b.stepsMade, a.stepsMade);
+            }
+            return Long.compare(a.sequenceNumber, b.sequenceNumber);
+        });
+        var fewestStepsOfCell = new HashMap<Long, Integer>();
+
+        var numStates = 0L;
+        var startLong = start.longitude();
+        var startLat = start.latitude();
+        queue.add(new SearchState(startLong, startLat, 0,
+                estimateRemainingSteps(startLong, startLat, destination, actionRange, distancesFromCorners),
+                numStates++, null, 0));
+        fewestStepsOfCell.put(computeCellKey(startLong, startLat), 0);
+
+        /*
+         * The destination is checked for as soon as a move reaches it. Once it has
+         * been, the search goes on until no state in the queue could reach it in as
+         * few steps, looking for a move that ends even closer to the destination.
+         */
+        SearchState bestPenultimateState = null;
+        var bestFinalAngle = 0;
+        var bestFinalDistance = Double.POSITIVE_INFINITY;
+        var fewestStepsToDestination = maxSteps;
+
+        var numExpandedStates = 0;
+        while (!queue.isEmpty() && numExpandedStates < MAX_EXPANDED_STATES) {
+            var state = queue.poll();
+            if (state.estimatedSteps > fewestStepsToDestination) {
+                break;
+            }
+
+            /* A shorter way into the same cell may have been found in the meantime */
+            if (state.stepsMade > fewestStepsOfCell.get(computeCellKey(state.longitude, state.latitude))) {
+                continue;
+            }
+            numExpandedStates++;
+
+            var nextSteps = state.stepsMade + 1;
+            for (int i = 0; i < numAngles; i++) {
+                var angle = i * Drone.ANGLE_GRANULARITY;
+                var nextLong = Drone.STEP_TABLE.getNextLongitude(state.longitude, angle);
+                var nextLat = Drone.STEP_TABLE.getNextLatitude(state.latitude, angle);
+
+                /* The cheap straight-line bound weeds out most moves before anything else is checked */
+                var distance = EuclideanUtils.computeDistance(nextLong, nextLat, destinationLong, destinationLat);
+                if (nextSteps + estimateRemainingSteps(distance, actionRange) > fewestStepsToDestination) {
+                    continue;
+                }
+                var cellKey = computeCellKey(nextLong, nextLat);
+                var fewestSteps = fewestStepsOfCell.get(cellKey);
+                var reachesDestination = distance <= actionRange;
+                if (!reachesDestination && fewestSteps != null && fewestSteps <= nextSteps) {
+                    continue;
+                }
+                if (world.findObstacleCrossedBy(state.longitude, state.latitude, nextLong, nextLat) != null) {
+                    continue;
+                }
+
+                if (reachesDestination) {
+                    if (nextSteps < fewestStepsToDestination || distance < bestFinalDistance) {
+                        bestPenultimateState = state;
+                        bestFinalAngle = angle;
+                        bestFinalDistance = distance;
+                        fewestStepsToDestination = nextSteps;
+                    }
+                    continue;
+                }
+
+                var remainingSteps = estimateRemainingSteps(nextLong, nextLat, destination, actionRange,
+                        distancesFromCorners);
+                if (nextSteps + remainingSteps > fewestStepsToDestination) {
+                    continue;
+                }
+                fewestStepsOfCell.put(cellKey, nextSteps);
+                queue.add(new SearchState(nextLong, nextLat, nextSteps, nextSteps + remainingSteps, numStates++,
+                        state, angle));
+            }
+        }
+
+        if (bestPenultimateState == null) {
+            return null;
+        }
+        var path = reconstructPath(bestPenultimateState);
+        path.add(bestFinalAngle);
+        return path;
+    }
+
+    /**
+     * This helper method computes a lower bound on the number of moves needed to
+     * get from a position into the action range of the destination, following the
+     * shortest way around the no fly zones if it is known.
+     *
+     * @param longitude            the longitude of the position
+     * @param latitude             the latitude of the position
+     * @param destination          the point the drone flies to
+     * @param actionRange          the distance to the destination that needs to
+     *                             be reached
+     * @param distancesFromCorners the distances from the corners of the
+     *                             visibility graph to the destination, or null if
+     *                             the straight line is to be used
+     *
+     * @return the lower bound on the number of moves
+     */
+    private double estimateRemainingSteps(double longitude, double latitude, Point destination, double actionRange,
+            double[] distancesFromCorners) {
+        var distance = EuclideanUtils.computeDistance(longitude, latitude, destination.longitude(),
+                destination.latitude());
+        if (distancesFromCorners != null) {
+            var distanceAroundObstacles = world.getVisibilityGraph().computeShortestDistance(longitude, latitude,
+                    distancesFromCorners, destination);
+            /* Positions hugging an obstacle may not see any corner, but can still be left */
+            if (!Double.isInfinite(distanceAroundObstacles)) {
+                distance = distanceAroundObstacles;
+            }
+        }
+        return estimateRemainingSteps(distance, actionRange);
+    }
+
+    /**
+     * This helper method computes a lower bound on the number of moves needed to
+     * cover the given distance, up to the edge of the action range.
+     *
+     * @param distance    the length of the way to the destination
+     * @param actionRange the distance to the destination that needs to be reached
+     *
+     * @return the lower bound on the number of moves
+     */
+    private static double estimateRemainingSteps(double distance, double actionRange) {
+        /* The tolerance protects the bound against rounding errors and the detours around corners */
+        return Math.max(0, (distance - actionRange) / Drone.MOVE_DISTANCE - 1e-3);
+    }
+
+    /**
+     * This helper method identifies the cell of the deduplication grid that a
+     * position lies in.
+     *
+     * @param longitude the longitude of the position
+     * @param latitude  the latitude of the position
+     *
+     * @return a key that is the same for all positions in the cell
+     */
+    private static long computeCellKey(double longitude, double latitude) {
+        var column = (long) Math.floor(longitude / POSITION_QUANTUM);
+        var row = (long) Math.floor(latitude / POSITION_QUANTUM);
+        return (column << 32) ^ (row & 0xFFFFFFFFL);
+    }
+
+    /**
+     * This helper method collects the angles of the moves that led to a state.
+     *
+     * @param state the state the path ends at
+     *
+     * @return the angles of the moves, in the order they are made
+     */
+    private static ArrayList<Integer> reconstructPath(SearchState state) {
+        var angles = new ArrayList<Integer>();
+        for (var current = state; current.previousState != null; current = current.previousState) {
+            angles.add(current.angle);
+        }
+        Collections.reverse(angles);
+        return angles;
+    }
+
+}
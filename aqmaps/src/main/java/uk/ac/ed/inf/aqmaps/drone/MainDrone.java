@@ -2,10 +2,15 @@ package uk.ac.ed.inf.aqmaps.drone;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.mapbox.geojson.Point;
 
 import uk.ac.ed.inf.aqmaps.geometry.EuclideanUtils;
+import uk.ac.ed.inf.aqmaps.map.FlightWorld;
 import uk.ac.ed.inf.aqmaps.map.Sensor;
 import uk.ac.ed.inf.aqmaps.map.TwoDimensionalMapObject;
 
@@ -19,6 +24,44 @@ import uk.ac.ed.inf.aqmaps.map.TwoDimensionalMapObject;
  */
 public class MainDrone extends Drone {
 
+    /**
+     * The ways in which the main drone can find its way to its next destination.
+     */
+    public enum NavigationEngine {
+        /* Flying straight at the destination, dodging obstacles as they come up */
+        GREEDY,
+        /* Following a shortest path, found by a LatticePathPlanner beforehand */
+        A_STAR,
+        /* Looking a few moves ahead before each move, using a BeamSearchPlanner */
+        BEAM_SEARCH
+    }
+
+    /* The system property that selects the navigation engine of App */
+    private static final String NAVIGATION_ENGINE_PROPERTY = "aqmaps.navigation";
+
+    /* The system property that lets main drones use the AVOIDANCE_CACHE */
+    private static final String AVOIDANCE_CACHE_PROPERTY = "aqmaps.avoidanceCache";
+
+    /*
+     * Remembers how main drones got around obstacles. It is shared by all main
+     * drones that use it, including the ones the TourPlanners of several days
+     * simulate at the same time. Few flights are ever repeated exactly, so it is
+     * only used if asked for, see isAvoidanceCacheEnabled.
+     */
+    private static final int AVOIDANCE_CACHE_CAPACITY = 20_000;
+    private static final AvoidanceCache AVOIDANCE_CACHE = new AvoidanceCache(AVOIDANCE_CACHE_CAPACITY);
+
+    /*
+     * The threads that send out clockwise shadow drones while the main drone's own
+     * thread sends out the counter-clockwise ones. They are daemons, so that they
+     * never keep the application from exiting.
+     */
+    private static final ExecutorService SHADOW_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        var thread = new Thread(runnable, "shadow-drone");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     /*
      * The list of sensors that the drone is supposed to read in exactly the given
      * order.
@@ -51,37 +94,96 @@ public class MainDrone extends Drone {
 
     /*
      * All positions the drone had at some point over the course of the current day.
+     * The drone can never make more than MAX_MOVES moves, so there is room for all
+     * of them from the start. Only the first stepsMade + 1 entries are used.
+     */
+    private final double[] longitudeHistory;
+    private final double[] latitudeHistory;
+
+    /* The way the drone finds its way to each destination */
+    private NavigationEngine navigationEngine = NavigationEngine.GREEDY;
+
+    /* Whether the drone looks up how to avoid obstacles in the AVOIDANCE_CACHE */
+    private boolean usesAvoidanceCache = isAvoidanceCacheEnabled();
+
+    /* Whether both shadow drones are sent out at the same time, see avoidObstacle */
+    private boolean concurrentAvoidance = false;
+
+    /*
+     * The planner of the BEAM_SEARCH navigation engine, which is kept for the whole
+     * tour so that its searches can share what they found out.
      */
-    private ArrayList<Point> positionHistory;
+    private BeamSearchPlanner beamSearchPlanner;
+
+    /* The state the drone was in when it was created, see restartTour */
+    private final Snapshot initialSnapshot = new Snapshot();
 
     /**
      * The constructor of the MainDrone class
      * 
      * @param startingPosition the position the drone starts at on move 0
      * @param tour             the list of sensors the drone is expected to read
+     * @param world            the world the drone flies in
      * @param verbose          whether we want the drone to print success messages
      *                         to standard output
      */
-    public MainDrone(Point startingPosition, ArrayList<Sensor> tour, boolean verbose) {
-        super(startingPosition, verbose);
-
-        this.startingPosition = currentPosition;
-        var startingPosAsList = Arrays.asList(this.startingPosition);
-        this.positionHistory = new ArrayList<Point>(startingPosAsList);
+    public MainDrone(Point startingPosition, ArrayList<Sensor> tour, FlightWorld world, boolean verbose) {
+        super(startingPosition, world, verbose);
+
+        this.startingPosition = startingPosition;
+        this.longitudeHistory = new double[MAX_MOVES + 1];
+        this.latitudeHistory = new double[MAX_MOVES + 1];
+        longitudeHistory[0] = currentLong;
+        latitudeHistory[0] = currentLat;
+        this.moveAngleHistory = new int[MAX_MOVES];
         this.sensorTour = tour;
 
         /* Initialising instance variables the obvious way */
         currentDestinationIndex = 0;
         sensorsVisitedArray = new boolean[tour.size()];
         readingsForAllSensors = new double[tour.size()];
-        sensorReadHistory = new ArrayList<String>();
+        sensorReadHistory = new ArrayList<String>(MAX_MOVES);
+
+        aimAtFirstDestination();
+        saveSnapshot(initialSnapshot);
+    }
+
+    /**
+     * This method sends the drone back to where it started, as if it had just been
+     * created, and gives it a new tour. That way, a single drone can fly many
+     * tours one after the other (e.g. the candidate tours of the TourPlanner),
+     * without allocating its histories again for each of them.
+     * 
+     * @param tour the list of sensors the drone is expected to read
+     */
+    public void restartTour(ArrayList<Sensor> tour) {
+        restoreSnapshot(initialSnapshot);
+        sensorTour = tour;
+        currentDestinationIndex = 0;
+        hasCrashed = false;
+        if (sensorsVisitedArray.length == tour.size()) {
+            Arrays.fill(sensorsVisitedArray, false);
+            Arrays.fill(readingsForAllSensors, 0);
+        } else {
+            sensorsVisitedArray = new boolean[tour.size()];
+            readingsForAllSensors = new double[tour.size()];
+        }
+        beamSearchPlanner = null;
 
-        if (tour.size() > 0) {
-            currentDestination = tour.get(0).getPosition();
+        aimAtFirstDestination();
+    }
+
+    /**
+     * This helper method makes the first sensor of the tour the destination of the
+     * drone, or its starting position if there are no sensors to read.
+     */
+    private void aimAtFirstDestination() {
+        if (sensorTour.size() > 0) {
+            setCurrentDestination(sensorTour.get(0).getPosition());
             currentActionRange = MAX_READ_DISTANCE;
         } else {
             System.out.println("A MainDrone was given an empty tour!");
-            currentDestination = startingPosition;
+            setCurrentDestination(startingPosition);
             currentActionRange = MAX_LANDING_DISTANCE;
         }
     }
@@ -93,7 +195,7 @@ public class MainDrone extends Drone {
      */
     public void completeTour() {
         while (currentDestinationIndex < sensorTour.size() && !hasCrashed) {
-            currentDestination = sensorTour.get(currentDestinationIndex).getPosition();
+            setCurrentDestination(sensorTour.get(currentDestinationIndex).getPosition());
             var stepsToGetToSensor = flyToCurrentDestination();
 
             /*
@@ -114,7 +216,7 @@ public class MainDrone extends Drone {
         if (!hasCrashed) {
             /* Once all sensors have been read, return to starting position */
             currentActionRange = MAX_LANDING_DISTANCE;
-            currentDestination = startingPosition;
+            setCurrentDestination(startingPosition);
             flyToCurrentDestination();
 
             if (verbose) {
@@ -136,9 +238,15 @@ public class MainDrone extends Drone {
 
         var moveCountAtStart = stepsMade;
 
+        if (navigationEngine == NavigationEngine.A_STAR && !isInRangeOfDestination()) {
+            flyAlongPlannedPath();
+        } else if (navigationEngine == NavigationEngine.BEAM_SEARCH && !isInRangeOfDestination()) {
+            flyWithLookahead();
+        }
+
         while (!isInRangeOfDestination() && !hasCrashed) {
 
-            if (EuclideanUtils.computeDistance(currentPosition, currentDestination) <= MOVE_DISTANCE) {
+            if (computeDistanceToDestination() <= MOVE_DISTANCE) {
                 park();
             } else if (canMoveTowardsGoal()) {
                 makeMoveTowardsGoal();
@@ -158,6 +266,63 @@ public class MainDrone extends Drone {
 
     }
 
+    /**
+     * This helper method lets a LatticePathPlanner find a shortest path to the
+     * current destination, and makes its moves. If no path is found within the
+     * remaining battery, the drone does not move at all, and the greedy flight in
+     * flyToCurrentDestination takes over.
+     */
+    private void flyAlongPlannedPath() {
+        var pathPlanner = new LatticePathPlanner(world);
+        var anglesToFlyAt = pathPlanner.findPath(getCurrentPosition(), currentDestination, currentActionRange,
+                MAX_MOVES - stepsMade);
+
+        if (anglesToFlyAt == null) {
+            if (verbose) {
+                System.out.println("No path to the destination was found. Flying there greedily instead.");
+            }
+            return;
+        }
+        for (var angle : anglesToFlyAt) {
+            makeMove(angle);
+        }
+    }
+
+    /**
+     * This helper method lets a BeamSearchPlanner pick the moves to the current
+     * destination, planning again after each one. If the drone gets stuck, it stops
+     * where it is, and the greedy flight in flyToCurrentDestination takes over.
+     * 
+     * The planner is also told where the drone flies after the current
+     * destination, so that it can end the leg as close to there as possible.
+     */
+    private void flyWithLookahead() {
+        if (beamSearchPlanner == null) {
+            beamSearchPlanner = new BeamSearchPlanner(world, BeamSearchPlanner.DEFAULT_BEAM_WIDTH,
+                    BeamSearchPlanner.DEFAULT_LOOKAHEAD_DEPTH);
+        }
+        Point followingDestination = null;
+        if (currentDestinationIndex < sensorTour.size() - 1) {
+            followingDestination = sensorTour.get(currentDestinationIndex + 1).getPosition();
+        } else if (currentDestinationIndex == sensorTour.size() - 1) {
+            followingDestination = startingPosition;
+        }
+        beamSearchPlanner.startLeg(currentDestination, currentActionRange, followingDestination);
+
+        while (!isInRangeOfDestination() && !hasCrashed) {
+            var anglesToFlyAt = beamSearchPlanner.planMoves(currentLong, currentLat, MAX_MOVES - stepsMade);
+            if (anglesToFlyAt == null) {
+                if (verbose) {
+                    System.out.println("The beam search is stuck. Flying to the destination greedily instead.");
+                }
+                return;
+            }
+            for (var angle : anglesToFlyAt) {
+                makeMove(angle);
+            }
+        }
+    }
+
     /**
      * Given an obstacle which keeps the drone from moving straight towards its
      * destination, this method lets the main drone spawn shadow drones to compare
@@ -170,6 +335,15 @@ public class MainDrone extends Drone {
      * If both shadow drones fail their task for whatever reason, the drone crashes.
      * This however did not happen once during testing.
      * 
+     * The outcome only depends on the situation the drone is in, so it can be
+     * remembered in the AVOIDANCE_CACHE. If any main drone has been in exactly the
+     * same situation in the same world before, its moves are simply repeated.
+     * 
+     * In concurrent mode, both shadow drones are sent out at the same time, and
+     * each one gives up as soon as the other has found a way that it can no longer
+     * beat. The way chosen is exactly the same as in the default, sequential mode
+     * - only the decision is made sooner, if there is a second processor.
+     * 
      * @param obstacleInOurWay the obstacle which last kept the drone from moving
      *                         towards its destination.
      */
@@ -179,37 +353,105 @@ public class MainDrone extends Drone {
             System.out.println("The main drone tries to avoid " + obstacleInOurWay.getName());
         }
 
-        /* Estimate the cost of a left rotation */
-        var leftShadow = new ShadowDrone(currentPosition, currentDestination, verbose);
-        var approxCostLeftAvoid = leftShadow.costOfAvoidingObstacle(obstacleInOurWay, currentActionRange, true);
-
-        if (verbose) {
-            System.out.println("A clockwise rotation leads to estimated cost: " + approxCostLeftAvoid);
-        }
-
-        /* Estimate the cost of a right rotation */
-        var rightShadow = new ShadowDrone(currentPosition, currentDestination, verbose);
-        var approxCostRightAvoid = rightShadow.costOfAvoidingObstacle(obstacleInOurWay, currentActionRange, false);
-
-        if (verbose) {
-            System.out.println("A counter-clockwise rotation leads to estimated cost: " + approxCostRightAvoid);
+        var avoidance = usesAvoidanceCache
+                ? AVOIDANCE_CACHE.get(world, currentLong, currentLat, currentDestination, currentActionRange,
+                        obstacleInOurWay)
+                : null;
+        if (avoidance == null) {
+            avoidance = sendOutShadowDrones(obstacleInOurWay);
+            if (usesAvoidanceCache) {
+                AVOIDANCE_CACHE.put(world, currentLong, currentLat, currentDestination, currentActionRange,
+                        obstacleInOurWay, avoidance);
+            }
+        } else if (verbose) {
+            System.out.println("The main drone remembers how to avoid " + obstacleInOurWay.getName()
+                    + ", at estimated costs of " + avoidance.getClockwiseCost() + " (clockwise) and "
+                    + avoidance.getCounterClockwiseCost() + " (counter-clockwise).");
         }
 
         /*
          * If both shadow drones returned infinite cost, we have no way out - the drone
          * crashes
          */
-        if (Double.isInfinite(approxCostLeftAvoid) && Double.isInfinite(approxCostRightAvoid)) {
+        if (avoidance.getAngles() == null) {
             System.out.println("The drone can not find away to get around the obstacle " + obstacleInOurWay);
             hasCrashed = true;
             return;
         }
 
+        for (var angle : avoidance.getAngles()) {
+            makeMove(angle);
+        }
+    }
+
+    /**
+     * This helper method spawns the shadow drones that find out how to get around
+     * an obstacle in either direction, and picks the cheaper way.
+     * 
+     * @param obstacleInOurWay the obstacle which last kept the drone from moving
+     *                         towards its destination.
+     * 
+     * @return the estimated costs of both ways, and the moves of the cheaper one
+     */
+    private AvoidanceCache.Avoidance sendOutShadowDrones(TwoDimensionalMapObject obstacleInOurWay) {
+
+        var currentPosition = getCurrentPosition();
+        var leftShadow = new ShadowDrone(currentPosition, currentDestination, world, verbose);
+        var rightShadow = new ShadowDrone(currentPosition, currentDestination, world, verbose);
+        double approxCostLeftAvoid;
+        double approxCostRightAvoid;
+
+        if (concurrentAvoidance) {
+            /*
+             * Ties go to the right rotation below, so the left one gives up once it cannot
+             * be strictly cheaper, and the right one once it can only be more expensive.
+             */
+            var leftCost = new AtomicReference<Double>(Double.POSITIVE_INFINITY);
+            var rightCost = new AtomicReference<Double>(Double.POSITIVE_INFINITY);
+            var leftTask = SHADOW_EXECUTOR.submit(() -> {
+                leftCost.set(leftShadow.costOfAvoidingObstacle(obstacleInOurWay, currentActionRange, true,
+                        lowerBound -> lowerBound >= rightCost.get()));
+            });
+            rightCost.set(rightShadow.costOfAvoidingObstacle(obstacleInOurWay, currentActionRange, false,
+                    lowerBound -> lowerBound > leftCost.get()));
+            try {
+                leftTask.get();
+            } catch (InterruptedException | ExecutionException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+            approxCostLeftAvoid = leftCost.get();
+            approxCostRightAvoid = rightCost.get();
+
+            if (verbose) {
+                System.out.println("A clockwise rotation leads to estimated cost: " + approxCostLeftAvoid);
+                System.out.println("A counter-clockwise rotation leads to estimated cost: " + approxCostRightAvoid);
+            }
+        } else {
+            /* Estimate the cost of a left rotation */
+            approxCostLeftAvoid = leftShadow.costOfAvoidingObstacle(obstacleInOurWay, currentActionRange, true);
+
+            if (verbose) {
+                System.out.println("A clockwise rotation leads to estimated cost: " + approxCostLeftAvoid);
+            }
+
+            /* Estimate the cost of a right rotation */
+            approxCostRightAvoid = rightShadow.costOfAvoidingObstacle(obstacleInOurWay, currentActionRange, false);
+
+            if (verbose) {
+                System.out.println("A counter-clockwise rotation leads to estimated cost: " + approxCostRightAvoid);
+            }
+        }
+
+        if (Double.isInfinite(approxCostLeftAvoid) && Double.isInfinite(approxCostRightAvoid)) {
+            return new AvoidanceCache.Avoidance(approxCostLeftAvoid, approxCostRightAvoid, null);
+        }
+
         /*
          * If things have gone well, we copy the moves of the drone that gave the
          * cheaper solution.
          */
-        ArrayList<Integer> anglesToFlyAt;
+        int[] anglesToFlyAt;
         if (approxCostLeftAvoid < approxCostRightAvoid) {
             if (verbose) {
                 System.out.println("Chose clockwise rotation to avoid obstacle " + obstacleInOurWay.getName());
@@ -221,9 +463,7 @@ public class MainDrone extends Drone {
             }
             anglesToFlyAt = rightShadow.getMoveAngleHistory();
         }
-        for (var angle : anglesToFlyAt) {
-            makeMove(angle);
-        }
+        return new AvoidanceCache.Avoidance(approxCostLeftAvoid, approxCostRightAvoid, anglesToFlyAt);
     }
 
     /**
@@ -235,7 +475,9 @@ public class MainDrone extends Drone {
      */
     private void readSensor(Sensor sensor) {
 
-        if (EuclideanUtils.computeDistance(currentPosition, sensor.getPosition()) <= MAX_READ_DISTANCE) {
+        var sensorPosition = sensor.getPosition();
+        if (EuclideanUtils.computeDistance(currentLong, currentLat, sensorPosition.longitude(),
+                sensorPosition.latitude()) <= MAX_READ_DISTANCE) {
             if (verbose) {
                 System.out.println("Read sensor " + currentDestinationIndex);
             }
@@ -271,23 +513,123 @@ public class MainDrone extends Drone {
             System.out.println("The main drone has run out of battery and has crashed!");
             hasCrashed = true;
         } else {
-            var nextPos = EuclideanUtils.getNextPosition(this.currentPosition, angle, MOVE_DISTANCE);
-            currentPosition = nextPos;
-            moveAngleHistory.add(angle);
+            recordMove(angle);
+            longitudeHistory[stepsMade] = currentLong;
+            latitudeHistory[stepsMade] = currentLat;
             /*
              * We add null to the sensor reading log - if we do take a reading on this step,
              * we will update this value in the downloadReadingsFromSensor method.
              */
             sensorReadHistory.add("null");
-            positionHistory.add(nextPos);
-            stepsMade++;
+        }
+    }
+
+    /**
+     * Rolling back a main drone also forgets the entries of the moves in its
+     * sensor reading log. Readings that were taken since the Snapshot are kept,
+     * though, so the main drone should only ever be rolled back between readings.
+     *
+     * @param snapshot the Snapshot that was saved by saveSnapshot
+     */
+    @Override
+    public void restoreSnapshot(Snapshot snapshot) {
+        super.restoreSnapshot(snapshot);
+        while (sensorReadHistory.size() > stepsMade) {
+            sensorReadHistory.remove(sensorReadHistory.size() - 1);
         }
     }
 
     /* Getters and Setters */
 
-    public ArrayList<Point> getPositionHistory() {
-        return positionHistory;
+    /**
+     * This method returns the navigation engine that App uses. It is the greedy
+     * one, unless the system property aqmaps.navigation names a different one (e.g.
+     * -Daqmaps.navigation=A_STAR).
+     * 
+     * @return the navigation engine selected for this run of the application
+     */
+    public static NavigationEngine getDefaultNavigationEngine() {
+        var name = System.getProperty(NAVIGATION_ENGINE_PROPERTY, NavigationEngine.GREEDY.name());
+        try {
+            return NavigationEngine.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Fatal error: Unknown navigation engine " + name + ". Expected one of "
+                    + Arrays.toString(NavigationEngine.values()) + ".");
+            System.exit(1);
+            return null;
+        }
+    }
+
+    /**
+     * This method describes everything that decides how many steps a main drone
+     * flying with the given navigation engine needs to get from one point to
+     * another: the way it moves, how far its shadow drones go, and the settings of
+     * the engine. Step counts from drones with different descriptions can not be
+     * compared, e.g. by the PairCostCache.
+     * 
+     * Whether shadow drones are sent out concurrently, and whether the avoidance
+     * cache is used, is left out on purpose - neither changes the way the drone
+     * takes.
+     * 
+     * @param navigationEngine the way the drone navigates
+     * 
+     * @return a description of the simulation, which contains no commas
+     */
+    public static String describeSimulation(NavigationEngine navigationEngine) {
+        var description = navigationEngine + "/" + MOVE_DISTANCE + "/" + ANGLE_GRANULARITY + "/" + MAX_MOVES + "/"
+                + MAX_READ_DISTANCE + "/" + MAX_LANDING_DISTANCE + "/" + ShadowDrone.MAX_MOVES_TO_AVOID_OBSTACLE;
+        if (navigationEngine == NavigationEngine.A_STAR) {
+            description += "/" + LatticePathPlanner.MAX_EXPANDED_STATES;
+        } else if (navigationEngine == NavigationEngine.BEAM_SEARCH) {
+            description += "/" + BeamSearchPlanner.DEFAULT_BEAM_WIDTH + "/" + BeamSearchPlanner.DEFAULT_LOOKAHEAD_DEPTH;
+        }
+        return description;
+    }
+
+    public void setNavigationEngine(NavigationEngine navigationEngine) {
+        this.navigationEngine = navigationEngine;
+    }
+
+    /**
+     * This method returns the cache of ways around obstacles that all main drones
+     * share, e.g. to report its statistics.
+     * 
+     * @return the avoidance cache
+     */
+    public static AvoidanceCache getAvoidanceCache() {
+        return AVOIDANCE_CACHE;
+    }
+
+    /**
+     * This method tells whether new main drones use the avoidance cache. They do
+     * not, unless the system property aqmaps.avoidanceCache is set to true (i.e.
+     * -Daqmaps.avoidanceCache=true).
+     * 
+     * @return whether the avoidance cache is enabled for this run of the
+     *         application
+     */
+    public static boolean isAvoidanceCacheEnabled() {
+        return Boolean.getBoolean(AVOIDANCE_CACHE_PROPERTY);
+    }
+
+    public void setUsesAvoidanceCache(boolean usesAvoidanceCache) {
+        this.usesAvoidanceCache = usesAvoidanceCache;
+    }
+
+    public void setConcurrentAvoidance(boolean concurrentAvoidance) {
+        this.concurrentAvoidance = concurrentAvoidance;
+    }
+
+    public boolean hasCrashed() {
+        return hasCrashed;
+    }
+
+    public double[] getLongitudeHistory() {
+        return Arrays.copyOf(longitudeHistory, stepsMade + 1);
+    }
+
+    public double[] getLatitudeHistory() {
+        return Arrays.copyOf(latitudeHistory, stepsMade + 1);
     }
 
     public ArrayList<Sensor> getSensorTour() {
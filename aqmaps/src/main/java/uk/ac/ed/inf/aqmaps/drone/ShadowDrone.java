@@ -1,9 +1,10 @@
 package uk.ac.ed.inf.aqmaps.drone;
 
+import java.util.function.DoublePredicate;
+
 import com.mapbox.geojson.Point;
 
-import uk.ac.ed.inf.aqmaps.geometry.EuclideanUtils;
-import uk.ac.ed.inf.aqmaps.geometry.LineSegment;
+import uk.ac.ed.inf.aqmaps.map.FlightWorld;
 import uk.ac.ed.inf.aqmaps.map.TwoDimensionalMapObject;
 
 /**
@@ -19,7 +20,10 @@ public class ShadowDrone extends Drone {
      * avoid an obstacle (in a clockwise / counter-clockwise way) before giving up
      * and deciding that it's not feasible to do so. Avoids infinite loops.
      */
-    private static final int MAX_MOVES_TO_AVOID_OBSTACLE = 15;
+    static final int MAX_MOVES_TO_AVOID_OBSTACLE = 15;
+
+    /* The state the drone rolls back to after checking whether it avoids an obstacle */
+    private final Snapshot avoidanceSnapshot = new Snapshot();
 
     /**
      * The constructor of the shadow drone class. Note that, as opposed to our main
@@ -28,12 +32,13 @@ public class ShadowDrone extends Drone {
      * 
      * @param startingPoint the starting point of the shadow drone.
      * @param destination   the destination of the shadow drone.
+     * @param world         the world the shadow drone flies in
      * @param verbose       whether we want the drone to print success messages to
      *                      standard output
      */
-    public ShadowDrone(Point startingPoint, Point destination, boolean verbose) {
-        super(startingPoint, verbose);
-        this.currentDestination = destination;
+    public ShadowDrone(Point startingPoint, Point destination, FlightWorld world, boolean verbose) {
+        super(startingPoint, world, verbose);
+        setCurrentDestination(destination);
     }
 
     /**
@@ -63,12 +68,44 @@ public class ShadowDrone extends Drone {
      *         by this shadow drone
      */
     public double costOfAvoidingObstacle(TwoDimensionalMapObject obstacle, double maxFinalDistance, boolean clockwise) {
+        return costOfAvoidingObstacle(obstacle, maxFinalDistance, clockwise, lowerBound -> false);
+    }
+
+    /**
+     * This method works just like costOfAvoidingObstacle above, but gives up early
+     * once the given predicate accepts a lower bound on the cost it would return.
+     * This lets a main drone stop a shadow drone as soon as it is clear that
+     * another one has found a cheaper way.
+     * 
+     * The bound is the number of steps made so far plus the remaining distance to
+     * the destination divided by MOVE_DISTANCE: Every further step changes that
+     * distance by at most MOVE_DISTANCE, and the remaining distance is weighted
+     * with more than 1 in the cost.
+     * 
+     * @param obstacle         the object that needs to be avoided
+     * @param maxFinalDistance the radius around the destination that our drone
+     *                         needs to reach
+     * @param clockwise        whether a clockwise rotation should be attempted
+     * @param isHopeless       tells whether a lower bound on the cost is high
+     *                         enough to give up
+     * 
+     * @return the estimated number of steps, as above, or positive infinity if the
+     *         shadow drone gave up
+     */
+    public double costOfAvoidingObstacle(TwoDimensionalMapObject obstacle, double maxFinalDistance, boolean clockwise,
+            DoublePredicate isHopeless) {
 
         var stepsToAvoidObstacle = 0;
         var numAttemptedMoves = 0;
 
         /* We look for moves that dodge the obstacle until it is no longer in our way */
         while (!this.avoidsObstacle(obstacle)) {
+            /* The tolerance protects the bound against rounding errors */
+            var lowerBound = stepsToAvoidObstacle + computeDistanceToDestination() / MOVE_DISTANCE - 1e-9;
+            if (isHopeless.test(lowerBound)) {
+                return Double.POSITIVE_INFINITY;
+            }
+
             var roundedCurrentAngle = computeRoundedAngleOfLineToGoal();
 
             var madeMove = false;
@@ -109,7 +146,7 @@ public class ShadowDrone extends Drone {
          * goal. Remaining distance is weighted in a way that accounts for additional
          * obstacles that may occur and the coarse-grained angle selection.
          */
-        var remainingDistance = EuclideanUtils.computeDistance(currentPosition, currentDestination);
+        var remainingDistance = computeDistanceToDestination();
         var remainingDistanceWeight = 1.1;
         return stepsToAvoidObstacle + remainingDistanceWeight / MOVE_DISTANCE * remainingDistance;
 
@@ -130,7 +167,8 @@ public class ShadowDrone extends Drone {
      * move is actually legal - only if it hits the given obstacle. We also don't
      * count the moves as being actual moves of the drone, or record the angles. We
      * do not want this method to have any "side effects", which the makeMove method
-     * would enforce.
+     * would enforce. Whatever happens, the drone is rolled back to its state from
+     * before the check.
      * 
      * @param obstacle the obstacle to be avoided
      * 
@@ -138,8 +176,7 @@ public class ShadowDrone extends Drone {
      *         hitting the obstacle in question
      */
     public boolean avoidsObstacle(TwoDimensionalMapObject obstacle) {
-        var startPos = currentPosition;
-        var forbiddenPolygon = obstacle.getPolygon();
+        saveSnapshot(avoidanceSnapshot);
 
         while (!isInRangeOfDestination()) {
 
@@ -147,22 +184,21 @@ public class ShadowDrone extends Drone {
              * We use the park method to avoid falling prey to any edge cases (see Drone
              * class)
              */
-            if (EuclideanUtils.computeDistance(currentPosition, currentDestination) <= MOVE_DISTANCE) {
-                var parkingShadow = new ShadowDrone(currentPosition, currentDestination, verbose);
-                /* Update the action range of the shadow in case we are about to land. */
-                parkingShadow.setCurrentActionRange(currentActionRange);
-                var result = parkingShadow.park();
-                currentPosition = startPos;
+            if (computeDistanceToDestination() <= MOVE_DISTANCE) {
+                var result = canPark();
+                restoreSnapshot(avoidanceSnapshot);
                 return result;
             }
 
-            var nextPos = computeNextPosTowardsGoal();
-            var moveLineSegment = new LineSegment(this.currentPosition, nextPos);
+            /* The next position of the drone on its path straight towards its goal */
+            var roundedAngle = computeRoundedAngleOfLineToGoal();
+            var nextLong = STEP_TABLE.getNextLongitude(currentLong, roundedAngle);
+            var nextLat = STEP_TABLE.getNextLatitude(currentLat, roundedAngle);
 
-            if (!EuclideanUtils.lineSegmentAndPolygonIntersect(moveLineSegment, forbiddenPolygon)) {
-                this.setPosition(nextPos);
+            if (!world.crossesObstacle(currentLong, currentLat, nextLong, nextLat, obstacle)) {
+                this.setPosition(nextLong, nextLat);
             } else {
-                this.setPosition(startPos);
+                restoreSnapshot(avoidanceSnapshot);
                 return false;
             }
         }
@@ -171,22 +207,10 @@ public class ShadowDrone extends Drone {
          * If we got here, that means that the obstacle in question is no longer in the
          * way of our drone.
          */
-        this.currentPosition = startPos;
+        restoreSnapshot(avoidanceSnapshot);
         return true;
     }
 
-    /**
-     * This helper method is a shortcut that computes the next position of our drone
-     * if it was to fly straight towards its destination.
-     * 
-     * @return the next position of the drone on its path straight towards its goal
-     */
-    private Point computeNextPosTowardsGoal() {
-        var roundedAngle = computeRoundedAngleOfLineToGoal();
-        var nextPos = EuclideanUtils.getNextPosition(this.currentPosition, roundedAngle, MOVE_DISTANCE);
-        return nextPos;
-    }
-
     /**
      * The implementation of the makeMove method for the ShadowDrone differs from
      * the MainDrone one in that there are no "controlled drone crashes". A shadow
@@ -207,10 +231,7 @@ public class ShadowDrone extends Drone {
             System.out.println("A shadow drone has run out of moves! This should never happen.");
             System.exit(1);
         } else {
-            var nextPos = EuclideanUtils.getNextPosition(this.currentPosition, angle, MOVE_DISTANCE);
-            moveAngleHistory.add(angle);
-            this.currentPosition = nextPos;
-            this.stepsMade++;
+            recordMove(angle);
         }
     }
 
@@ -226,7 +247,18 @@ public class ShadowDrone extends Drone {
      * @param position the position to be assigned.
      */
     public void setPosition(Point position) {
-        this.currentPosition = position;
+        setPosition(position.longitude(), position.latitude());
+    }
+
+    /**
+     * The primitive counterpart of setPosition above.
+     * 
+     * @param longitude the longitude to be assigned
+     * @param latitude  the latitude to be assigned
+     */
+    public void setPosition(double longitude, double latitude) {
+        this.currentLong = longitude;
+        this.currentLat = latitude;
     }
 
 }
@@ -0,0 +1,111 @@
+package uk.ac.ed.inf.aqmaps.drone;
+
+import com.mapbox.geojson.Point;
+
+import uk.ac.ed.inf.aqmaps.geometry.EuclideanUtils;
+
+/**
+ * A StepTable knows the displacement caused by a move of fixed length in each
+ * of the directions a drone is allowed to move in. Our drones only ever move at
+ * multiples of their angle granularity, so instead of evaluating sine and cosine
+ * on every single move, we do so once per legal angle when the table is built.
+ *
+ * The results are exactly the same as those of EuclideanUtils.getNextPosition -
+ * the table simply stores the terms that method would compute.
+ */
+public class StepTable {
+
+    /* The difference between two neighbouring legal angles, in degrees */
+    private final int angleGranularity;
+
+    /* The length of every move */
+    private final double moveDistance;
+
+    /*
+     * The change in longitude and latitude caused by a move at angle
+     * i * angleGranularity is longitudeSteps[i] and latitudeSteps[i], respectively.
+     */
+    private final double[] longitudeSteps;
+    private final double[] latitudeSteps;
+
+    /**
+     * The constructor of the StepTable class.
+     *
+     * @param angleGranularity the difference between two neighbouring legal angles,
+     *                         in degrees. Assumed to divide 360.
+     * @param moveDistance     the length of every move
+     */
+    public StepTable(int angleGranularity, double moveDistance) {
+        this.angleGranularity = angleGranularity;
+        this.moveDistance = moveDistance;
+
+        var numAngles = 360 / angleGranularity;
+        this.longitudeSteps = new double[numAngles];
+        this.latitudeSteps = new double[numAngles];
+        for (int i = 0; i < numAngles; i++) {
+            double angleInDegs = i * angleGranularity;
+            longitudeSteps[i] = moveDistance * Math.cos(Math.toRadians(angleInDegs));
+            latitudeSteps[i] = moveDistance * Math.sin(Math.toRadians(angleInDegs));
+        }
+    }
+
+    /**
+     * Computes the longitude a drone ends up at after a move at the given angle.
+     *
+     * @param longitude the current longitude of the drone
+     * @param angle     the angle of the move, in degrees
+     *
+     * @return the longitude after the move
+     */
+    public double getNextLongitude(double longitude, int angle) {
+        if (!isTabulated(angle)) {
+            return EuclideanUtils.getNextLongitude(longitude, angle, moveDistance);
+        }
+        return longitude + longitudeSteps[angle / angleGranularity];
+    }
+
+    /**
+     * Computes the latitude a drone ends up at after a move at the given angle.
+     *
+     * @param latitude the current latitude of the drone
+     * @param angle    the angle of the move, in degrees
+     *
+     * @return the latitude after the move
+     */
+    public double getNextLatitude(double latitude, int angle) {
+        if (!isTabulated(angle)) {
+            return EuclideanUtils.getNextLatitude(latitude, angle, moveDistance);
+        }
+        return latitude + latitudeSteps[angle / angleGranularity];
+    }
+
+    /**
+     * Computes the position a drone ends up at after a move at the given angle.
+     *
+     * @param position the current position of the drone
+     * @param angle    the angle of the move, in degrees
+     *
+     * @return the position after the move
+     */
+    public Point getNextPosition(Point position, int angle) {
+        var nextLong = getNextLongitude(position.longitude(), angle);
+        var nextLat = getNextLatitude(position.latitude(), angle);
+
+        return Point.fromLngLat(nextLong, nextLat);
+    }
+
+    /**
+     * This helper method tells us whether the given angle has an entry in the
+     * table. Any other angle (e.g. 370 or 25 degrees) is computed the slow way,
+     * since e.g. cos(370) is not necessarily exactly the same number as cos(10) in
+     * floating point arithmetic.
+     *
+     * @param angle the angle in question, in degrees
+     *
+     * @return whether the displacement for this angle is stored in the table
+     */
+    private boolean isTabulated(int angle) {
+        return angle >= 0 && angle < 360 && angle % angleGranularity == 0;
+    }
+
+}
@@ -0,0 +1,323 @@
+package uk.ac.ed.inf.aqmaps.geometry;
+
+import java.util.List;
+
+import com.mapbox.geojson.Polygon;
+
+/**
+ * The CollisionEngine checks moves against a fixed set of polygons (assumed to
+ * have no holes), such as the obstacles of our drone's world.
+ *
+ * Since these polygons never change, all of their edges are extracted once, on
+ * construction, and stored as flat arrays of coordinates. Testing a move then
+ * works on raw doubles only - no Points, LineSegments or Orientation constants
+ * are created along the way, which matters because this is by far the most
+ * frequently executed piece of code in the whole application.
+ *
+ * To avoid testing every move against every edge, the edges are also sorted
+ * into a uniform grid of cells covering the map, and each polygon remembers its
+ * bounding box. A move then only needs to be tested against the (usually very
+ * few) edges in the cells it touches, which keeps the cost of a query roughly
+ * constant even if there are thousands of polygons.
+ */
+public class CollisionEngine {
+
+    /*
+     * The coordinates of all edges of all polygons. Edge k starts at
+     * (edgeCoordinates[4k], edgeCoordinates[4k+1]) and ends at
+     * (edgeCoordinates[4k+2], edgeCoordinates[4k+3]).
+     */
+    private final double[] edgeCoordinates;
+
+    /*
+     * The edges of polygon i are the ones with indices from firstEdgeOfPolygon[i]
+     * (inclusive) to firstEdgeOfPolygon[i+1] (exclusive).
+     */
+    private final int[] firstEdgeOfPolygon;
+
+    /* The index of the polygon that each edge belongs to */
+    private final int[] polygonOfEdge;
+
+    /*
+     * The bounding box of each polygon. Polygon i spans the longitudes from
+     * polygonBounds[4i] to polygonBounds[4i+2] and the latitudes from
+     * polygonBounds[4i+1] to polygonBounds[4i+3].
+     */
+    private final double[] polygonBounds;
+
+    /*
+     * The uniform grid over all edges. Its lower left corner is at (gridMinX,
+     * gridMinY) and each of its numCellsX * numCellsY cells is a square with the
+     * given side length.
+     */
+    private final double gridMinX, gridMinY, cellSize;
+    private final int numCellsX, numCellsY;
+
+    /*
+     * The edges registered in each cell, in increasing order. The edges of cell c
+     * (which is cell (c % numCellsX, c / numCellsX) of the grid) are cellEdges[k]
+     * for k from cellStart[c] (inclusive) to cellStart[c+1] (exclusive).
+     */
+    private final int[] cellStart;
+    private final int[] cellEdges;
+
+    /*
+     * Bounding boxes are grown by this margin before comparing them, so that the
+     * grid and bounding box checks never rule out a collision that the exact test
+     * would report because of rounding errors.
+     */
+    private static final double MARGIN = 1e-9;
+
+    /**
+     * The constructor of the CollisionEngine class.
+     *
+     * @param polygons the polygons that moves are checked against. Their order
+     *                 determines their indices within this engine.
+     */
+    public CollisionEngine(List<Polygon> polygons) {
+        var numPolygons = polygons.size();
+        this.firstEdgeOfPolygon = new int[numPolygons + 1];
+
+        /* We count the edges first, so that we know how large our array has to be */
+        for (int i = 0; i < numPolygons; i++) {
+            var numCorners = polygons.get(i).coordinates().get(0).size(); // the number of edges + 1
+            firstEdgeOfPolygon[i + 1] = firstEdgeOfPolygon[i] + numCorners - 1;
+        }
+
+        var numEdges = firstEdgeOfPolygon[numPolygons];
+        this.edgeCoordinates = new double[4 * numEdges];
+        this.polygonOfEdge = new int[numEdges];
+        for (int i = 0; i < numPolygons; i++) {
+            var polygonCorners = polygons.get(i).coordinates().get(0);
+            for (int k = firstEdgeOfPolygon[i]; k < firstEdgeOfPolygon[i + 1]; k++) {
+                var startingCorner = polygonCorners.get(k - firstEdgeOfPolygon[i]);
+                var endCorner = polygonCorners.get(k - firstEdgeOfPolygon[i] + 1);
+
+                edgeCoordinates[4 * k] = startingCorner.longitude();
+                edgeCoordinates[4 * k + 1] = startingCorner.latitude();
+                edgeCoordinates[4 * k + 2] = endCorner.longitude();
+                edgeCoordinates[4 * k + 3] = endCorner.latitude();
+                polygonOfEdge[k] = i;
+            }
+        }
+
+        /* Compute the bounding boxes of all polygons, as well as of the whole map */
+        this.polygonBounds = new double[4 * numPolygons];
+        var mapMinX = Double.POSITIVE_INFINITY;
+        var mapMinY = Double.POSITIVE_INFINITY;
+        var mapMaxX = Double.NEGATIVE_INFINITY;
+        var mapMaxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < numPolygons; i++) {
+            polygonBounds[4 * i] = Double.POSITIVE_INFINITY;
+            polygonBounds[4 * i + 1] = Double.POSITIVE_INFINITY;
+            polygonBounds[4 * i + 2] = Double.NEGATIVE_INFINITY;
+            polygonBounds[4 * i + 3] = Double.NEGATIVE_INFINITY;
+            for (int k = firstEdgeOfPolygon[i]; k < firstEdgeOfPolygon[i + 1]; k++) {
+                polygonBounds[4 * i] = Math.min(polygonBounds[4 * i], getEdgeMinX(k));
+                polygonBounds[4 * i + 1] = Math.min(polygonBounds[4 * i + 1], getEdgeMinY(k));
+                polygonBounds[4 * i + 2] = Math.max(polygonBounds[4 * i + 2], getEdgeMaxX(k));
+                polygonBounds[4 * i + 3] = Math.max(polygonBounds[4 * i + 3], getEdgeMaxY(k));
+            }
+            mapMinX = Math.min(mapMinX, polygonBounds[4 * i]);
+            mapMinY = Math.min(mapMinY, polygonBounds[4 * i + 1]);
+            mapMaxX = Math.max(mapMaxX, polygonBounds[4 * i + 2]);
+            mapMaxY = Math.max(mapMaxY, polygonBounds[4 * i + 3]);
+        }
+
+        /*
+         * We aim for about as many cells as there are edges, so that each cell holds a
+         * small, constant number of edges on average.
+         */
+        if (numEdges == 0) {
+            mapMinX = mapMinY = 0;
+            mapMaxX = mapMaxY = 1;
+        }
+        var extent = Math.max(Math.max(mapMaxX - mapMinX, mapMaxY - mapMinY), MARGIN);
+        var numCellsAlongLongerSide = Math.max(1, (int) Math.ceil(Math.sqrt(numEdges)));
+        this.gridMinX = mapMinX;
+        this.gridMinY = mapMinY;
+        this.cellSize = extent / numCellsAlongLongerSide;
+        this.numCellsX = Math.max(1, (int) Math.ceil((mapMaxX - mapMinX) / cellSize));
+        this.numCellsY = Math.max(1, (int) Math.ceil((mapMaxY - mapMinY) / cellSize));
+
+        /*
+         * Each edge is registered in every cell its bounding box touches. We count
+         * first, then fill, so that the grid is stored in two flat arrays.
+         */
+        this.cellStart = new int[numCellsX * numCellsY + 1];
+        for (int k = 0; k < numEdges; k++) {
+            for (int y = toCellY(getEdgeMinY(k) - MARGIN); y <= toCellY(getEdgeMaxY(k) + MARGIN); y++) {
+                for (int x = toCellX(getEdgeMinX(k) - MARGIN); x <= toCellX(getEdgeMaxX(k) + MARGIN); x++) {
+                    cellStart[y * numCellsX + x + 1]++;
+                }
+            }
+        }
+        for (int c = 0; c < numCellsX * numCellsY; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        this.cellEdges = new int[cellStart[numCellsX * numCellsY]];
+        var nextFreeSlot = new int[numCellsX * numCellsY];
+        for (int k = 0; k < numEdges; k++) {
+            for (int y = toCellY(getEdgeMinY(k) - MARGIN); y <= toCellY(getEdgeMaxY(k) + MARGIN); y++) {
+                for (int x = toCellX(getEdgeMinX(k) - MARGIN); x <= toCellX(getEdgeMaxX(k) + MARGIN); x++) {
+                    var cell = y * numCellsX + x;
+                    cellEdges[cellStart[cell] + nextFreeSlot[cell]] = k;
+                    nextFreeSlot[cell]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * This method finds the first polygon (in the order given on construction)
+     * whose boundary is crossed or touched by the line segment from A to B.
+     *
+     * @param ax the longitude of point A
+     * @param ay the latitude of point A
+     * @param bx the longitude of point B
+     * @param by the latitude of point B
+     *
+     * @return the index of the first polygon that is hit, or -1 if there is none
+     */
+    public int findFirstPolygonCrossedBy(double ax, double ay, double bx, double by) {
+        var firstPolygonCrossed = Integer.MAX_VALUE;
+
+        /*
+         * Any point the segment shares with an edge lies in both of their bounding
+         * boxes, and thus in a cell that both of them are registered in. So it
+         * suffices to look at the cells that the bounding box of the segment touches.
+         */
+        var minCellX = toCellX(Math.min(ax, bx) - MARGIN);
+        var maxCellX = toCellX(Math.max(ax, bx) + MARGIN);
+        var minCellY = toCellY(Math.min(ay, by) - MARGIN);
+        var maxCellY = toCellY(Math.max(ay, by) + MARGIN);
+
+        for (int y = minCellY; y <= maxCellY; y++) {
+            for (int x = minCellX; x <= maxCellX; x++) {
+                var cell = y * numCellsX + x;
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    var edge = cellEdges[k];
+
+                    /*
+                     * Edges are sorted by polygon, so once we reach a polygon that comes after
+                     * one we already know to be hit, the rest of this cell is irrelevant.
+                     */
+                    if (polygonOfEdge[edge] >= firstPolygonCrossed) {
+                        break;
+                    }
+                    if (crossesEdge(edge, ax, ay, bx, by)) {
+                        firstPolygonCrossed = polygonOfEdge[edge];
+                        break;
+                    }
+                }
+            }
+        }
+
+        return firstPolygonCrossed == Integer.MAX_VALUE ? -1 : firstPolygonCrossed;
+    }
+
+    /**
+     * This method determines whether the line segment from A to B crosses or
+     * touches the boundary of the polygon with the given index.
+     *
+     * @param polygonIndex the index of the polygon in question
+     * @param ax           the longitude of point A
+     * @param ay           the latitude of point A
+     * @param bx           the longitude of point B
+     * @param by           the latitude of point B
+     *
+     * @return whether the segment hits the polygon
+     */
+    public boolean crossesPolygon(int polygonIndex, double ax, double ay, double bx, double by) {
+        /* If the bounding boxes are apart, so are the segment and the polygon */
+        if (Math.max(ax, bx) < polygonBounds[4 * polygonIndex] - MARGIN
+                || Math.max(ay, by) < polygonBounds[4 * polygonIndex + 1] - MARGIN
+                || Math.min(ax, bx) > polygonBounds[4 * polygonIndex + 2] + MARGIN
+                || Math.min(ay, by) > polygonBounds[4 * polygonIndex + 3] + MARGIN) {
+            return false;
+        }
+
+        for (int k = firstEdgeOfPolygon[polygonIndex]; k < firstEdgeOfPolygon[polygonIndex + 1]; k++) {
+            if (crossesEdge(k, ax, ay, bx, by)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * This helper method determines whether the line segment from A to B
+     * intersects the edge with the given index.
+     *
+     * @param edgeIndex the index of the edge in question
+     * @param ax        the longitude of point A
+     * @param ay        the latitude of point A
+     * @param bx        the longitude of point B
+     * @param by        the latitude of point B
+     *
+     * @return whether the segment and the edge intersect(/touch)
+     */
+    private boolean crossesEdge(int edgeIndex, double ax, double ay, double bx, double by) {
+        var offset = 4 * edgeIndex;
+        return EuclideanUtils.lineSegmentsIntersect(ax, ay, bx, by, edgeCoordinates[offset],
+                edgeCoordinates[offset + 1], edgeCoordinates[offset + 2], edgeCoordinates[offset + 3]);
+    }
+
+    /**
+     * This helper method computes the column of the grid cell that contains the
+     * given longitude. Longitudes outside of the grid are mapped to its first or
+     * last column. Note that this mapping never decreases as the longitude grows.
+     * 
+     * @param longitude the longitude in question
+     * 
+     * @return the column of the corresponding cell
+     */
+    private int toCellX(double longitude) {
+        var cellX = (int) Math.floor((longitude - gridMinX) / cellSize);
+        return Math.min(Math.max(cellX, 0), numCellsX - 1);
+    }
+
+    /**
+     * This helper method computes the row of the grid cell that contains the given
+     * latitude. Latitudes outside of the grid are mapped to its first or last row.
+     * Note that this mapping never decreases as the latitude grows.
+     * 
+     * @param latitude the latitude in question
+     * 
+     * @return the row of the corresponding cell
+     */
+    private int toCellY(double latitude) {
+        var cellY = (int) Math.floor((latitude - gridMinY) / cellSize);
+        return Math.min(Math.max(cellY, 0), numCellsY - 1);
+    }
+
+    /* Helpers to access the bounding box of an edge */
+
+    private double getEdgeMinX(int edgeIndex) {
+        return Math.min(edgeCoordinates[4 * edgeIndex], edgeCoordinates[4 * edgeIndex + 2]);
+    }
+
+    private double getEdgeMinY(int edgeIndex) {
+        return Math.min(edgeCoordinates[4 * edgeIndex + 1], edgeCoordinates[4 * edgeIndex + 3]);
+    }
+
+    private double getEdgeMaxX(int edgeIndex) {
+        return Math.max(edgeCoordinates[4 * edgeIndex], edgeCoordinates[4 * edgeIndex + 2]);
+    }
+
+    private double getEdgeMaxY(int edgeIndex) {
+        return Math.max(edgeCoordinates[4 * edgeIndex + 1], edgeCoordinates[4 * edgeIndex + 3]);
+    }
+
+    /* Getters */
+
+    public int getNumPolygons() {
+        return firstEdgeOfPolygon.length - 1;
+    }
+
+    public int getNumEdges() {
+        return firstEdgeOfPolygon[getNumPolygons()];
+    }
+
+}
@@ -53,21 +53,49 @@ public class EuclideanUtils {
      */
     public static Point getNextPosition(Point position, double angleInDegs, double distance) {
 
-        var angleInRads = Math.toRadians(angleInDegs);
-
         /*
          * Note that a move towards East increases the longitude, thus acting as our
          * conventional "x" in this case. Likewise, latitude corresponds to y, since a
          * move North increases it.
          */
-        double newLong = position.longitude() + distance * Math.cos(angleInRads);
-        double newLat = position.latitude() + distance * Math.sin(angleInRads);
+        double newLong = getNextLongitude(position.longitude(), angleInDegs, distance);
+        double newLat = getNextLatitude(position.latitude(), angleInDegs, distance);
 
         var nextPosition = Point.fromLngLat(newLong, newLat);
 
         return nextPosition;
     }
 
+    /**
+     * Computes the longitude an object ends up at after a move of the given
+     * direction and distance - the x-coordinate of getNextPosition, without having
+     * to create a Point.
+     * 
+     * @param longitude   the current longitude of the object in question
+     * @param angleInDegs the direction of the object's movement
+     * @param distance    the length of the move to be computed
+     * 
+     * @return the longitude at the end of the object's movement
+     */
+    public static double getNextLongitude(double longitude, double angleInDegs, double distance) {
+        return longitude + distance * Math.cos(Math.toRadians(angleInDegs));
+    }
+
+    /**
+     * Computes the latitude an object ends up at after a move of the given
+     * direction and distance - the y-coordinate of getNextPosition, without having
+     * to create a Point.
+     * 
+     * @param latitude    the current latitude of the object in question
+     * @param angleInDegs the direction of the object's movement
+     * @param distance    the length of the move to be computed
+     * 
+     * @return the latitude at the end of the object's movement
+     */
+    public static double getNextLatitude(double latitude, double angleInDegs, double distance) {
+        return latitude + distance * Math.sin(Math.toRadians(angleInDegs));
+    }
+
     /**
      * This method computes whether a given line segment and polygon intersect.
      * 
@@ -313,4 +341,215 @@ public class EuclideanUtils {
             return Orientation.COLINEAR;
         }
     }
+
+    /*
+     * The following methods are primitive counterparts of the methods above. They
+     * take raw coordinates instead of Points and LineSegments and encode
+     * orientations as ints instead of enum constants, so that they can be used in
+     * hot loops (e.g. by the CollisionEngine) without creating a single object.
+     * They make exactly the same decisions as their counterparts.
+     */
+
+    /* The encodings of the Orientation constants used by the primitive methods */
+    static final int CLOCKWISE = -1;
+    static final int COLINEAR = 0;
+    static final int COUNTERCLOCKWISE = 1;
+
+    /**
+     * The primitive counterpart of lineSegmentsIntersect - determines whether the
+     * line segment from A to B and the line segment from C to D intersect (or
+     * touch).
+     * 
+     * @param ax the longitude of point A
+     * @param ay the latitude of point A
+     * @param bx the longitude of point B
+     * @param by the latitude of point B
+     * @param cx the longitude of point C
+     * @param cy the latitude of point C
+     * @param dx the longitude of point D
+     * @param dy the latitude of point D
+     * 
+     * @return whether the line segments intersect(/touch)
+     */
+    public static boolean lineSegmentsIntersect(double ax, double ay, double bx, double by, double cx, double cy,
+            double dx, double dy) {
+
+        /* Segments that are a single point do not intersect anything */
+        if (computeDistance(ax, ay, bx, by) == 0.0 || computeDistance(cx, cy, dx, dy) == 0.0) {
+            return false;
+        }
+
+        var orientationACD = computeOrientation(ax, ay, cx, cy, dx, dy);
+        var orientationBCD = computeOrientation(bx, by, cx, cy, dx, dy);
+        var orientationCAB = computeOrientation(cx, cy, ax, ay, bx, by);
+        var orientationDAB = computeOrientation(dx, dy, ax, ay, bx, by);
+
+        boolean observedColinearTriplet = false;
+
+        if (orientationACD == COLINEAR) {
+            if (pointOnSegmentInColinearTriplet(ax, ay, cx, cy, dx, dy)) {
+                return true;
+            } else {
+                observedColinearTriplet = true;
+            }
+        }
+        if (orientationBCD == COLINEAR) {
+            if (pointOnSegmentInColinearTriplet(bx, by, cx, cy, dx, dy)) {
+                return true;
+            } else {
+                observedColinearTriplet = true;
+            }
+        }
+        if (orientationCAB == COLINEAR) {
+            if (pointOnSegmentInColinearTriplet(cx, cy, ax, ay, bx, by)) {
+                return true;
+            } else {
+                observedColinearTriplet = true;
+            }
+        }
+        if (orientationDAB == COLINEAR) {
+            if (pointOnSegmentInColinearTriplet(dx, dy, ax, ay, bx, by)) {
+                return true;
+            } else {
+                observedColinearTriplet = true;
+            }
+        }
+
+        if (observedColinearTriplet) {
+            return false;
+        }
+
+        return orientationACD != orientationBCD && orientationCAB != orientationDAB;
+    }
+
+    /**
+     * The primitive counterpart of computeDistance.
+     * 
+     * @param ax the longitude of the first point
+     * @param ay the latitude of the first point
+     * @param bx the longitude of the second point
+     * @param by the latitude of the second point
+     * 
+     * @return the distance between the two points
+     */
+    public static double computeDistance(double ax, double ay, double bx, double by) {
+        return Math.sqrt(Math.pow(ax - bx, 2) + Math.pow(ay - by, 2));
+    }
+
+    /**
+     * Computes the angle of the line from point A to point B, measured
+     * anticlockwise from the direction of increasing longitude (East).
+     * 
+     * @param ax the longitude of point A
+     * @param ay the latitude of point A
+     * @param bx the longitude of point B
+     * @param by the latitude of point B
+     * 
+     * @return the angle in degrees, between 0 (inclusive) and 360 (exclusive)
+     */
+    public static double computeAngleInDegrees(double ax, double ay, double bx, double by) {
+        /*
+         * If the line has infinite slope, its angle to the "x-axis" is 90 or 270
+         * degrees, depending on the longitude. Otherwise, we can use atan.
+         */
+        if (ax == bx) {
+            return ay <= by ? 90 : 270;
+        }
+
+        double slope = (by - ay) / (bx - ax);
+
+        var angleInRadians = Math.atan(slope);
+
+        var angleInDegrees = Math.toDegrees(angleInRadians);
+
+        /*
+         * If we are moving from East to West, we need to add 180 degrees to the angle
+         * we computed from the slope. That is because it is like we are moving down the
+         * graph of a linear function "from right to left".
+         */
+        if (ax > bx) {
+            angleInDegrees += 180;
+        }
+
+        return (angleInDegrees + 360) % 360;
+    }
+
+    /**
+     * The primitive counterpart of pointOnSegmentInColinearTriplet - given a line
+     * segment from A to B and a point P, such that A, B and P are colinear,
+     * determines whether P lies on the segment.
+     * 
+     * @param px the longitude of point P
+     * @param py the latitude of point P
+     * @param ax the longitude of point A
+     * @param ay the latitude of point A
+     * @param bx the longitude of point B
+     * @param by the latitude of point B
+     * 
+     * @return whether the point lies on the line segment
+     */
+    static boolean pointOnSegmentInColinearTriplet(double px, double py, double ax, double ay, double bx,
+            double by) {
+        if (px > ax) {
+            return (px <= bx);
+        } else if (px < ax) {
+            return (px >= bx);
+        } else if (py > ay) {
+            return (py <= by);
+        } else if (py < ay) {
+            return (py >= by);
+        } else {
+            return true;
+        }
+    }
+
+    /**
+     * The primitive counterpart of computeOrientation - determines the orientation
+     * of the triangle through the points A, B and C (in this order).
+     * 
+     * @param ax the longitude of point A
+     * @param ay the latitude of point A
+     * @param bx the longitude of point B
+     * @param by the latitude of point B
+     * @param cx the longitude of point C
+     * @param cy the latitude of point C
+     * 
+     * @return CLOCKWISE, COUNTERCLOCKWISE or COLINEAR
+     */
+    static int computeOrientation(double ax, double ay, double bx, double by, double cx, double cy) {
+
+        if (bx == ax) {
+            if (by == ay || cx == bx) {
+                return COLINEAR;
+            } else if (by > ay ^ cx > bx) {
+                return COUNTERCLOCKWISE;
+            } else {
+                return CLOCKWISE;
+            }
+        }
+
+        if (cx == ax) {
+            if (cy == ay) {
+                return COLINEAR;
+            } else if (cy > ay ^ bx > cx) {
+                return CLOCKWISE;
+            } else {
+                return COUNTERCLOCKWISE;
+            }
+        }
+
+        var yDeltaAB = by - ay;
+        var yDeltaAC = cy - ay;
+        var xDeltaAB = bx - ax;
+        var xDeltaAC = cx - ax;
+
+        if (yDeltaAC * xDeltaAB > yDeltaAB * xDeltaAC) {
+            return COUNTERCLOCKWISE;
+        } else if (yDeltaAC * xDeltaAB < yDeltaAB * xDeltaAC) {
+            return CLOCKWISE;
+        } else {
+            return COLINEAR;
+        }
+    }
+
 }
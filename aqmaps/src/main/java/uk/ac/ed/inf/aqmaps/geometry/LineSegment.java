@@ -42,30 +42,8 @@ public class LineSegment {
         this.startPoint = start;
         this.endPoint = end;
 
-        /*
-         * If the segment has infinite slope, its angle to the "x-axis" is 90 or 270
-         * degrees, depending on the longitude. Otherwise, we can use atan.
-         */
-        if (start.longitude() == end.longitude()) {
-            this.angleInDegrees = start.latitude() <= end.latitude() ? 90 : 270;
-        } else {
-            double slope = (end.latitude() - start.latitude()) / (end.longitude() - start.longitude());
-
-            var angleInRadians = Math.atan(slope);
-
-            var tempAngleInDegrees = Math.toDegrees(angleInRadians);
-
-            /*
-             * If we are moving from East to West, we need to add 180 degrees to the angle
-             * we computed from the slope. That is because it is like we are moving down the
-             * graph of a linear function "from right to left".
-             */
-            if (start.longitude() > end.longitude()) {
-                tempAngleInDegrees += 180;
-            }
-
-            this.angleInDegrees = (tempAngleInDegrees + 360) % 360;
-        }
+        this.angleInDegrees = EuclideanUtils.computeAngleInDegrees(start.longitude(), start.latitude(),
+                end.longitude(), end.latitude());
 
         this.length = EuclideanUtils.computeDistance(start, end);
     }
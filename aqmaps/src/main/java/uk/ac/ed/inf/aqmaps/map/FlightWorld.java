@@ -0,0 +1,181 @@
+package uk.ac.ed.inf.aqmaps.map;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.mapbox.geojson.Polygon;
+
+import uk.ac.ed.inf.aqmaps.geometry.CollisionEngine;
+
+/**
+ * A FlightWorld captures everything about the scenario that restricts where our
+ * drones may fly: the confinement area and the no fly zones. Instances are
+ * immutable, so a single world can safely be shared by any number of drones
+ * that are simulated at the same time - and several worlds may coexist in the
+ * same program.
+ *
+ * Since the obstacles never change, everything a drone needs to check whether
+ * one of its moves is legal is derived from them once, on construction.
+ */
+public final class FlightWorld {
+
+    /* The confinement area that the drone cannot leave */
+    private final TwoDimensionalMapObject confinementArea;
+
+    /* The zones the drone is not allowed to enter */
+    private final List<TwoDimensionalMapObject> noFlyZones;
+
+    /*
+     * All objects whose boundaries may not be crossed - the confinement area,
+     * followed by the no fly zones. This is the order in which obstacles are
+     * checked, so it determines which obstacle a drone reports as being in its way
+     * if a move crosses several boundaries at once.
+     */
+    private final List<TwoDimensionalMapObject> forbiddenObjects;
+
+    /*
+     * Knows the edges of the polygons of all forbidden objects, indexed in the
+     * order of the forbiddenObjects list.
+     */
+    private final CollisionEngine collisionEngine;
+
+    /*
+     * Lets us find the index of a given obstacle within the collision engine
+     * without searching the list. We compare by identity, since
+     * TwoDimensionalMapObjects do not define equality.
+     */
+    private final Map<TwoDimensionalMapObject, Integer> indexOfForbiddenObject;
+
+    /*
+     * A hash of the exact coordinates of all forbidden objects. Two worlds with the
+     * same fingerprint are (in all likelihood) the same, which lets us reuse
+     * results computed in one of them in the other - e.g. across runs.
+     */
+    private final long fingerprint;
+
+    /* Knows the shortest ways around the no fly zones, ignoring the step length */
+    private final VisibilityGraph visibilityGraph;
+
+    /**
+     * The constructor of the FlightWorld class.
+     *
+     * @param confinementArea the area that the drone may not leave
+     * @param noFlyZones      the zones that the drone may not enter
+     */
+    public FlightWorld(TwoDimensionalMapObject confinementArea, List<TwoDimensionalMapObject> noFlyZones) {
+        this.confinementArea = confinementArea;
+        this.noFlyZones = List.copyOf(noFlyZones);
+
+        var allForbiddenObjects = new ArrayList<TwoDimensionalMapObject>();
+        allForbiddenObjects.add(confinementArea);
+        allForbiddenObjects.addAll(noFlyZones);
+        this.forbiddenObjects = Collections.unmodifiableList(allForbiddenObjects);
+
+        var forbiddenPolygons = new ArrayList<Polygon>();
+        this.indexOfForbiddenObject = new IdentityHashMap<TwoDimensionalMapObject, Integer>();
+        for (int i = 0; i < forbiddenObjects.size(); i++) {
+            var forbiddenObject = forbiddenObjects.get(i);
+            forbiddenPolygons.add(forbiddenObject.getPolygon());
+            indexOfForbiddenObject.put(forbiddenObject, i);
+        }
+        this.collisionEngine = new CollisionEngine(forbiddenPolygons);
+        this.fingerprint = computeFingerprint(forbiddenPolygons);
+
+        /* This needs the collision engine, so it comes last */
+        this.visibilityGraph = new VisibilityGraph(this);
+    }
+
+    /**
+     * This helper method hashes the coordinates of the given polygons, in order,
+     * into 64 bits (in the style of FNV-1a, but consuming whole coordinates rather
+     * than single bytes). Names and other properties of the objects are ignored,
+     * since they do not affect where a drone may fly.
+     * 
+     * @param polygons the polygons of all forbidden objects
+     * 
+     * @return the fingerprint of the world made up of these polygons
+     */
+    private static long computeFingerprint(List<Polygon> polygons) {
+        var hash = 0xcbf29ce484222325L;
+        for (var polygon : polygons) {
+            for (var ring : polygon.coordinates()) {
+                for (var vertex : ring) {
+                    hash = (hash ^ Double.doubleToLongBits(vertex.longitude())) * 0x100000001b3L;
+                    hash = (hash ^ Double.doubleToLongBits(vertex.latitude())) * 0x100000001b3L;
+                }
+                /* Separates the rings, so that moving a vertex between them changes the hash */
+                hash = (hash ^ ring.size()) * 0x100000001b3L;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * This method finds the first forbidden object (in the order of the
+     * forbiddenObjects list) whose boundary is crossed or touched by the move from
+     * (startLong, startLat) to (endLong, endLat). It does not create any objects.
+     *
+     * @param startLong the longitude the move starts at
+     * @param startLat  the latitude the move starts at
+     * @param endLong   the longitude the move ends at
+     * @param endLat    the latitude the move ends at
+     *
+     * @return the first obstacle that is hit, or null if the move is legal
+     */
+    public TwoDimensionalMapObject findObstacleCrossedBy(double startLong, double startLat, double endLong,
+            double endLat) {
+        var index = collisionEngine.findFirstPolygonCrossedBy(startLong, startLat, endLong, endLat);
+
+        return index < 0 ? null : forbiddenObjects.get(index);
+    }
+
+    /**
+     * This method determines whether the move from (startLong, startLat) to
+     * (endLong, endLat) crosses or touches the boundary of one specific obstacle of
+     * this world. It does not create any objects.
+     *
+     * @param startLong the longitude the move starts at
+     * @param startLat  the latitude the move starts at
+     * @param endLong   the longitude the move ends at
+     * @param endLat    the latitude the move ends at
+     * @param obstacle  the obstacle in question, which needs to be one of the
+     *                  forbidden objects of this world
+     *
+     * @return whether the move hits the obstacle
+     */
+    public boolean crossesObstacle(double startLong, double startLat, double endLong, double endLat,
+            TwoDimensionalMapObject obstacle) {
+        var index = indexOfForbiddenObject.get(obstacle);
+        if (index == null) {
+            throw new IllegalArgumentException("The obstacle " + obstacle.getName() + " is not part of this world!");
+        }
+
+        return collisionEngine.crossesPolygon(index, startLong, startLat, endLong, endLat);
+    }
+
+    /* Getters */
+
+    public TwoDimensionalMapObject getConfinementArea() {
+        return confinementArea;
+    }
+
+    public List<TwoDimensionalMapObject> getNoFlyZones() {
+        return noFlyZones;
+    }
+
+    public List<TwoDimensionalMapObject> getForbiddenObjects() {
+        return forbiddenObjects;
+    }
+
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    public VisibilityGraph getVisibilityGraph() {
+        return visibilityGraph;
+    }
+
+}
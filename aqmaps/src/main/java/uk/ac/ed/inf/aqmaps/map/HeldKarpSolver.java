@@ -0,0 +1,328 @@
+package uk.ac.ed.inf.aqmaps.map;
+
+import java.util.Arrays;
+
+/**
+ * The HeldKarpSolver finds a provably shortest tour through all nodes of a
+ * distance matrix, using the dynamic program of Held and Karp. As in the
+ * TourPlanner, the last node is the starting/landing point of the drone.
+ *
+ * For each set of sensors S and each sensor v in S, the program computes the
+ * cost of the cheapest path that starts at the starting point, visits all of S
+ * and ends at v. Sets are represented as bitmasks, so there are 2^m * m of
+ * these values for m sensors, each of which takes O(m) time to compute. This
+ * limits the solver to small sets of sensors - 20 of them take about a hundred
+ * megabytes and a second or two, and every further sensor doubles both.
+ *
+ * There are two variants of the program:
+ *
+ * The default one keeps all values in a single int array that is indexed by the
+ * bitmask directly. The tour is reconstructed from these values in the end.
+ *
+ * The memory-bounded one computes the values layer by layer, i.e. for all sets
+ * of the same size at once, and only keeps the values of the previous layer.
+ * All it remembers of earlier layers is, for each value, which sensor was
+ * visited before v, which takes a byte rather than an int. It needs about a
+ * quarter of the memory of the default variant, at the price of having to rank
+ * every set it looks up. That still makes for m * 2^m bytes, so it can only
+ * handle two more sensors: 28 of them take about 16 gigabytes.
+ */
+public class HeldKarpSolver {
+
+    /* A cost that is larger than that of any actual path, but cannot overflow */
+    private static final int INFINITE_COST = Integer.MAX_VALUE / 2;
+
+    /*
+     * The largest number of sensors each variant can handle. Beyond these, the
+     * full table of the default variant, or the largest layer of the
+     * memory-bounded one, has more entries than a Java array can hold.
+     */
+    private static final int MAX_NUM_SENSORS = 26;
+    private static final int MAX_NUM_SENSORS_MEMORY_BOUNDED = 28;
+
+    /* The distance matrix of the problem, where the last node is the start */
+    private final int[][] distanceMatrix;
+
+    /* The number of sensors, i.e. of nodes other than the start */
+    private final int numSensors;
+
+    /* Whether the memory-bounded variant of the program is used */
+    private boolean memoryBounded;
+
+    /* The cost of the shortest tour, once it has been found */
+    private int optimalCost = -1;
+
+    /**
+     * The constructor of the HeldKarpSolver class.
+     *
+     * @param distanceMatrix the distance matrix of the Travelling Salesman Problem,
+     *                       where the last node is the starting/landing point
+     */
+    public HeldKarpSolver(int[][] distanceMatrix) {
+        this.distanceMatrix = distanceMatrix;
+        this.numSensors = distanceMatrix.length - 1;
+    }
+
+    /**
+     * This method estimates how much memory the dynamic program needs for a
+     * problem of the given size, so that callers can decide whether to use it at
+     * all.
+     *
+     * @param numPoints     the number of nodes, including the starting point
+     * @param memoryBounded whether the memory-bounded variant is used
+     *
+     * @return the number of bytes needed, or Long.MAX_VALUE if the variant cannot
+     *         handle that many nodes at all
+     */
+    public static long estimateMemoryBytes(int numPoints, boolean memoryBounded) {
+        var numSensors = Math.max(0, numPoints - 1);
+        if (!memoryBounded) {
+            if (numSensors > MAX_NUM_SENSORS) {
+                return Long.MAX_VALUE;
+            }
+            return 4L * numSensors * (1L << numSensors);
+        }
+
+        if (numSensors > MAX_NUM_SENSORS_MEMORY_BOUNDED) {
+            return Long.MAX_VALUE;
+        }
+        var largestLayer = binomialCoefficients(numSensors)[numSensors][numSensors / 2] * numSensors;
+        /* A byte per value for the sensors visited before, plus the values of two layers */
+        return numSensors * (1L << numSensors) + 2 * 4 * largestLayer;
+    }
+
+    /**
+     * This method finds a shortest tour through all nodes.
+     *
+     * @return the order in which the nodes are visited, in the format of the
+     *         TourPlanner - the sensors, followed by the starting point
+     */
+    public int[] solve() {
+        if (estimateMemoryBytes(numSensors + 1, memoryBounded) == Long.MAX_VALUE) {
+            throw new IllegalStateException("Too many sensors for the Held-Karp algorithm: " + numSensors);
+        }
+
+        var tour = new int[numSensors + 1];
+        tour[numSensors] = numSensors;
+        if (numSensors == 0) {
+            optimalCost = 0;
+        } else if (memoryBounded) {
+            solveLayerByLayer(tour);
+        } else {
+            solveWithFullTable(tour);
+        }
+        return tour;
+    }
+
+    /**
+     * This helper method runs the default variant of the dynamic program. The value
+     * for set S and last sensor v is stored at index S * m + v.
+     *
+     * @param tour the array the sensors of the shortest tour are written to
+     */
+    private void solveWithFullTable(int[] tour) {
+        var start = numSensors;
+        var fullSet = (1 << numSensors) - 1;
+        var costs = new int[(fullSet + 1) * numSensors];
+        Arrays.fill(costs, INFINITE_COST);
+
+        for (int v = 0; v < numSensors; v++) {
+            costs[(1 << v) * numSensors + v] = distanceMatrix[start][v];
+        }
+
+        /* Every set is only ever extended to larger ones, so increasing order works */
+        for (int set = 1; set <= fullSet; set++) {
+            for (int last = 0; last < numSensors; last++) {
+                var cost = costs[set * numSensors + last];
+                if (cost == INFINITE_COST) {
+                    continue;
+                }
+                for (int next = 0; next < numSensors; next++) {
+                    if ((set & (1 << next)) != 0) {
+                        continue;
+                    }
+                    var index = (set | (1 << next)) * numSensors + next;
+                    var newCost = cost + distanceMatrix[last][next];
+                    if (newCost < costs[index]) {
+                        costs[index] = newCost;
+                    }
+                }
+            }
+        }
+
+        var last = findBestLast(costs, fullSet * numSensors);
+
+        /* Walk back through the table, finding a predecessor that explains each value */
+        var set = fullSet;
+        for (int position = numSensors - 1; position > 0; position--) {
+            tour[position] = last;
+            var cost = costs[set * numSensors + last];
+            set ^= 1 << last;
+            for (int previous = 0; previous < numSensors; previous++) {
+                if ((set & (1 << previous)) != 0
+                        && costs[set * numSensors + previous] + distanceMatrix[previous][last] == cost) {
+                    last = previous;
+                    break;
+                }
+            }
+        }
+        tour[0] = last;
+    }
+
+    /**
+     * This helper method runs the memory-bounded variant of the dynamic program.
+     * The sets of each size are enumerated in colexicographic order, in which the
+     * rank of a set can be computed from its bitmask using binomial coefficients.
+     * The value for the set of rank r and last sensor v is stored at index r * m +
+     * v of its layer.
+     *
+     * @param tour the array the sensors of the shortest tour are written to
+     */
+    private void solveLayerByLayer(int[] tour) {
+        var start = numSensors;
+        var binomials = binomialCoefficients(numSensors);
+
+        /* previousSensors[k][r * m + v] is the sensor visited before v, in layer k */
+        var previousSensors = new byte[numSensors + 1][];
+        var previousLayerCosts = new int[numSensors * numSensors];
+        Arrays.fill(previousLayerCosts, INFINITE_COST);
+        for (int v = 0; v < numSensors; v++) {
+            previousLayerCosts[v * numSensors + v] = distanceMatrix[start][v];
+        }
+
+        for (int size = 2; size <= numSensors; size++) {
+            var layerSize = (int) binomials[numSensors][size];
+            var layerCosts = new int[layerSize * numSensors];
+            var layerPreviousSensors = new byte[layerSize * numSensors];
+
+            /* Enumerate all sets of this size in increasing order (Gosper's hack) */
+            var set = (1L << size) - 1;
+            for (int rank = 0; rank < layerSize; rank++) {
+                for (int last = 0; last < numSensors; last++) {
+                    var index = rank * numSensors + last;
+                    if ((set & (1L << last)) == 0) {
+                        layerCosts[index] = INFINITE_COST;
+                        continue;
+                    }
+                    var subset = set ^ (1L << last);
+                    var subsetOffset = rankOf(subset, binomials) * numSensors;
+                    var bestCost = INFINITE_COST;
+                    var bestPrevious = 0;
+                    for (int previous = 0; previous < numSensors; previous++) {
+                        if ((subset & (1L << previous)) == 0) {
+                            continue;
+                        }
+                        var cost = previousLayerCosts[subsetOffset + previous] + distanceMatrix[previous][last];
+                        if (cost < bestCost) {
+                            bestCost = cost;
+                            bestPrevious = previous;
+                        }
+                    }
+                    layerCosts[index] = bestCost;
+                    layerPreviousSensors[index] = (byte) bestPrevious;
+                }
+
+                var lowestBit = set & -set;
+                var ripple = set + lowestBit;
+                set = (((ripple ^ set) >>> 2) / lowestBit) | ripple;
+            }
+
+            previousLayerCosts = layerCosts;
+            previousSensors[size] = layerPreviousSensors;
+        }
+
+        /* The last layer consists of the set of all sensors only, whose rank is 0 */
+        var last = findBestLast(previousLayerCosts, 0);
+
+        var set = (1L << numSensors) - 1;
+        for (int size = numSensors; size > 1; size--) {
+            tour[size - 1] = last;
+            var previous = previousSensors[size][rankOf(set, binomials) * numSensors + last];
+            set ^= 1L << last;
+            last = previous;
+        }
+        tour[0] = last;
+    }
+
+    /**
+     * This helper method finds the sensor the shortest tour visits last, given the
+     * costs of all paths through all sensors, and remembers the cost of the tour.
+     *
+     * @param costs  the array holding the values of the set of all sensors
+     * @param offset the index of the value for the first sensor in that array
+     *
+     * @return the sensor visited last
+     */
+    private int findBestLast(int[] costs, int offset) {
+        var start = numSensors;
+        var bestLast = 0;
+        optimalCost = INFINITE_COST;
+        for (int last = 0; last < numSensors; last++) {
+            var cost = costs[offset + last] + distanceMatrix[last][start];
+            if (cost < optimalCost) {
+                optimalCost = cost;
+                bestLast = last;
+            }
+        }
+        return bestLast;
+    }
+
+    /**
+     * This helper method computes the rank of a set among all sets of the same
+     * size, in colexicographic order. If its elements are c_1 < c_2 < ... < c_k,
+     * that is the sum of the binomial coefficients (c_i choose i).
+     *
+     * @param set       the bitmask of the set
+     * @param binomials the table of binomial coefficients
+     *
+     * @return the rank of the set
+     */
+    private static int rankOf(long set, long[][] binomials) {
+        var rank = 0L;
+        var i = 1;
+        while (set != 0) {
+            var element = Long.numberOfTrailingZeros(set);
+            rank += binomials[element][i];
+            i++;
+            set &= set - 1;
+        }
+        return (int) rank;
+    }
+
+    /**
+     * This helper method computes Pascal's triangle up to the given row.
+     *
+     * @param n the last row
+     *
+     * @return the table, where entry (a,b) is a choose b (0 if b > a)
+     */
+    private static long[][] binomialCoefficients(int n) {
+        var binomials = new long[n + 1][n + 2];
+        for (int a = 0; a <= n; a++) {
+            binomials[a][0] = 1;
+            for (int b = 1; b <= a; b++) {
+                binomials[a][b] = binomials[a - 1][b - 1] + binomials[a - 1][b];
+            }
+        }
+        return binomials;
+    }
+
+    /**
+     * Sets whether the memory-bounded variant of the dynamic program is used.
+     *
+     * @param memoryBounded whether to use the memory-bounded variant
+     */
+    public void setMemoryBounded(boolean memoryBounded) {
+        this.memoryBounded = memoryBounded;
+    }
+
+    /* Getters */
+
+    /**
+     * @return the cost of the shortest tour, or -1 if solve has not been called yet
+     */
+    public int getOptimalCost() {
+        return optimalCost;
+    }
+
+}
@@ -0,0 +1,175 @@
+package uk.ac.ed.inf.aqmaps.map;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntBinaryOperator;
+
+import com.mapbox.geojson.Point;
+
+import uk.ac.ed.inf.aqmaps.drone.Drone;
+import uk.ac.ed.inf.aqmaps.geometry.EuclideanUtils;
+
+/**
+ * A LazyDistanceMatrix only simulates the flight between two nodes once its
+ * cost is actually asked for. Until then, a cheap lower bound on the cost is
+ * available instead, which is often enough to tell that a move of the
+ * TourPlanner cannot lower the tour cost.
+ *
+ * The bound follows from the fact that every step of our drone covers exactly
+ * MOVE_DISTANCE, and that a flight ends as soon as the drone is within the
+ * action range of its destination. So no flight can take fewer steps than the
+ * length of the shortest way around the no fly zones (as found by the
+ * VisibilityGraph of the world) minus the action range, divided by
+ * MOVE_DISTANCE. (The only exception is a drone that crashes on its way, whose
+ * cost is meaningless either way.) Subtracting the action range is only valid
+ * if every position within range of the destination can be reached from it in
+ * a straight line, so for destinations closer than that to an obstacle, the
+ * straight-line distance is used instead.
+ *
+ * The cells of the matrix are stored in a plain int[][], which the TourPlanner
+ * reads directly, with UNKNOWN in every cell that has not been computed yet.
+ * Cells may be computed by several threads at once. Since computing a cell
+ * always yields the same value, the worst that can happen is that it is
+ * computed twice.
+ */
+class LazyDistanceMatrix {
+
+    /* The value of a cell that has not been computed yet */
+    static final int UNKNOWN = -1;
+
+    /*
+     * Protects the bound against rounding errors, which could otherwise make it
+     * exceed the exact cost of a flight that only just takes that many steps. It
+     * also covers the tiny detours of the VisibilityGraph around each corner.
+     */
+    private static final double ROUNDING_TOLERANCE = 1e-3;
+
+    /* The cells of the matrix, UNKNOWN where they have not been computed yet */
+    private final int[][] cells;
+
+    /* The lower bound on the cost of each cell */
+    private final int[][] lowerBounds;
+
+    /* For each row, the columns ordered by their lower bounds, lowest first */
+    private final int[][] columnsByLowerBound;
+
+    /* Computes the exact cost of a cell, given its row and column */
+    private final IntBinaryOperator distanceFunction;
+
+    /**
+     * The constructor of the LazyDistanceMatrix class. Computes the lower bounds
+     * of all cells, but none of the cells themselves - except for the diagonal,
+     * which is always 0.
+     *
+     * @param points           the nodes of the tour, where the last point is
+     *                         assumed to be the start/end point
+     * @param world            the world the drones fly in
+     * @param distanceFunction computes the exact cost of getting from node i to
+     *                         node j
+     */
+    LazyDistanceMatrix(List<Point> points, FlightWorld world, IntBinaryOperator distanceFunction) {
+        this.distanceFunction = distanceFunction;
+
+        var numPoints = points.size();
+        this.cells = new int[numPoints][numPoints];
+        this.lowerBounds = new int[numPoints][numPoints];
+        for (int i = 0; i < numPoints; i++) {
+            Arrays.fill(cells[i], UNKNOWN);
+            cells[i][i] = 0;
+        }
+
+        /* The bounds are computed column by column, since each column has a single destination */
+        var visibilityGraph = world.getVisibilityGraph();
+        for (int j = 0; j < numPoints; j++) {
+            /* The start/end point is approached with a different action range */
+            var actionRange = j == numPoints - 1 ? Drone.getMaxLandingDistance() : Drone.getMaxReadDistance();
+            var destination = points.get(j);
+            var aroundObstacles = visibilityGraph.computeClearance(destination) > actionRange;
+            var distancesFromCorners = aroundObstacles ? visibilityGraph.computeDistancesFromCorners(destination)
+                    : null;
+
+            for (int i = 0; i < numPoints; i++) {
+                if (i == j) {
+                    continue;
+                }
+                var start = points.get(i);
+                var distance = aroundObstacles
+                        ? visibilityGraph.computeShortestDistance(start.longitude(), start.latitude(),
+                                distancesFromCorners, destination)
+                        : EuclideanUtils.computeDistance(start, destination);
+                var minSteps = Math.ceil((distance - actionRange) / Drone.getMoveDistance() - ROUNDING_TOLERANCE);
+                /*
+                 * Even a drone that starts within range needs a waiting move. An unreachable
+                 * destination is as good as a crash, see above.
+                 */
+                lowerBounds[i][j] = Double.isInfinite(distance) ? 0 : (int) Math.max(1, minSteps);
+            }
+        }
+
+        /* Ties are broken by column, just like everywhere else in the TourPlanner */
+        this.columnsByLowerBound = new int[numPoints][numPoints];
+        var keys = new long[numPoints];
+        for (int i = 0; i < numPoints; i++) {
+            for (int j = 0; j < numPoints; j++) {
+                keys[j] = ((long) lowerBounds[i][j] << 32) | j;
+            }
+            Arrays.sort(keys);
+            for (int k = 0; k < numPoints; k++) {
+                columnsByLowerBound[i][k] = (int) keys[k];
+            }
+        }
+    }
+
+    /**
+     * This method returns the exact cost of getting from node i to node j,
+     * computing it first if that has not happened yet.
+     *
+     * @param i the index of the node the drone starts at
+     * @param j the index of the node the drone flies to
+     *
+     * @return the number of steps the drone needs
+     */
+    int get(int i, int j) {
+        var distance = cells[i][j];
+        if (distance == UNKNOWN) {
+            distance = distanceFunction.applyAsInt(i, j);
+            cells[i][j] = distance;
+        }
+        return distance;
+    }
+
+    /**
+     * This method returns a lower bound on the cost of getting from node i to node
+     * j, without computing it. (Once the cell has been computed, calling get is
+     * just as cheap, and gives the exact cost.)
+     *
+     * @param i the index of the node the drone starts at
+     * @param j the index of the node the drone flies to
+     *
+     * @return a number of steps that is at most the exact cost
+     */
+    int getLowerBound(int i, int j) {
+        return lowerBounds[i][j];
+    }
+
+    /**
+     * This method returns all columns of a row of the matrix, ordered by their
+     * lower bounds. Looking for the cheapest cells of a row in this order, one can
+     * stop as soon as the bound exceeds the cost of the cheapest cells found so
+     * far.
+     *
+     * @param i the index of the row
+     *
+     * @return the columns of the row, with the lowest bound first
+     */
+    int[] getColumnsByLowerBound(int i) {
+        return columnsByLowerBound[i];
+    }
+
+    /* Getters */
+
+    int[][] getCells() {
+        return cells;
+    }
+
+}
@@ -0,0 +1,293 @@
+package uk.ac.ed.inf.aqmaps.map;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mapbox.geojson.Point;
+
+import uk.ac.ed.inf.aqmaps.drone.MainDrone;
+import uk.ac.ed.inf.aqmaps.drone.MainDrone.NavigationEngine;
+
+/**
+ * The PairCostCache remembers the number of steps our drone needs to get from
+ * one point to another, across days and runs of the application. Sensors are
+ * placed at the same positions on many days and the no fly zones never change,
+ * so most entries of a day's distance matrix have been simulated before.
+ *
+ * An entry is identified by the start and end point, the action range at the
+ * end point, the fingerprint of the world the drone flies in and a fingerprint
+ * of the simulation, which covers the way the drone navigates and all
+ * parameters of its moves (see MainDrone.describeSimulation). It is stored in a
+ * plain text file, one entry per line, which is only ever appended to. Lines
+ * that cannot be parsed are ignored, and so is a last line without a line
+ * break, which a run killed while writing may leave behind - its step count may
+ * have been cut off, and would still parse. That line is cut off before the
+ * next entries are appended.
+ *
+ * Lookups may happen from many threads at once (e.g. while the TourPlanner
+ * computes a distance matrix in parallel, or when the BatchRunner plans several
+ * days at the same time). New entries are collected in memory and written to
+ * the file when flush is called.
+ */
+public class PairCostCache {
+
+    /*
+     * The version of the drone simulation that the cached costs stem from. Changes
+     * to the parameters of the simulation are noticed automatically, but changes
+     * to the way the drones decide on their moves are not. So this still needs to
+     * be increased whenever such a change alters the number of steps they need -
+     * entries of older versions are then simply never found again.
+     */
+    private static final int SIMULATION_VERSION = 2;
+
+    /* The first component of the keys of each navigation engine, see generateKey */
+    private static final EnumMap<NavigationEngine, String> KEY_PREFIXES = computeKeyPrefixes();
+
+    /* The system properties that control the cache used by App and BatchRunner */
+    private static final String FILE_PROPERTY = "aqmaps.paircache";
+    private static final String INVALIDATE_PROPERTY = "aqmaps.paircache.invalidate";
+
+    /* The file the cache is persisted in */
+    private final Path file;
+
+    /*
+     * The length of the file in bytes, up to and including the line break of its
+     * last complete line, and whether anything follows it. See flush.
+     */
+    private long completeLength;
+    private boolean hasIncompleteLine;
+
+    /* The number of steps for each key */
+    private final ConcurrentHashMap<String, Integer> costs;
+
+    /* The lines describing entries that have not been written to the file yet */
+    private final List<String> unflushedLines;
+
+    /* Statistics about the lookups made so far */
+    private final AtomicLong numHits = new AtomicLong();
+    private final AtomicLong numMisses = new AtomicLong();
+
+    /**
+     * The constructor of the PairCostCache class. Loads all entries that are
+     * already stored in the given file, if it exists.
+     *
+     * @param file the file the cache is persisted in
+     */
+    public PairCostCache(Path file) {
+        this.file = file;
+        this.costs = new ConcurrentHashMap<String, Integer>();
+        this.unflushedLines = new ArrayList<String>();
+
+        if (!Files.exists(file)) {
+            return;
+        }
+
+        try {
+            var bytes = Files.readAllBytes(file);
+            var lastLineBreak = bytes.length - 1;
+            while (lastLineBreak >= 0 && bytes[lastLineBreak] != '\n') {
+                lastLineBreak--;
+            }
+            completeLength = lastLineBreak + 1;
+            hasIncompleteLine = completeLength < bytes.length;
+
+            var completeLines = new String(bytes, 0, (int) completeLength, StandardCharsets.UTF_8);
+            for (var untrimmedLine : completeLines.split("\n")) {
+                var line = untrimmedLine.strip();
+                var separatorIndex = line.lastIndexOf(',');
+                if (separatorIndex < 0) {
+                    continue;
+                }
+                try {
+                    var key = line.substring(0, separatorIndex);
+                    var steps = Integer.parseInt(line.substring(separatorIndex + 1));
+                    if (key.split(",").length == 7) {
+                        costs.put(key, steps);
+                    }
+                } catch (NumberFormatException e) {
+                    /* A malformed line, e.g. from an interrupted run - we ignore it */
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Warning! Unable to read the pair cost cache " + file + ". Starting with an empty one.");
+            costs.clear();
+        }
+    }
+
+    /**
+     * This method opens the cache that App and BatchRunner use. There is none,
+     * unless the system property aqmaps.paircache names the file it lives in (e.g.
+     * -Daqmaps.paircache=pair-cost-cache.txt). If the system property
+     * aqmaps.paircache.invalidate is set to true, the cache is cleared first.
+     *
+     * @return the cache to be used by this run of the application, or null
+     */
+    public static PairCostCache openDefault() {
+        var fileName = System.getProperty(FILE_PROPERTY);
+        if (fileName == null) {
+            return null;
+        }
+        var cache = new PairCostCache(Path.of(fileName));
+        if (Boolean.getBoolean(INVALIDATE_PROPERTY)) {
+            cache.invalidate();
+        }
+        return cache;
+    }
+
+    /**
+     * This method looks up the number of steps needed to get from start to end.
+     *
+     * @param world            the world the drone flies in
+     * @param navigationEngine the way the drone navigates
+     * @param start            the point the drone starts at
+     * @param end              the point the drone flies to
+     * @param actionRange      the distance to the end point the drone needs to
+     *                         reach
+     *
+     * @return the number of steps, or null if they are not in the cache
+     */
+    public Integer get(FlightWorld world, NavigationEngine navigationEngine, Point start, Point end,
+            double actionRange) {
+        var steps = costs.get(generateKey(world, navigationEngine, start, end, actionRange));
+        if (steps == null) {
+            numMisses.incrementAndGet();
+        } else {
+            numHits.incrementAndGet();
+        }
+        return steps;
+    }
+
+    /**
+     * This method adds an entry to the cache. It is only written to the file on
+     * the next call of flush.
+     *
+     * @param world            the world the drone flies in
+     * @param navigationEngine the way the drone navigates
+     * @param start            the point the drone starts at
+     * @param end              the point the drone flies to
+     * @param actionRange      the distance to the end point the drone needs to
+     *                         reach
+     * @param steps            the number of steps the drone needs
+     */
+    public void put(FlightWorld world, NavigationEngine navigationEngine, Point start, Point end,
+            double actionRange, int steps) {
+        var key = generateKey(world, navigationEngine, start, end, actionRange);
+        if (costs.putIfAbsent(key, steps) == null) {
+            synchronized (unflushedLines) {
+                unflushedLines.add(key + "," + steps);
+            }
+        }
+    }
+
+    /**
+     * This method appends all entries that have been added since the last call to
+     * the file of this cache.
+     */
+    public void flush() {
+        synchronized (unflushedLines) {
+            if (unflushedLines.isEmpty()) {
+                return;
+            }
+            try {
+                if (hasIncompleteLine) {
+                    try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                        channel.truncate(completeLength);
+                    }
+                    hasIncompleteLine = false;
+                }
+                Files.write(file, unflushedLines, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                System.out.println("Warning! Unable to write to the pair cost cache " + file + ".");
+            }
+            unflushedLines.clear();
+        }
+    }
+
+    /**
+     * This method forgets all entries, both in memory and on disk.
+     */
+    public void invalidate() {
+        synchronized (unflushedLines) {
+            costs.clear();
+            unflushedLines.clear();
+            hasIncompleteLine = false;
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                System.out.println("Warning! Unable to delete the pair cost cache " + file + ".");
+            }
+        }
+    }
+
+    /**
+     * This method summarises the lookups made so far, e.g. to be printed at the end
+     * of a run.
+     *
+     * @return a human-readable summary of the cache statistics
+     */
+    public String getStatisticsSummary() {
+        return "Pair cost cache: " + numHits.get() + " hits, " + numMisses.get() + " misses, " + costs.size()
+                + " pairs stored.";
+    }
+
+    /**
+     * This helper method generates the key of an entry. Doubles are written in
+     * their shortest exact representation, so two keys are equal if and only if
+     * all of their components are exactly the same.
+     *
+     * @param world            the world the drone flies in
+     * @param navigationEngine the way the drone navigates
+     * @param start            the point the drone starts at
+     * @param end              the point the drone flies to
+     * @param actionRange      the distance to the end point the drone needs to
+     *                         reach
+     *
+     * @return the key of the entry
+     */
+    private static String generateKey(FlightWorld world, NavigationEngine navigationEngine, Point start, Point end,
+            double actionRange) {
+        return KEY_PREFIXES.get(navigationEngine) + "," + Long.toHexString(world.getFingerprint()) + ","
+                + start.longitude() + "," + start.latitude() + "," + end.longitude() + "," + end.latitude() + ","
+                + actionRange;
+    }
+
+    /**
+     * This helper method computes the first component of the keys of each
+     * navigation engine: the simulation version, followed by a hash of the
+     * description of the simulation.
+     *
+     * @return the key prefix of each navigation engine
+     */
+    private static EnumMap<NavigationEngine, String> computeKeyPrefixes() {
+        var keyPrefixes = new EnumMap<NavigationEngine, String>(NavigationEngine.class);
+        for (var navigationEngine : NavigationEngine.values()) {
+            var description = MainDrone.describeSimulation(navigationEngine);
+            keyPrefixes.put(navigationEngine, SIMULATION_VERSION + "-" + Integer.toHexString(description.hashCode()));
+        }
+        return keyPrefixes;
+    }
+
+    /* Getters */
+
+    public long getNumHits() {
+        return numHits.get();
+    }
+
+    public long getNumMisses() {
+        return numMisses.get();
+    }
+
+    public int size() {
+        return costs.size();
+    }
+
+}
@@ -1,13 +1,22 @@
 package uk.ac.ed.inf.aqmaps.map;
 
+import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.mapbox.geojson.Point;
 
 import uk.ac.ed.inf.aqmaps.drone.Drone;
 import uk.ac.ed.inf.aqmaps.drone.MainDrone;
+import uk.ac.ed.inf.aqmaps.drone.MainDrone.NavigationEngine;
 
 /**
  * The TourPlanner class solves the Travelling Salesman Problem that is induced
@@ -16,33 +25,222 @@ import uk.ac.ed.inf.aqmaps.drone.MainDrone;
  */
 public class TourPlanner {
 
+    /**
+     * The families of moves the TourPlanner uses to improve a tour. Each family
+     * includes the ones before it, so later families find shorter tours at the
+     * price of a longer planning time.
+     */
+    public enum LocalSearch {
+        /* Reversing a part of the tour */
+        TWO_OPT,
+        /* Additionally, moving up to three consecutive nodes elsewhere */
+        OR_OPT,
+        /* Additionally, swapping two adjacent parts of the tour of any length */
+        THREE_OPT
+    }
+
+    /* The system properties that configure the planners of App and BatchRunner */
+    private static final String LOCAL_SEARCH_PROPERTY = "aqmaps.localsearch";
+    private static final String TIME_BUDGET_PROPERTY = "aqmaps.planningbudget";
+
+    /*
+     * Tours with at least this many nodes are optimised using neighbour lists and
+     * don't-look bits, rather than by scanning all pairs of indices on every pass.
+     * Below it, the exhaustive scan is fast enough and tends to find slightly
+     * better tours.
+     */
+    private static final int DEFAULT_NEIGHBOUR_LIST_THRESHOLD = 64;
+
+    /* The number of closest nodes considered as new neighbours of each node */
+    private static final int DEFAULT_NUM_NEIGHBOURS = 10;
+
+    /*
+     * Tours with at most this many nodes (including the start) are solved exactly
+     * by the HeldKarpSolver. Its time and memory double with every further node,
+     * and this size still takes well below a second.
+     */
+    private static final int DEFAULT_EXACT_SOLVER_THRESHOLD = 16;
+
+    /* The steps of a tour that was not flown, see selectBySimulation */
+    private static final int NOT_FLOWN = -1;
+
+    /* The longest part of the tour that an Or-opt move relocates */
+    private static final int MAX_OR_OPT_SEGMENT_LENGTH = 3;
+
+    /*
+     * When building a randomised initial tour, the next node is chosen uniformly
+     * among this many of the closest nodes that have not been visited yet.
+     */
+    private static final int NUM_RANDOMISED_CANDIDATES = 3;
+
     /* The number of nodes of the tour */
     private int numPoints;
 
+    /*
+     * The nodes of the tour. The last one is assumed to be the starting/landing
+     * point of the drone.
+     */
+    private final List<Point> points;
+
+    /*
+     * The world (confinement area and no fly zones) that the drones we use to
+     * measure distances fly in.
+     */
+    private final FlightWorld world;
+
+    /*
+     * The number of threads used to compute the distance matrix. Each entry of the
+     * matrix is a completely independent drone simulation, so they can be computed
+     * concurrently without affecting the result. A value of 1 means that the matrix
+     * is computed sequentially on the calling thread.
+     */
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /*
+     * Remembers the costs of pairs of points that have been simulated before,
+     * possibly on other days. May be null, in which case every pair is simulated.
+     */
+    private PairCostCache pairCostCache;
+
+    /* The way the drones we use to measure distances find their way */
+    private NavigationEngine navigationEngine = NavigationEngine.GREEDY;
+
     /*
      * The distance matrix, where entry (i,j) is an estimation of the number of
      * steps a drone needs from sensor i to sensor j.
      */
     private int[][] distanceMatrix;
 
+    /*
+     * Whether the distance matrix is only computed as far as the local search
+     * needs it. See setLazyDistanceMatrix.
+     */
+    private boolean lazyDistances;
+
+    /*
+     * While the distance matrix is only partially known, this computes its missing
+     * cells on demand and provides lower bounds for them. It is null otherwise.
+     */
+    private LazyDistanceMatrix lazyDistanceMatrix;
+
+    /*
+     * Whether the distance matrix is estimated rather than simulated. See
+     * setEstimatedDistanceMatrix.
+     */
+    private boolean estimatedDistances;
+
+    /* The number of cells of the distance matrix (off its diagonal) computed so far */
+    private final AtomicLong numComputedDistances = new AtomicLong();
+
     /*
      * We use this attribute to keep track of the best tour found so far. Its (i-1)
      * entry is the initial index of the node that is visited i-th.
      */
     private int[] currentPointPermutation;
 
+    /*
+     * The position of each node in the current permutation, i.e. the inverse of
+     * currentPointPermutation. Only maintained while optimising with neighbour
+     * lists, null otherwise.
+     */
+    private int[] positionOfNode;
+
+    /* See DEFAULT_NEIGHBOUR_LIST_THRESHOLD and DEFAULT_NUM_NEIGHBOURS */
+    private int neighbourListThreshold = DEFAULT_NEIGHBOUR_LIST_THRESHOLD;
+    private int numNeighbours = DEFAULT_NUM_NEIGHBOURS;
+
+    /* See DEFAULT_EXACT_SOLVER_THRESHOLD */
+    private int exactSolverThreshold = DEFAULT_EXACT_SOLVER_THRESHOLD;
+
+    /* Whether the exact solver uses its memory-bounded variant */
+    private boolean exactSolverMemoryBounded;
+
+    /*
+     * The number of initial tours the local search is started from, and the seed
+     * the randomised ones are built from. See setMultiStart.
+     */
+    private int numStarts = 1;
+    private long seed;
+
+    /*
+     * The time the planner may spend finding a tour, including the computation of
+     * the distance matrix. If it is null, the planner stops as soon as its local
+     * search does.
+     */
+    private Duration timeBudget;
+
+    /*
+     * The time by which findShortestTour has to return, as given by
+     * System.nanoTime. It is only set while a budgeted search is running, see
+     * isPastDeadline.
+     */
+    private boolean hasDeadline;
+    private long deadline;
+
+    /* Informed whenever a shorter tour is found while using the time budget */
+    private final List<TourProgressListener> progressListeners = new ArrayList<TourProgressListener>();
+
+    /*
+     * The number of the cheapest distinct tours found that are flown in full to
+     * pick the final one, and the steps the final one needed. See
+     * setSimulatedCandidates.
+     */
+    private int numSimulatedCandidates = 1;
+    private int simulatedSteps = NOT_FLOWN;
+
+    /* The families of moves used to improve the tour */
+    private LocalSearch localSearch = LocalSearch.TWO_OPT;
+
+    /*
+     * Whether 2-opt accounts for the edges inside a reversed segment changing
+     * direction. See tryReverse.
+     */
+    private boolean useExactReversalCosts;
+
     /**
      * The constructor of the TourPlanner class. I decided to initialise a
      * TourPlanner instance for a list of nodes to be "sorted", and view the
      * distance matrix that defines the problem as an attribute of the planner, as
      * opposed to e.g. using a static approach.
      * 
+     * Note: The distance matrix is only computed once it is first needed, so that
+     * the planner can still be configured (e.g. via setParallelism) after it has
+     * been initialised.
+     * 
      * @param points the list of points that leads to the Travelling Salesman
      *               Problem
+     * @param world  the world our drones fly in
      */
-    public TourPlanner(List<Point> points) {
-        this.distanceMatrix = computeDistanceMatrix(points);
-        this.numPoints = points.size();
+    public TourPlanner(List<Point> points, FlightWorld world) {
+        this(points, world, points.size());
+    }
+
+    /**
+     * This constructor creates a TourPlanner for a problem whose distance matrix is
+     * already known, so that no drone simulations are needed at all. The last node
+     * is assumed to be the starting/landing point of the drone, as usual.
+     * 
+     * @param distanceMatrix the distance matrix of the Travelling Salesman Problem
+     */
+    public TourPlanner(int[][] distanceMatrix) {
+        this(null, null, distanceMatrix.length);
+        this.distanceMatrix = distanceMatrix;
+    }
+
+    /**
+     * This helper constructor initialises everything that does not depend on how
+     * the distance matrix is obtained.
+     * 
+     * @param points    the list of points that leads to the Travelling Salesman
+     *                  Problem, or null if the distance matrix is given directly
+     * @param world     the world our drones fly in, or null if the distance matrix
+     *                  is given directly
+     * @param numPoints the number of nodes of the tour
+     */
+    private TourPlanner(List<Point> points, FlightWorld world, int numPoints) {
+        this.points = points;
+        this.world = world;
+        this.numPoints = numPoints;
 
         /* Initialise the permutation of nodes to be the identity */
         this.currentPointPermutation = new int[numPoints];
@@ -69,7 +267,49 @@ public class TourPlanner {
      */
     public int[] findShortestTour() {
 
-        applyTwoOptAlgorithm();
+        var startTime = System.nanoTime();
+        hasDeadline = timeBudget != null;
+        if (hasDeadline) {
+            deadline = startTime + timeBudget.toNanos();
+        }
+
+        if (distanceMatrix == null && estimatedDistances) {
+            distanceMatrix = estimateDistanceMatrix();
+        }
+        if (distanceMatrix == null && lazyDistances) {
+            lazyDistanceMatrix = new LazyDistanceMatrix(points, world, (i, j) -> computeDistance(points, i, j));
+            distanceMatrix = lazyDistanceMatrix.getCells();
+        }
+        if (lazyDistanceMatrix == null || needsAllDistances()) {
+            getDistanceMatrix();
+        }
+
+        var random = new SplittableRandom(seed);
+        if (canSolveExactly() && !isPastDeadline()) {
+            var exactSolver = new HeldKarpSolver(distanceMatrix);
+            exactSolver.setMemoryBounded(exactSolverMemoryBounded);
+            currentPointPermutation = exactSolver.solve();
+        } else {
+            var candidateTours = new ArrayList<int[]>();
+            if (numStarts > 1) {
+                candidateTours.addAll(Arrays.asList(searchFromMultipleStarts(random)));
+                currentPointPermutation = selectCheapestTour(candidateTours);
+            } else {
+                improveTour();
+            }
+            if (timeBudget != null) {
+                optimiseWithinTimeBudget(random.split(), startTime);
+            }
+            if (numSimulatedCandidates > 1 && world != null && !isPastDeadline()) {
+                candidateTours.add(0, currentPointPermutation);
+                currentPointPermutation = selectBySimulation(candidateTours);
+            }
+        }
+
+        if (lazyDistanceMatrix != null && pairCostCache != null) {
+            pairCostCache.flush();
+        }
+        hasDeadline = false;
 
         /*
          * Lastly we remove the starting point from the tour since it is implied.
@@ -86,11 +326,47 @@ public class TourPlanner {
         return shortestSensorTourIndices;
     }
 
+    /**
+     * This method returns the distance matrix of this planner, computing it first
+     * if that has not happened yet.
+     * 
+     * @return the distance matrix for the Travelling Salesman Problem we are facing
+     */
+    public int[][] getDistanceMatrix() {
+        if (distanceMatrix == null) {
+            distanceMatrix = computeDistanceMatrix(points);
+        } else if (lazyDistanceMatrix != null) {
+            computeUnknownDistances(points, distanceMatrix);
+            lazyDistanceMatrix = null;
+        }
+        return distanceMatrix;
+    }
+
+    /**
+     * This helper method decides whether finding the tour requires the whole
+     * distance matrix anyway, so that computing it lazily would not save anything.
+     * Only plain 2-opt (and the construction of its initial tours) takes advantage
+     * of the lower bounds of a lazy matrix.
+     * 
+     * @return whether all cells of the distance matrix are needed
+     */
+    private boolean needsAllDistances() {
+        return canSolveExactly() || localSearch != LocalSearch.TWO_OPT || timeBudget != null
+                || numPoints >= neighbourListThreshold;
+    }
+
     /**
      * An instance of the Travelling Salesman Problem can be identified by its
      * distance matrix. This method computes that matrix by simulating how long it
      * will take our main drone to get from each node i to each node j, pairwise.
      * 
+     * Since each of these simulations is independent of all others, they are
+     * distributed across a pool of threads if the parallelism of this planner
+     * allows it. The resulting matrix is identical either way.
+     * 
+     * Pairs whose cost is found in the pair cost cache (if there is one) are not
+     * simulated at all, and the costs of all other pairs are added to it.
+     * 
      * @param points the initial list of nodes, where the last point is assumed to
      *               be the start/end point of the tour
      * 
@@ -100,142 +376,1330 @@ public class TourPlanner {
 
         var numPoints = points.size();
         var distanceMatrix = new int[numPoints][numPoints];
+        for (var row : distanceMatrix) {
+            Arrays.fill(row, LazyDistanceMatrix.UNKNOWN);
+        }
 
-        for (int i = 0; i < numPoints; i++) {
-            for (int j = 0; j < numPoints; j++) {
-                var pointA = points.get(i);
-                var pointB = points.get(j);
+        computeUnknownDistances(points, distanceMatrix);
 
-                /*
-                 * Create a drone which flies from point A to point B. See how many steps it
-                 * needs. That is the relevant distance.
-                 * 
-                 * To this end, we create a mock sensor at point B.
-                 */
-                var w3w = new What3WordsLocation("a.b.c", pointB);
-                var destinationSensor = new Sensor(0.0f, 0.0, w3w);
-                var listContainingDestinationSensor = new ArrayList<Sensor>(Arrays.asList(destinationSensor));
+        return distanceMatrix;
+    }
 
-                var drone = new MainDrone(pointA, listContainingDestinationSensor, false);
+    /**
+     * This helper method estimates the distance matrix without simulating a single
+     * flight. Each cell is the lower bound that a LazyDistanceMatrix would use,
+     * which is based on the shortest way around the no fly zones, and usually
+     * exact - our drones rarely need more steps than that.
+     * 
+     * @return the estimated distance matrix
+     */
+    private int[][] estimateDistanceMatrix() {
+        var estimatedMatrix = new int[numPoints][numPoints];
+        for (var row : estimatedMatrix) {
+            Arrays.fill(row, LazyDistanceMatrix.UNKNOWN);
+        }
+        estimateUnknownDistances(estimatedMatrix);
+        return estimatedMatrix;
+    }
 
-                /*
-                 * If the destination is the last point in our list, it is the starting/landing
-                 * location and requires a different "action range" - the area around the point
-                 * our drone aims at.
-                 */
-                if (j == numPoints - 1) {
-                    drone.setCurrentActionRange(Drone.getMaxLandingDistance());
+    /**
+     * This helper method estimates all cells of the given distance matrix that are
+     * still UNKNOWN, in the same way as estimateDistanceMatrix.
+     * 
+     * @param distanceMatrix the matrix to be filled
+     */
+    private void estimateUnknownDistances(int[][] distanceMatrix) {
+        var lowerBounds = new LazyDistanceMatrix(points, world, (i, j) -> LazyDistanceMatrix.UNKNOWN);
+        for (int i = 0; i < numPoints; i++) {
+            for (int j = 0; j < numPoints; j++) {
+                if (distanceMatrix[i][j] == LazyDistanceMatrix.UNKNOWN) {
+                    distanceMatrix[i][j] = i == j ? 0 : lowerBounds.getLowerBound(i, j);
                 }
+            }
+        }
+    }
 
-                var stepsNeeded = drone.flyToCurrentDestination();
+    /**
+     * This helper method computes all cells of the given distance matrix that are
+     * still UNKNOWN, i.e. all of them for a fresh matrix, or the ones a lazy matrix
+     * did not need so far.
+     * 
+     * Once the deadline of a budgeted search has passed, no more flights are
+     * simulated. The cells that are still UNKNOWN by then are estimated instead,
+     * so that there is a matrix to find a tour on at all.
+     * 
+     * @param points         the initial list of nodes, where the last point is
+     *                       assumed to be the start/end point of the tour
+     * @param distanceMatrix the matrix to be filled
+     */
+    private void computeUnknownDistances(List<Point> points, int[][] distanceMatrix) {
+        var numPoints = points.size();
 
-                /*
-                 * If the two sensors are in fact "in range" of each other, we need to call the
-                 * drone's park method, because two sensors cannot be read on the same turn,
-                 * thus requiring one or two in between moves.
-                 */
-                if (stepsNeeded == 0 && i != j) {
-                    drone.park();
+        if (parallelism <= 1) {
+            for (int i = 0; i < numPoints; i++) {
+                for (int j = 0; j < numPoints; j++) {
+                    if (distanceMatrix[i][j] == LazyDistanceMatrix.UNKNOWN && !isPastDeadline()) {
+                        distanceMatrix[i][j] = computeDistance(points, i, j);
+                    }
                 }
-                distanceMatrix[i][j] = drone.getStepsMade();
             }
+        } else {
+            computeUnknownDistancesInParallel(points, distanceMatrix);
         }
 
-        return distanceMatrix;
+        if (pairCostCache != null) {
+            pairCostCache.flush();
+        }
+        if (isPastDeadline()) {
+            estimateUnknownDistances(distanceMatrix);
+        }
     }
 
     /**
-     * This method applies the 2-opt algorithm to our tour.
-     * 
-     * This algorithm was chosen because it is rather simple, yields decent results
-     * and is very fast (compared to more complex algorithms, such as
-     * Lin-Kernighan).
+     * This helper method computes all UNKNOWN cells of the given distance matrix,
+     * distributing the drone simulations across a pool of threads.
      * 
-     * We consider each pair of indices and see if reverting the path between the
-     * two nodes yields a better cost overall. We stop as soon as no reversion
-     * improves the tour cost.
+     * @param points         the initial list of nodes, where the last point is
+     *                       assumed to be the start/end point of the tour
+     * @param distanceMatrix the matrix to be filled
      */
-    private void applyTwoOptAlgorithm() {
-        var improvedTourOnPreviousLoop = true;
+    private void computeUnknownDistancesInParallel(List<Point> points, int[][] distanceMatrix) {
+        var numPoints = points.size();
 
-        while (improvedTourOnPreviousLoop) {
-            improvedTourOnPreviousLoop = false;
-            for (int j = 0; j < numPoints - 1; j++) {
-                for (int i = 0; i < j; i++) {
-                    if (tryReverse(i, j)) {
-                        improvedTourOnPreviousLoop = true;
+        /*
+         * Each task computes a single entry of the matrix. Entries vary a lot in cost
+         * (depending on how many obstacles are in the way), so this fine granularity
+         * keeps all threads busy until the very end.
+         */
+        var executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            var tasks = new ArrayList<Future<?>>();
+            for (int i = 0; i < numPoints; i++) {
+                for (int j = 0; j < numPoints; j++) {
+                    if (distanceMatrix[i][j] != LazyDistanceMatrix.UNKNOWN) {
+                        continue;
                     }
+                    final int row = i;
+                    final int column = j;
+                    tasks.add(executor.submit(() -> {
+                        if (!isPastDeadline()) {
+                            distanceMatrix[row][column] = computeDistance(points, row, column);
+                        }
+                    }));
                 }
             }
+
+            /* Waiting for all tasks also makes their results visible to this thread */
+            for (var task : tasks) {
+                task.get();
+            }
+        } catch (ExecutionException e) {
+            throw toUncheckedException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while computing the distance matrix.", e);
+        } finally {
+            executor.shutdown();
         }
     }
 
     /**
-     * This method considers the effect of reversing the segment between the points
-     * of our tour that currently have index i and j. If this lowers the tour cost,
-     * commit to the reversal and return true. Otherwise leave the tour unchanged
-     * and return false.
+     * This helper method unwraps the exception that one of our parallel tasks
+     * failed with, so that the caller of the TourPlanner sees the same exception
+     * as if the task had run on its own thread.
      * 
-     * @param i the index at which the attempted reversal starts
-     * @param j the index at which the attempted reversal ends
+     * @param e the exception thrown by Future.get()
      * 
-     * @return whether the reversal leads to a better tour cost
+     * @return the unchecked exception to be thrown by the caller
      */
-    private boolean tryReverse(int i, int j) {
+    private static RuntimeException toUncheckedException(ExecutionException e) {
+        var cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        } else {
+            return new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * This helper method computes a single entry of the distance matrix, by
+     * simulating how many steps our main drone needs to get from node i to node j.
+     * 
+     * @param points the initial list of nodes, where the last point is assumed to
+     *               be the start/end point of the tour
+     * @param i      the index of the node the drone starts at
+     * @param j      the index of the node the drone flies to
+     * 
+     * @return the number of steps the drone needs to get from node i to node j
+     */
+    private int computeDistance(List<Point> points, int i, int j) {
+        var numPoints = points.size();
+        var pointA = points.get(i);
+        var pointB = points.get(j);
 
         /*
-         * Replace the edges from (i-1) to i and j to (j+1) by the ones from (i+1) to j
-         * and i to (j+1). We make the assumption that all other costs stay the same.
+         * If the destination is the last point in our list, it is the starting/landing
+         * location and requires a different "action range" - the area around the point
+         * our drone aims at.
          */
-        var lastOfStart = currentPointPermutation[(i - 1 + numPoints) % numPoints];
-        var firstOfSegment = currentPointPermutation[i];
-        var lastOfSegment = currentPointPermutation[j];
-        var firstOfEnd = currentPointPermutation[(j + 1) % numPoints];
+        var actionRange = j == numPoints - 1 ? Drone.getMaxLandingDistance() : Drone.getMaxReadDistance();
 
-        var oldCost = distanceMatrix[lastOfStart][firstOfSegment] + distanceMatrix[lastOfSegment][firstOfEnd];
-        var newCost = distanceMatrix[lastOfStart][lastOfSegment] + distanceMatrix[firstOfSegment][firstOfEnd];
+        /*
+         * The diagonal is never cached - it is free to compute, and a pair of distinct
+         * nodes at the same position needs a waiting move that the diagonal does not.
+         */
+        if (i != j) {
+            numComputedDistances.incrementAndGet();
+        }
 
-        if (newCost < oldCost) {
-            /* Everything before the reversal stays the same */
-            var unchangedStart = new int[i];
-            for (int k = 0; k < i; k++) {
-                unchangedStart[k] = currentPointPermutation[k];
+        var usePairCostCache = pairCostCache != null && i != j;
+        if (usePairCostCache) {
+            var cachedSteps = pairCostCache.get(world, navigationEngine, pointA, pointB, actionRange);
+            if (cachedSteps != null) {
+                return cachedSteps;
             }
+        }
+
+        /*
+         * Create a drone which flies from point A to point B. See how many steps it
+         * needs. That is the relevant distance.
+         * 
+         * To this end, we create a mock sensor at point B.
+         */
+        var w3w = new What3WordsLocation("a.b.c", pointB);
+        var destinationSensor = new Sensor(0.0f, 0.0, w3w);
+        var listContainingDestinationSensor = new ArrayList<Sensor>(Arrays.asList(destinationSensor));
+
+        var drone = new MainDrone(pointA, listContainingDestinationSensor, world, false);
+        drone.setNavigationEngine(navigationEngine);
+        drone.setCurrentActionRange(actionRange);
 
-            /* The reversed part is reversed */
-            var reversedPart = new int[j - i + 1];
-            for (int k = 0; k < j - i + 1; k++) {
-                reversedPart[k] = currentPointPermutation[j - k];
+        var stepsNeeded = drone.flyToCurrentDestination();
+
+        /*
+         * If the two sensors are in fact "in range" of each other, we need to call the
+         * drone's park method, because two sensors cannot be read on the same turn,
+         * thus requiring one or two in between moves.
+         */
+        if (stepsNeeded == 0 && i != j) {
+            drone.park();
+        }
+
+        if (usePairCostCache) {
+            pairCostCache.put(world, navigationEngine, pointA, pointB, actionRange, drone.getStepsMade());
+        }
+        return drone.getStepsMade();
+    }
+
+    /**
+     * This method decides whether the tour is small enough to be solved exactly,
+     * i.e. whether it is below the threshold of this planner and the exact solver
+     * would use at most half of the memory available to the JVM.
+     * 
+     * @return whether the HeldKarpSolver is used to find the tour
+     */
+    private boolean canSolveExactly() {
+        if (numPoints > exactSolverThreshold) {
+            return false;
+        }
+        var memoryBytes = HeldKarpSolver.estimateMemoryBytes(numPoints, exactSolverMemoryBounded);
+        return memoryBytes <= Runtime.getRuntime().maxMemory() / 2;
+    }
+
+    /**
+     * This method runs the local search of this planner from several initial tours,
+     * and returns the tours found from all of them. The first initial tour is
+     * the current one (i.e. the one a single local search starts from), all others
+     * are randomised nearest neighbour tours.
+     * 
+     * The searches are independent of each other, so they are distributed across a
+     * pool of threads if the parallelism of this planner allows it. Each initial
+     * tour is built from its own random generator, split off the seed before any
+     * search starts, and ties between equally short tours are broken in favour of
+     * the earlier start. So the result only depends on the seed and the number of
+     * starts, not on the number of threads or how they are scheduled.
+     * 
+     * The exception is a budgeted search: Once its deadline has passed, no further
+     * randomised starts are searched from. The first start always is, since there
+     * would be no tour at all without it.
+     * 
+     * @param random the random generator the initial tours are split off
+     * 
+     * @return the improved permutation of nodes of each start that was searched
+     *         from, in the order of the starts
+     */
+    private int[][] searchFromMultipleStarts(SplittableRandom random) {
+        /* The first start does not need a random generator */
+        var randomOfStarts = new ArrayList<SplittableRandom>();
+        randomOfStarts.add(null);
+        for (int k = 1; k < numStarts; k++) {
+            randomOfStarts.add(random.split());
+        }
+
+        var improvedTours = new int[numStarts][];
+        if (parallelism <= 1) {
+            for (int k = 0; k < numStarts; k++) {
+                improvedTours[k] = searchFromStart(randomOfStarts.get(k));
+            }
+        } else {
+            var executor = Executors.newFixedThreadPool(Math.min(parallelism, numStarts));
+            try {
+                var tasks = new ArrayList<Future<int[]>>();
+                for (var randomOfStart : randomOfStarts) {
+                    tasks.add(executor.submit(() -> searchFromStart(randomOfStart)));
+                }
+                for (int k = 0; k < numStarts; k++) {
+                    improvedTours[k] = tasks.get(k).get();
+                }
+            } catch (ExecutionException e) {
+                throw toUncheckedException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while searching from multiple starts.", e);
+            } finally {
+                executor.shutdown();
             }
+        }
 
-            /* Everything after the reversal stays the same */
-            var unchangedEnd = new int[numPoints - j - 1];
-            for (int k = 0; k < numPoints - j - 1; k++) {
-                unchangedEnd[k] = currentPointPermutation[j + 1 + k];
+        return Arrays.stream(improvedTours).filter(Objects::nonNull).toArray(int[][]::new);
+    }
+
+    /**
+     * This helper method returns the tour with the lowest cost according to the
+     * distance matrix, breaking ties in favour of the earlier tour.
+     * 
+     * @param tours the permutations of nodes to choose from
+     * 
+     * @return the cheapest permutation of nodes
+     */
+    private int[] selectCheapestTour(List<int[]> tours) {
+        var bestTour = tours.get(0);
+        var bestCost = computeTourCost(bestTour);
+        for (var tour : tours) {
+            var cost = computeTourCost(tour);
+            if (cost < bestCost) {
+                bestTour = tour;
+                bestCost = cost;
             }
+        }
+        return bestTour;
+    }
 
-            /* The new tour consists of the 3 parts we just defined, glued to one another */
-            var newTour = new int[numPoints];
-            for (int k = 0; k < i; k++) {
-                newTour[k] = unchangedStart[k];
+    /**
+     * The cost of a tour according to the distance matrix is only an estimate of
+     * the number of steps the main drone actually needs. Each cell is simulated
+     * from the exact position of a sensor, but in the real flight, the drone starts
+     * each leg from wherever it ended up within range of the previous sensor. So
+     * of two tours with (nearly) the same cost, either may turn out to be shorter.
+     * 
+     * This method settles that by letting a MainDrone fly the cheapest few of the
+     * given tours in full, exactly like App does, and returns the one that needs
+     * the fewest steps. Duplicate tours are only flown once, and if all tours are
+     * the same, none is flown at all. Since the first tour is always among those
+     * flown, the result is never longer than it.
+     * 
+     * The flights are independent of each other, so they are distributed across a
+     * pool of threads if the parallelism of this planner allows it. Each thread
+     * flies all of its tours with the same drone, which is sent back to the start
+     * before each of them (see MainDrone.restartTour). Ties are broken
+     * in favour of the cheaper tour according to the matrix, and then the earlier
+     * one, so the result does not depend on the number of threads.
+     * 
+     * In a budgeted search, tours are no longer flown once the deadline has
+     * passed, and are not chosen.
+     * 
+     * @param candidateTours the permutations of nodes to choose from, where the
+     *                       first one is the best tour found by the local search
+     * 
+     * @return the permutation of nodes that needs the fewest steps
+     */
+    private int[] selectBySimulation(List<int[]> candidateTours) {
+        var distinctTours = new ArrayList<int[]>();
+        for (var tour : candidateTours) {
+            if (distinctTours.stream().noneMatch(distinctTour -> Arrays.equals(distinctTour, tour))) {
+                distinctTours.add(tour);
             }
-            for (int k = 0; k < j - i + 1; k++) {
-                newTour[i + k] = reversedPart[k];
+        }
+        if (distinctTours.size() == 1) {
+            return distinctTours.get(0);
+        }
+        var tourCosts = new int[distinctTours.size()];
+        for (int k = 0; k < tourCosts.length; k++) {
+            tourCosts[k] = computeTourCost(distinctTours.get(k));
+        }
+        var order = new ArrayList<Integer>();
+        for (int k = 0; k < tourCosts.length; k++) {
+            order.add(k);
+        }
+        /* Stable sorting keeps the first tour first, as no tour is cheaper than it */
+        order.sort((a, b) -> Integer.compare(tourCosts[a], tourCosts[b]));
+        var flownTours = new ArrayList<int[]>();
+        for (int k = 0; k < Math.min(numSimulatedCandidates, order.size()); k++) {
+            flownTours.add(distinctTours.get(order.get(k)));
+        }
+
+        var mockSensors = new Sensor[numPoints];
+        for (int node = 0; node < numPoints - 1; node++) {
+            mockSensors[node] = new Sensor(0.0f, 0.0, new What3WordsLocation("a.b.c", points.get(node)));
+        }
+        var dronesOfThreads = new ThreadLocal<MainDrone>();
+
+        var stepsOfTours = new int[flownTours.size()];
+        if (parallelism <= 1) {
+            for (int k = 0; k < flownTours.size(); k++) {
+                stepsOfTours[k] = isPastDeadline() ? NOT_FLOWN
+                        : simulateTour(flownTours.get(k), mockSensors, dronesOfThreads);
             }
-            for (int k = 0; k < numPoints - j - 1; k++) {
-                newTour[j + 1 + k] = unchangedEnd[k];
+        } else {
+            var executor = Executors.newFixedThreadPool(Math.min(parallelism, flownTours.size()));
+            try {
+                var tasks = new ArrayList<Future<Integer>>();
+                for (var tour : flownTours) {
+                    tasks.add(executor.submit(
+                            () -> isPastDeadline() ? NOT_FLOWN : simulateTour(tour, mockSensors, dronesOfThreads)));
+                }
+                for (int k = 0; k < flownTours.size(); k++) {
+                    stepsOfTours[k] = tasks.get(k).get();
+                }
+            } catch (ExecutionException e) {
+                throw toUncheckedException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while flying the candidate tours.", e);
+            } finally {
+                executor.shutdown();
             }
+        }
 
-            currentPointPermutation = newTour;
-            return true;
-        } else {
-            /*
-             * If reversing the specified part would not increase the cost, we don't have to
-             * bother changing anything.
-             */
-            return false;
+        /* If the first tour was not flown, there is nothing to compare the others with */
+        var bestIndex = 0;
+        for (int k = 1; k < flownTours.size() && stepsOfTours[0] != NOT_FLOWN; k++) {
+            if (stepsOfTours[k] != NOT_FLOWN && stepsOfTours[k] < stepsOfTours[bestIndex]) {
+                bestIndex = k;
+            }
         }
+        simulatedSteps = stepsOfTours[bestIndex];
+        return flownTours.get(bestIndex);
+    }
 
+    /**
+     * This helper method lets a MainDrone fly the given tour, reading a mock
+     * sensor at each node, and counts its steps. The drone of the current thread
+     * is reused if it has one, and created otherwise.
+     * 
+     * @param permutation     the permutation of nodes to be flown
+     * @param mockSensors     the mock sensor at each node but the starting point
+     * @param dronesOfThreads the drone each thread flies its tours with
+     * 
+     * @return the number of steps the drone needs, or Integer.MAX_VALUE if it
+     *         crashes on the way
+     */
+    private int simulateTour(int[] permutation, Sensor[] mockSensors, ThreadLocal<MainDrone> dronesOfThreads) {
+        var tour = new ArrayList<Sensor>(numPoints - 1);
+        for (var node : permutation) {
+            if (node != numPoints - 1) {
+                tour.add(mockSensors[node]);
+            }
+        }
+        var drone = dronesOfThreads.get();
+        if (drone == null) {
+            drone = new MainDrone(points.get(numPoints - 1), tour, world, false);
+            drone.setNavigationEngine(navigationEngine);
+            dronesOfThreads.set(drone);
+        } else {
+            drone.restartTour(tour);
+        }
+        drone.completeTour();
+        return drone.hasCrashed() ? Integer.MAX_VALUE : drone.getStepsMade();
+    }
+
+    /**
+     * This helper method builds one of the initial tours of a multi-start search
+     * and improves it.
+     * 
+     * @param random the random generator used to build the initial tour, or null
+     *               if the search starts from the current tour
+     * 
+     * @return the improved permutation of nodes, or null if the initial tour is a
+     *         randomised one and the deadline has already passed
+     */
+    private int[] searchFromStart(SplittableRandom random) {
+        if (random != null && isPastDeadline()) {
+            return null;
+        }
+        var initialTour = random == null ? currentPointPermutation.clone() : buildRandomisedTour(random);
+        return improveIndependently(initialTour);
+    }
+
+    /**
+     * This method keeps improving our tour until the time budget of this planner
+     * has been used up, using iterated local search. In each iteration, the best
+     * tour found so far is perturbed by a random double bridge move, which cuts it
+     * into four parts A B C D and reconnects them as A C B D. This is a 3-opt move
+     * that 2-opt and Or-opt cannot easily undo, so the local search that follows
+     * usually ends up in a different local optimum. If that is at least as short
+     * as the best tour, it becomes the new best tour.
+     * 
+     * Unlike everything else in this planner, the result depends on how fast the
+     * machine is - the faster it is, the more iterations fit into the budget.
+     * 
+     * @param random    the random generator used for the perturbations
+     * @param startTime the time at which the planning started, as given by
+     *                  System.nanoTime
+     */
+    private void optimiseWithinTimeBudget(SplittableRandom random, long startTime) {
+        var bestCost = computeTourCost(currentPointPermutation);
+        var numIterations = 0L;
+        notifyProgressListeners(bestCost, numIterations, startTime);
+
+        /* A double bridge move needs four non-empty parts of the tour */
+        var numSensors = numPoints - 1;
+        if (numSensors < 4) {
+            return;
+        }
+
+        while (!isPastDeadline()) {
+            numIterations++;
+
+            /* The cutting points 0 < p1 < p2 < p3 < numSensors, chosen at random */
+            var p1 = 1 + random.nextInt(numSensors - 3);
+            var p2 = p1 + 1 + random.nextInt(numSensors - p1 - 2);
+            var p3 = p2 + 1 + random.nextInt(numSensors - p2 - 1);
+
+            var perturbedTour = currentPointPermutation.clone();
+            exchangeSegments(perturbedTour, p1, p2, p3 - 1);
+            var improvedTour = improveIndependently(perturbedTour);
+
+            var cost = computeTourCost(improvedTour);
+            if (cost <= bestCost) {
+                currentPointPermutation = improvedTour;
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    notifyProgressListeners(bestCost, numIterations, startTime);
+                }
+            }
+        }
+    }
+
+    /**
+     * This helper method informs all progress listeners of the current best tour.
+     * 
+     * @param bestCost      the cost of the best tour found so far
+     * @param numIterations the number of perturbations tried so far
+     * @param startTime     the time at which the planning started, as given by
+     *                      System.nanoTime
+     */
+    private void notifyProgressListeners(int bestCost, long numIterations, long startTime) {
+        var elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
+        for (var listener : progressListeners) {
+            listener.onImprovement(bestCost, numIterations, elapsedMillis);
+        }
+    }
+
+    /**
+     * This helper method decides whether the time budget of the running search has
+     * been used up. Without a budget, that is never the case.
+     * 
+     * @return whether the deadline of the running search has passed
+     */
+    private boolean isPastDeadline() {
+        return hasDeadline && System.nanoTime() - deadline >= 0;
+    }
+
+    /**
+     * This helper method improves the given tour with the local search of this
+     * planner, without touching the state of this planner. That is done by a
+     * second planner for the same distance matrix, so that many of them can run at
+     * the same time.
+     * 
+     * @param initialTour the permutation of nodes the search starts from
+     * 
+     * @return the improved permutation of nodes
+     */
+    private int[] improveIndependently(int[] initialTour) {
+        var planner = new TourPlanner(distanceMatrix);
+        planner.localSearch = localSearch;
+        planner.neighbourListThreshold = neighbourListThreshold;
+        planner.numNeighbours = numNeighbours;
+        planner.lazyDistanceMatrix = lazyDistanceMatrix;
+        planner.currentPointPermutation = initialTour;
+        planner.improveTour();
+        return planner.currentPointPermutation;
+    }
+
+    /**
+     * This helper method builds a randomised nearest neighbour tour. Starting at
+     * the starting point, the drone repeatedly flies to one of the few closest
+     * nodes it has not visited yet, chosen at random.
+     * 
+     * @param random the random generator used for the choices
+     * 
+     * @return the permutation of nodes, the starting point being the last one
+     */
+    private int[] buildRandomisedTour(SplittableRandom random) {
+        var tour = new int[numPoints];
+        var visited = new boolean[numPoints];
+        var current = numPoints - 1;
+        visited[current] = true;
+        tour[numPoints - 1] = current;
+
+        /*
+         * The closest unvisited nodes are kept in a small sorted array. Like the
+         * neighbour lists, they are compared by cost and then by index, packed into a
+         * single long.
+         */
+        var candidateKeys = new long[NUM_RANDOMISED_CANDIDATES];
+        for (int position = 0; position < numPoints - 1; position++) {
+            /*
+             * With a lazy matrix, we look at the nodes in the order of their lower bounds,
+             * and stop as soon as not even the bound can compete with the candidates.
+             */
+            var columnOrder = lazyDistanceMatrix != null ? lazyDistanceMatrix.getColumnsByLowerBound(current) : null;
+            var numCandidates = 0;
+            for (int column = 0; column < numPoints; column++) {
+                var node = columnOrder != null ? columnOrder[column] : column;
+                if (node == numPoints - 1 || visited[node]) {
+                    continue;
+                }
+                if (numCandidates == NUM_RANDOMISED_CANDIDATES && columnOrder != null
+                        && (((long) getLowerBound(current, node) << 32) | node) >= candidateKeys[numCandidates - 1]) {
+                    break;
+                }
+                var key = ((long) getDistance(current, node) << 32) | node;
+                if (numCandidates == NUM_RANDOMISED_CANDIDATES && key >= candidateKeys[numCandidates - 1]) {
+                    continue;
+                }
+                var k = numCandidates < NUM_RANDOMISED_CANDIDATES ? numCandidates++ : numCandidates - 1;
+                while (k > 0 && candidateKeys[k - 1] > key) {
+                    candidateKeys[k] = candidateKeys[k - 1];
+                    k--;
+                }
+                candidateKeys[k] = key;
+            }
+
+            current = (int) candidateKeys[random.nextInt(numCandidates)];
+            visited[current] = true;
+            tour[position] = current;
+        }
+
+        return tour;
+    }
+
+    /**
+     * This helper method computes the cost of a complete tour, including the edges
+     * from and to the starting point.
+     * 
+     * @param permutation the permutation of nodes that defines the tour
+     * 
+     * @return the sum of the distances along the tour
+     */
+    private int computeTourCost(int[] permutation) {
+        var cost = 0;
+        for (int k = 0; k < numPoints; k++) {
+            cost += getDistance(permutation[k], permutation[(k + 1) % numPoints]);
+        }
+        return cost;
+    }
+
+    /**
+     * This helper method returns an entry of the distance matrix, computing it
+     * first if the matrix is lazy and the entry is not known yet.
+     * 
+     * @param i the index of the node the drone starts at
+     * @param j the index of the node the drone flies to
+     * 
+     * @return the number of steps the drone needs to get from node i to node j
+     */
+    private int getDistance(int i, int j) {
+        var distance = distanceMatrix[i][j];
+        return distance != LazyDistanceMatrix.UNKNOWN ? distance : lazyDistanceMatrix.get(i, j);
+    }
+
+    /**
+     * This helper method returns a lower bound on an entry of the distance matrix,
+     * without computing it. Unless the matrix is lazy, that is the entry itself.
+     * 
+     * @param i the index of the node the drone starts at
+     * @param j the index of the node the drone flies to
+     * 
+     * @return a number of steps that is at most the entry
+     */
+    private int getLowerBound(int i, int j) {
+        return lazyDistanceMatrix != null ? lazyDistanceMatrix.getLowerBound(i, j) : distanceMatrix[i][j];
+    }
+
+    /**
+     * This method improves our tour using the moves of the local search of this
+     * planner, until none of them lowers the tour cost any more.
+     * 
+     * 2-opt is always applied first, since it is by far the cheapest. Whenever one
+     * of the other moves improves the tour, we go back to 2-opt, as the changed
+     * tour may well allow for new reversals.
+     */
+    private void improveTour() {
+        useExactReversalCosts = false;
+        applyTwoOptAlgorithm();
+
+        /*
+         * From here on, every move lowers the exact tour cost, so we never end up with
+         * a longer tour than plain 2-opt finds.
+         */
+        useExactReversalCosts = true;
+        var improvedTour = localSearch != LocalSearch.TWO_OPT;
+        while (improvedTour) {
+            improvedTour = tryOrOptMove();
+            if (!improvedTour && localSearch == LocalSearch.THREE_OPT) {
+                improvedTour = trySegmentExchange();
+            }
+            if (improvedTour) {
+                applyTwoOptAlgorithm();
+            }
+        }
+    }
+
+    /**
+     * This method applies the 2-opt algorithm to our tour.
+     * 
+     * This algorithm was chosen because it is rather simple, yields decent results
+     * and is very fast (compared to more complex algorithms, such as
+     * Lin-Kernighan).
+     * 
+     * We consider each pair of indices and see if reverting the path between the
+     * two nodes yields a better cost overall. We stop as soon as no reversion
+     * improves the tour cost.
+     * 
+     * Note: Large tours are handed over to applyTwoOptWithNeighbourLists, since
+     * considering every pair of indices on every pass becomes too slow for them.
+     */
+    private void applyTwoOptAlgorithm() {
+        if (numPoints >= neighbourListThreshold) {
+            applyTwoOptWithNeighbourLists();
+            return;
+        }
+
+        var improvedTourOnPreviousLoop = true;
+
+        while (improvedTourOnPreviousLoop) {
+            improvedTourOnPreviousLoop = false;
+            for (int j = 0; j < numPoints - 1; j++) {
+                for (int i = 0; i < j; i++) {
+                    if (tryReverse(i, j)) {
+                        improvedTourOnPreviousLoop = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * This method applies the 2-opt algorithm to our tour, in a way that scales to
+     * hundreds or thousands of nodes.
+     * 
+     * A reversal replaces the edges a-b and c-e by a-c and b-e. If this lowers the
+     * cost, one of the new edges must be cheaper than the old edge that shares its
+     * first (a-c vs a-b) or its last node (b-e vs c-e). So for each node, we only
+     * need to look at its closest neighbours, and only until they get more
+     * expensive than the edge we would remove.
+     * 
+     * On top of that, we keep a queue of "active" nodes. A node that does not lead
+     * to an improvement has its don't-look bit set (i.e. leaves the queue) and is
+     * only looked at again once one of its edges has changed. Since our distances
+     * are not symmetric, that includes every node of a reversed segment, whose
+     * edges now point the other way.
+     */
+    private void applyTwoOptWithNeighbourLists() {
+        var outgoingNeighbours = computeNeighbourLists(true);
+        var incomingNeighbours = computeNeighbourLists(false);
+
+        positionOfNode = new int[numPoints];
+        for (int k = 0; k < numPoints; k++) {
+            positionOfNode[currentPointPermutation[k]] = k;
+        }
+
+        /* Initially, every node is active */
+        var activeNodes = new ArrayDeque<Integer>();
+        var isActive = new boolean[numPoints];
+        for (int k = 0; k < numPoints; k++) {
+            activeNodes.add(currentPointPermutation[k]);
+            isActive[currentPointPermutation[k]] = true;
+        }
+
+        while (!activeNodes.isEmpty()) {
+            var node = activeNodes.poll();
+            isActive[node] = false;
+
+            var reversedSegment = tryImprovingAround(node, outgoingNeighbours[node], incomingNeighbours[node]);
+            if (reversedSegment != null) {
+                /* The nodes of the segment, as well as the ones just before and after it */
+                for (int k = reversedSegment[0] - 1; k <= reversedSegment[1] + 1; k++) {
+                    var changedNode = currentPointPermutation[(k + numPoints) % numPoints];
+                    if (!isActive[changedNode]) {
+                        activeNodes.add(changedNode);
+                        isActive[changedNode] = true;
+                    }
+                }
+            }
+        }
+
+        positionOfNode = null;
+    }
+
+    /**
+     * This helper method looks for a reversal that lowers the tour cost and removes
+     * one of the two edges of the given node, committing to the first one it
+     * finds.
+     * 
+     * @param node               the node in question
+     * @param outgoingNeighbours the nodes closest to the node in question, by the
+     *                           cost of the edge from it to them
+     * @param incomingNeighbours the nodes closest to the node in question, by the
+     *                           cost of the edge from them to it
+     * 
+     * @return the first and last index of the segment that was reversed, or null
+     *         if no improvement was found
+     */
+    private int[] tryImprovingAround(int node, int[] outgoingNeighbours, int[] incomingNeighbours) {
+        var position = positionOfNode[node];
+
+        /*
+         * The node as the last one before the reversed segment, i.e. node a. Note that
+         * the start/end point, which is always at the last position, is followed by
+         * the node at position 0.
+         */
+        var i = (position + 1) % numPoints;
+        var firstOfSegment = currentPointPermutation[i];
+        var removedCost = distanceMatrix[node][firstOfSegment];
+        for (var lastOfSegment : outgoingNeighbours) {
+            if (distanceMatrix[node][lastOfSegment] >= removedCost) {
+                break;
+            }
+            var j = positionOfNode[lastOfSegment];
+            if (i < j && j < numPoints - 1 && tryReverse(i, j)) {
+                return new int[] { i, j };
+            }
+        }
+
+        /* The node as the first one after the reversed segment, i.e. node e */
+        var j = position - 1;
+        if (j >= 1) {
+            var lastOfSegment = currentPointPermutation[j];
+            removedCost = distanceMatrix[lastOfSegment][node];
+            for (var firstOfSegmentCandidate : incomingNeighbours) {
+                if (distanceMatrix[firstOfSegmentCandidate][node] >= removedCost) {
+                    break;
+                }
+                var candidateI = positionOfNode[firstOfSegmentCandidate];
+                if (candidateI < j && tryReverse(candidateI, j)) {
+                    return new int[] { candidateI, j };
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * This helper method computes, for each node, the nodes that are closest to it
+     * - either by the cost of getting from the node to them, or from them to the
+     * node (our distances are not symmetric).
+     * 
+     * @param outgoing whether to sort by the cost of the edges leaving the node,
+     *                 rather than those entering it
+     * 
+     * @return for each node, its closest neighbours, closest first
+     */
+    private int[][] computeNeighbourLists(boolean outgoing) {
+        var listLength = Math.min(numNeighbours, numPoints - 1);
+        var neighbourLists = new int[numPoints][listLength];
+
+        /*
+         * We pack cost and index of a node into a single long, so that comparing two
+         * of them compares their costs first. For each node, the closest nodes seen so
+         * far are kept in a small sorted array, so that we never need to sort all
+         * other nodes.
+         */
+        var closestKeys = new long[listLength];
+        for (int node = 0; node < numPoints; node++) {
+            var numKeys = 0;
+            for (int other = 0; other < numPoints; other++) {
+                if (other == node) {
+                    continue;
+                }
+                var cost = outgoing ? distanceMatrix[node][other] : distanceMatrix[other][node];
+                var key = ((long) cost << 32) | other;
+                if (numKeys == listLength && key >= closestKeys[listLength - 1]) {
+                    continue;
+                }
+
+                /* Insert the key at its place, dropping the last one if the array is full */
+                var k = numKeys < listLength ? numKeys++ : listLength - 1;
+                while (k > 0 && closestKeys[k - 1] > key) {
+                    closestKeys[k] = closestKeys[k - 1];
+                    k--;
+                }
+                closestKeys[k] = key;
+            }
+            for (int k = 0; k < listLength; k++) {
+                neighbourLists[node][k] = (int) closestKeys[k];
+            }
+        }
+
+        return neighbourLists;
+    }
+
+    /**
+     * This method looks for an Or-opt move that lowers the tour cost, and commits to
+     * the first one it finds. An Or-opt move takes up to three consecutive nodes
+     * out of the tour and inserts them between two other consecutive nodes, either
+     * in their current order or reversed.
+     * 
+     * Since our distances are not symmetric, reversing the relocated nodes changes
+     * the cost of the edges between them as well, which we take into account.
+     * 
+     * @return whether the tour was improved
+     */
+    private boolean tryOrOptMove() {
+        for (int length = 1; length <= MAX_OR_OPT_SEGMENT_LENGTH; length++) {
+            /* The start/end point at the last index is never moved */
+            for (int s = 0; s + length - 1 < numPoints - 1; s++) {
+                var e = s + length - 1;
+                var beforeSegment = currentPointPermutation[(s - 1 + numPoints) % numPoints];
+                var firstOfSegment = currentPointPermutation[s];
+                var lastOfSegment = currentPointPermutation[e];
+                var afterSegment = currentPointPermutation[e + 1];
+
+                /* What we save by closing the gap the segment leaves behind */
+                var removalGain = distanceMatrix[beforeSegment][firstOfSegment]
+                        + distanceMatrix[lastOfSegment][afterSegment] - distanceMatrix[beforeSegment][afterSegment];
+
+                /* How much more the segment itself costs if it is reversed */
+                var reversalCost = 0;
+                for (int k = s; k < e; k++) {
+                    reversalCost += distanceMatrix[currentPointPermutation[k + 1]][currentPointPermutation[k]]
+                            - distanceMatrix[currentPointPermutation[k]][currentPointPermutation[k + 1]];
+                }
+
+                /*
+                 * Gap g lies between index g-1 and g. The gaps from s to e+1 are next to or
+                 * inside the segment itself.
+                 */
+                for (int g = 0; g < numPoints; g++) {
+                    if (g >= s && g <= e + 1) {
+                        continue;
+                    }
+                    var beforeGap = currentPointPermutation[(g - 1 + numPoints) % numPoints];
+                    var afterGap = currentPointPermutation[g];
+                    var closedEdgeCost = distanceMatrix[beforeGap][afterGap];
+
+                    var insertionCost = distanceMatrix[beforeGap][firstOfSegment]
+                            + distanceMatrix[lastOfSegment][afterGap] - closedEdgeCost;
+                    var reversedInsertionCost = distanceMatrix[beforeGap][lastOfSegment]
+                            + distanceMatrix[firstOfSegment][afterGap] - closedEdgeCost + reversalCost;
+
+                    if (insertionCost < removalGain) {
+                        moveSegment(s, e, g);
+                        return true;
+                    }
+                    if (length > 1 && reversedInsertionCost < removalGain) {
+                        reverseSegment(s, e);
+                        moveSegment(s, e, g);
+                        return true;
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * This method looks for a pure 3-opt move that lowers the tour cost, and
+     * commits to the first one it finds. Such a move swaps two adjacent parts of
+     * the tour, i.e. it replaces the edges a-b, c-d and e-f of the tour
+     * a-b...c-d...e-f by a-d, e-b and c-f, giving a-d...e-b...c-f.
+     * 
+     * This is the only way of reconnecting the tour after removing three edges that
+     * does not reverse any part of it, which makes it particularly useful for our
+     * asymmetric distances. It generalises the Or-opt move to parts of any length,
+     * but there are cubically many of these moves, so it is only suitable for
+     * tours of the size of a day's sensors.
+     * 
+     * @return whether the tour was improved
+     */
+    private boolean trySegmentExchange() {
+        for (int i = 0; i < numPoints - 1; i++) {
+            var a = currentPointPermutation[(i - 1 + numPoints) % numPoints];
+            var b = currentPointPermutation[i];
+            for (int j = i + 1; j < numPoints - 1; j++) {
+                var c = currentPointPermutation[j - 1];
+                var d = currentPointPermutation[j];
+                var partialOldCost = distanceMatrix[a][b] + distanceMatrix[c][d];
+                for (int k = j; k < numPoints - 1; k++) {
+                    var e = currentPointPermutation[k];
+                    var f = currentPointPermutation[k + 1];
+
+                    var oldCost = partialOldCost + distanceMatrix[e][f];
+                    var newCost = distanceMatrix[a][d] + distanceMatrix[e][b] + distanceMatrix[c][f];
+                    if (newCost < oldCost) {
+                        exchangeSegments(currentPointPermutation, i, j, k);
+                        return true;
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * This helper method moves the part of our tour between index s and e (both
+     * inclusive) into the gap in front of index g, keeping its order.
+     * 
+     * @param s the index at which the moved part starts
+     * @param e the index at which the moved part ends
+     * @param g the index the moved part is inserted in front of, which must not lie
+     *          between s and e+1
+     */
+    private void moveSegment(int s, int e, int g) {
+        if (g < s) {
+            exchangeSegments(currentPointPermutation, g, s, e);
+        } else {
+            exchangeSegments(currentPointPermutation, s, e + 1, g - 1);
+        }
+    }
+
+    /**
+     * This helper method swaps the two adjacent parts of a tour from index i to j-1
+     * and from index j to k.
+     * 
+     * @param permutation the permutation of nodes that defines the tour
+     * @param i           the index at which the first part starts
+     * @param j           the index at which the second part starts
+     * @param k           the index at which the second part ends
+     */
+    private static void exchangeSegments(int[] permutation, int i, int j, int k) {
+        var firstPart = Arrays.copyOfRange(permutation, i, j);
+        System.arraycopy(permutation, j, permutation, i, k - j + 1);
+        System.arraycopy(firstPart, 0, permutation, i + k - j + 1, firstPart.length);
+    }
+
+    /**
+     * This method considers the effect of reversing the segment between the points
+     * of our tour that currently have index i and j. If this lowers the tour cost,
+     * commit to the reversal and return true. Otherwise leave the tour unchanged
+     * and return false.
+     * 
+     * @param i the index at which the attempted reversal starts
+     * @param j the index at which the attempted reversal ends
+     * 
+     * @return whether the reversal leads to a better tour cost
+     */
+    private boolean tryReverse(int i, int j) {
+
+        /*
+         * Replace the edges from (i-1) to i and j to (j+1) by the ones from (i+1) to j
+         * and i to (j+1). We make the assumption that all other costs stay the same.
+         */
+        var lastOfStart = currentPointPermutation[(i - 1 + numPoints) % numPoints];
+        var firstOfSegment = currentPointPermutation[i];
+        var lastOfSegment = currentPointPermutation[j];
+        var firstOfEnd = currentPointPermutation[(j + 1) % numPoints];
+
+        var oldCost = getDistance(lastOfStart, firstOfSegment) + getDistance(lastOfSegment, firstOfEnd);
+
+        /*
+         * If the distance matrix is lazy, the new edges are only computed if their
+         * lower bounds leave room for an improvement. Either way, we come to the same
+         * decision.
+         */
+        if (!useExactReversalCosts
+                && getLowerBound(lastOfStart, lastOfSegment) + getLowerBound(firstOfSegment, firstOfEnd) >= oldCost) {
+            return false;
+        }
+        var newCost = getDistance(lastOfStart, lastOfSegment) + getDistance(firstOfSegment, firstOfEnd);
+
+        /*
+         * That assumption does not hold for our asymmetric distances, since the edges
+         * inside the segment are traversed the other way round afterwards. Once 2-opt
+         * is mixed with moves that use exact costs, we have to use them as well - or
+         * the two could go round in circles, each undoing what the other did.
+         */
+        if (useExactReversalCosts) {
+            for (int k = i; k < j; k++) {
+                newCost += distanceMatrix[currentPointPermutation[k + 1]][currentPointPermutation[k]];
+                oldCost += distanceMatrix[currentPointPermutation[k]][currentPointPermutation[k + 1]];
+            }
+        }
+
+        if (newCost < oldCost) {
+            reverseSegment(i, j);
+            return true;
+        } else {
+            /*
+             * If reversing the specified part would not increase the cost, we don't have to
+             * bother changing anything.
+             */
+            return false;
+        }
+
+    }
+
+    /**
+     * This helper method reverses the part of our tour between index i and j (both
+     * inclusive) in place, by swapping its ends until they meet in the middle.
+     * 
+     * @param i the index at which the reversal starts
+     * @param j the index at which the reversal ends
+     */
+    private void reverseSegment(int i, int j) {
+        while (i < j) {
+            var temp = currentPointPermutation[i];
+            currentPointPermutation[i] = currentPointPermutation[j];
+            currentPointPermutation[j] = temp;
+
+            if (positionOfNode != null) {
+                positionOfNode[currentPointPermutation[i]] = i;
+                positionOfNode[currentPointPermutation[j]] = j;
+            }
+
+            i++;
+            j--;
+        }
+    }
+
+    /**
+     * Sets the number of threads used to compute the distance matrix. Only has an
+     * effect if the matrix has not been computed yet.
+     * 
+     * @param parallelism the number of threads, where 1 means sequential
+     *                    computation on the calling thread
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Sets the cache that is consulted before simulating the cost of a pair of
+     * points, and that new costs are added to. Only has an effect if the matrix has
+     * not been computed yet.
+     * 
+     * @param pairCostCache the cache, or null if every pair should be simulated
+     */
+    public void setPairCostCache(PairCostCache pairCostCache) {
+        this.pairCostCache = pairCostCache;
+    }
+
+    /**
+     * Sets the way the drones we use to measure distances find their way. This
+     * should be the same as that of the main drone which flies the tour in the end.
+     * Only has an effect if the matrix has not been computed yet.
+     * 
+     * @param navigationEngine the navigation engine of the drones
+     */
+    public void setNavigationEngine(NavigationEngine navigationEngine) {
+        this.navigationEngine = navigationEngine;
+    }
+
+    /**
+     * Sets the number of nodes (including the starting point) up to which tours are
+     * solved exactly, rather than improved by a local search. A value of 0 means
+     * that the local search is always used.
+     * 
+     * @param exactSolverThreshold the largest number of nodes solved exactly
+     */
+    public void setExactSolverThreshold(int exactSolverThreshold) {
+        this.exactSolverThreshold = exactSolverThreshold;
+    }
+
+    /**
+     * Sets whether the exact solver uses its memory-bounded variant, which needs
+     * less memory but more time.
+     * 
+     * @param exactSolverMemoryBounded whether to use the memory-bounded variant
+     */
+    public void setExactSolverMemoryBounded(boolean exactSolverMemoryBounded) {
+        this.exactSolverMemoryBounded = exactSolverMemoryBounded;
+    }
+
+    /**
+     * Makes this planner start its local search from several initial tours, rather
+     * than just one, and keep the best tour it finds. The tour found for a given
+     * seed is always the same, no matter how many threads are used.
+     * 
+     * @param numStarts the number of initial tours, where 1 means that only the
+     *                  current tour is improved
+     * @param seed      the seed the randomised initial tours are built from
+     */
+    public void setMultiStart(int numStarts, long seed) {
+        this.numStarts = Math.max(1, numStarts);
+        this.seed = seed;
+    }
+
+    /**
+     * Gives this planner a time budget. Rather than stopping as soon as its local
+     * search does, it then keeps looking for shorter tours until the budget has
+     * been used up, and returns the best one it found.
+     * 
+     * The budget limits the whole of findShortestTour, including the computation
+     * of the distance matrix. Once it has been used up, the planner stops
+     * simulating flights, estimates the cells of the matrix that are left, and
+     * neither solves the tour exactly nor starts any further search. Only the first
+     * local search always runs, so that there is a tour to return. So the planner
+     * may overrun its budget by the time these take, a few tens of milliseconds for
+     * a day's sensors. If the tour is solved exactly in time, the rest of the budget
+     * is not used.
+     * 
+     * @param timeBudget the time the planner may spend optimising, or null to stop
+     *                   as soon as the local search does
+     */
+    public void setTimeBudget(Duration timeBudget) {
+        this.timeBudget = timeBudget;
+    }
+
+    /**
+     * Adds a listener that is informed whenever a shorter tour is found while
+     * optimising within the time budget.
+     * 
+     * @param progressListener the listener to be added
+     */
+    public void addProgressListener(TourProgressListener progressListener) {
+        progressListeners.add(progressListener);
+    }
+
+    /**
+     * This method returns the time budget that App and BatchRunner use. There is
+     * none, unless the system property aqmaps.planningbudget gives one in
+     * milliseconds (e.g. -Daqmaps.planningbudget=500).
+     * 
+     * @return the time budget selected for this run of the application, or null
+     */
+    public static Duration getDefaultTimeBudget() {
+        var millis = Long.getLong(TIME_BUDGET_PROPERTY);
+        return millis == null ? null : Duration.ofMillis(millis);
+    }
+
+    /**
+     * Makes this planner fly the cheapest few of the distinct tours it found in
+     * full before returning one, and return the one that actually needs the fewest
+     * steps. The candidates are the tours found from each start of a multi-start
+     * search, plus the best tour found within the time budget, so this only has an
+     * effect in combination with setMultiStart. It has none if the tour is solved
+     * exactly, or if the planner was given its distance matrix directly.
+     * 
+     * @param numSimulatedCandidates the number of tours flown, where 1 means that
+     *                               the cheapest tour according to the distance
+     *                               matrix is returned without flying any
+     */
+    public void setSimulatedCandidates(int numSimulatedCandidates) {
+        this.numSimulatedCandidates = Math.max(1, numSimulatedCandidates);
+    }
+
+    /**
+     * This method returns how many steps the main drone needs for the tour found,
+     * if it was flown in full while choosing among the candidates.
+     * 
+     * @return the number of steps, or -1 if no tours were flown (e.g. because
+     *         all candidates were the same)
+     */
+    public int getSimulatedSteps() {
+        return simulatedSteps;
+    }
+
+    /**
+     * Sets the families of moves used to improve the tour.
+     * 
+     * @param localSearch the local search to be used
+     */
+    public void setLocalSearch(LocalSearch localSearch) {
+        this.localSearch = localSearch;
+    }
+
+    /**
+     * This method returns how many cells of the distance matrix (off its diagonal)
+     * this planner has computed so far, either by simulating a flight or by looking
+     * it up in the pair cost cache. With a lazy distance matrix, this is usually
+     * much less than n * (n - 1).
+     * 
+     * @return the number of cells computed
+     */
+    public long getNumComputedDistances() {
+        return numComputedDistances.get();
+    }
+
+    /**
+     * This method returns the local search that App and BatchRunner use. It is
+     * plain 2-opt, unless the system property aqmaps.localsearch names a different
+     * one (e.g. -Daqmaps.localsearch=OR_OPT).
+     * 
+     * @return the local search selected for this run of the application
+     */
+    public static LocalSearch getDefaultLocalSearch() {
+        var name = System.getProperty(LOCAL_SEARCH_PROPERTY, LocalSearch.TWO_OPT.name());
+        try {
+            return LocalSearch.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Fatal error: Unknown local search " + name + ". Expected one of "
+                    + Arrays.toString(LocalSearch.values()) + ".");
+            System.exit(1);
+            return null;
+        }
+    }
+
+    /**
+     * Makes this planner compute its distance matrix lazily. Rather than simulating
+     * the flights between all pairs of nodes up front, plain 2-opt then first looks
+     * at a lower bound of the cost of each flight, and only simulates those that
+     * could actually change its decisions. The tour found is exactly the same, but
+     * far fewer flights are simulated.
+     * 
+     * Only has an effect if the matrix has not been computed yet, and only if plain
+     * 2-opt is used without a time budget - all other ways of finding a tour need
+     * the whole matrix anyway. Calling getDistanceMatrix always computes all cells
+     * that are still missing.
+     * 
+     * @param lazyDistances whether the distance matrix is computed lazily
+     */
+    public void setLazyDistanceMatrix(boolean lazyDistances) {
+        this.lazyDistances = lazyDistances;
+    }
+
+    /**
+     * Makes this planner estimate its distance matrix from the shortest ways around
+     * the no fly zones, rather than simulating the flight between each pair of
+     * nodes. This is much faster, and the estimates are usually exact, but the
+     * tour found may be slightly longer. Combined with setSimulatedCandidates, the
+     * final choice between tours is still made by flying them.
+     * 
+     * Only has an effect if the matrix has not been computed yet. Calling
+     * getDistanceMatrix afterwards returns the estimated matrix.
+     * 
+     * @param estimatedDistances whether the distance matrix is estimated
+     */
+    public void setEstimatedDistanceMatrix(boolean estimatedDistances) {
+        this.estimatedDistances = estimatedDistances;
+    }
+
+    /**
+     * Sets the number of nodes from which on tours are optimised using neighbour
+     * lists and don't-look bits.
+     * 
+     * @param neighbourListThreshold the smallest number of nodes for which
+     *                               neighbour lists are used
+     */
+    public void setNeighbourListThreshold(int neighbourListThreshold) {
+        this.neighbourListThreshold = neighbourListThreshold;
+    }
+
+    /**
+     * Sets the number of closest nodes considered as new neighbours of each node
+     * when optimising with neighbour lists.
+     * 
+     * @param numNeighbours the length of the neighbour list of each node
+     */
+    public void setNumNeighbours(int numNeighbours) {
+        this.numNeighbours = Math.max(1, numNeighbours);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,24 @@
+package uk.ac.ed.inf.aqmaps.map;
+
+/**
+ * A TourProgressListener is informed whenever the TourPlanner finds a shorter
+ * tour while optimising within a time budget, e.g. to log its progress or to
+ * decide whether a larger budget is worth it.
+ *
+ * Listeners are called on the thread that plans the tour, so they should
+ * return quickly.
+ */
+@FunctionalInterface
+public interface TourProgressListener {
+
+    /**
+     * This method is called with the tour the optimisation starts from, and then
+     * every time a shorter tour has been found.
+     *
+     * @param bestCost      the cost of the shortest tour found so far, in steps
+     * @param numIterations the number of perturbations tried so far
+     * @param elapsedMillis the time since the optimisation started
+     */
+    void onImprovement(int bestCost, long numIterations, long elapsedMillis);
+
+}
@@ -0,0 +1,352 @@
+package uk.ac.ed.inf.aqmaps.map;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.mapbox.geojson.Point;
+
+import uk.ac.ed.inf.aqmaps.geometry.EuclideanUtils;
+
+/**
+ * The VisibilityGraph knows the length of the shortest way around the no fly
+ * zones of a FlightWorld, between any two points. It ignores that our drones
+ * can only move in steps of a fixed length and direction, so its distances are
+ * lower bounds for the distances our drones actually cover - and usually close
+ * ones.
+ *
+ * A shortest way around polygonal obstacles is a polyline that only ever bends
+ * at convex corners of the obstacles. The nodes of the graph are these corners,
+ * each pushed outwards by a tiny CORNER_CLEARANCE, so that a straight line
+ * between two of them that runs along an edge does not touch it. Two corners
+ * are connected if the straight line between them is a legal move in the
+ * world. The lengths of the shortest paths between all pairs of corners are
+ * computed once, by running Dijkstra's algorithm from each of them. After that,
+ * the distance between two points only depends on which corners they see.
+ *
+ * This relies on the no fly zones not overlapping - otherwise, shortest ways
+ * may also bend where the edges of two zones cross. If they do overlap, the
+ * graph falls back to straight-line distances, which are still lower bounds.
+ */
+public class VisibilityGraph {
+
+    /*
+     * How far each corner is pushed outwards, in degrees. Distances through the
+     * graph may therefore exceed the exact ones by twice this per corner passed.
+     */
+    static final double CORNER_CLEARANCE = 1e-9;
+
+    /* The world whose no fly zones the graph goes around */
+    private final FlightWorld world;
+
+    /* The positions of the (pushed out) convex corners of all no fly zones */
+    private final double[] cornerLongitudes;
+    private final double[] cornerLatitudes;
+
+    /* The length of the shortest path between each pair of corners */
+    private final double[][] cornerDistances;
+
+    /* The edges of all forbidden objects, as {ax, ay, bx, by} */
+    private final double[][] edges;
+
+    /* Whether the no fly zones are disjoint, so that the corners suffice */
+    private final boolean usesCorners;
+
+    /**
+     * The constructor of the VisibilityGraph class. Finds the corners, the
+     * visibility between them and the shortest paths between all of them.
+     *
+     * @param world the world the graph is built for
+     */
+    VisibilityGraph(FlightWorld world) {
+        this.world = world;
+
+        var longitudes = new ArrayList<Double>();
+        var latitudes = new ArrayList<Double>();
+        for (var noFlyZone : world.getNoFlyZones()) {
+            addConvexCorners(noFlyZone.getPolygon().coordinates().get(0), longitudes, latitudes);
+        }
+        var numCorners = longitudes.size();
+        this.cornerLongitudes = new double[numCorners];
+        this.cornerLatitudes = new double[numCorners];
+        for (int i = 0; i < numCorners; i++) {
+            cornerLongitudes[i] = longitudes.get(i);
+            cornerLatitudes[i] = latitudes.get(i);
+        }
+
+        var edgeList = new ArrayList<double[]>();
+        for (var forbiddenObject : world.getForbiddenObjects()) {
+            var ring = forbiddenObject.getPolygon().coordinates().get(0);
+            for (int i = 0; i + 1 < ring.size(); i++) {
+                edgeList.add(new double[] { ring.get(i).longitude(), ring.get(i).latitude(),
+                        ring.get(i + 1).longitude(), ring.get(i + 1).latitude() });
+            }
+        }
+        this.edges = edgeList.toArray(new double[0][]);
+        this.usesCorners = noFlyZonesAreDisjoint(world);
+
+        this.cornerDistances = computeCornerDistances();
+    }
+
+    /**
+     * This method computes the length of the shortest way from one point to
+     * another that does not cross the boundary of any forbidden object.
+     *
+     * @param from the point the way starts at
+     * @param to   the point the way ends at
+     *
+     * @return the length of the way, or positive infinity if there is none
+     */
+    public double computeShortestDistance(Point from, Point to) {
+        return computeShortestDistance(from.longitude(), from.latitude(), computeDistancesFromCorners(to), to);
+    }
+
+    /**
+     * This method computes the length of the shortest way from each corner to the
+     * given destination. Passing the result to computeShortestDistance makes
+     * repeated queries for the same destination much cheaper.
+     *
+     * @param destination the point all ways end at
+     *
+     * @return the length of the way from each corner, positive infinity if there
+     *         is none
+     */
+    public double[] computeDistancesFromCorners(Point destination) {
+        var numCorners = cornerLongitudes.length;
+        var distances = new double[numCorners];
+        Arrays.fill(distances, Double.POSITIVE_INFINITY);
+        if (!usesCorners) {
+            return distances;
+        }
+
+        for (int b = 0; b < numCorners; b++) {
+            if (!isVisible(cornerLongitudes[b], cornerLatitudes[b], destination.longitude(),
+                    destination.latitude())) {
+                continue;
+            }
+            var lastLegLength = EuclideanUtils.computeDistance(cornerLongitudes[b], cornerLatitudes[b],
+                    destination.longitude(), destination.latitude());
+            for (int a = 0; a < numCorners; a++) {
+                distances[a] = Math.min(distances[a], cornerDistances[a][b] + lastLegLength);
+            }
+        }
+        return distances;
+    }
+
+    /**
+     * This method computes the length of the shortest way from a position to a
+     * destination, given the lengths of the shortest ways from each corner to it.
+     *
+     * @param longitude            the longitude of the position
+     * @param latitude             the latitude of the position
+     * @param distancesFromCorners the result of computeDistancesFromCorners for
+     *                             the destination
+     * @param destination          the point the way ends at
+     *
+     * @return the length of the way, or positive infinity if there is none
+     */
+    public double computeShortestDistance(double longitude, double latitude, double[] distancesFromCorners,
+            Point destination) {
+        if (!usesCorners || isVisible(longitude, latitude, destination.longitude(), destination.latitude())) {
+            return EuclideanUtils.computeDistance(longitude, latitude, destination.longitude(),
+                    destination.latitude());
+        }
+
+        /*
+         * The visibility check is by far the most expensive part, so the corners are
+         * tried in the order of the length of the way through them. The first one that
+         * can be seen is the answer, and it is usually among the first few.
+         */
+        var numCorners = cornerLongitudes.length;
+        var lengths = new double[numCorners];
+        for (int a = 0; a < numCorners; a++) {
+            lengths[a] = EuclideanUtils.computeDistance(longitude, latitude, cornerLongitudes[a],
+                    cornerLatitudes[a]) + distancesFromCorners[a];
+        }
+        for (int k = 0; k < numCorners; k++) {
+            var shortest = 0;
+            for (int a = 1; a < numCorners; a++) {
+                if (lengths[a] < lengths[shortest]) {
+                    shortest = a;
+                }
+            }
+            if (Double.isInfinite(lengths[shortest])) {
+                break;
+            }
+            if (isVisible(longitude, latitude, cornerLongitudes[shortest], cornerLatitudes[shortest])) {
+                return lengths[shortest];
+            }
+            lengths[shortest] = Double.POSITIVE_INFINITY;
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * This method computes the distance from a point to the boundary of the
+     * closest forbidden object. Within that distance, every position can be
+     * reached from the point in a straight line.
+     *
+     * @param point the point in question
+     *
+     * @return the distance to the closest boundary
+     */
+    public double computeClearance(Point point) {
+        var clearance = Double.POSITIVE_INFINITY;
+        for (var edge : edges) {
+            clearance = Math.min(clearance,
+                    computeDistanceToSegment(point.longitude(), point.latitude(), edge[0], edge[1], edge[2], edge[3]));
+        }
+        return clearance;
+    }
+
+    /**
+     * This helper method runs Dijkstra's algorithm from each corner. The graph is
+     * tiny and dense, so every run simply scans all corners for the closest one
+     * that is not settled yet, rather than using a priority queue.
+     *
+     * @return the length of the shortest path between each pair of corners
+     */
+    private double[][] computeCornerDistances() {
+        var numCorners = cornerLongitudes.length;
+        var edgeLengths = new double[numCorners][numCorners];
+        for (int a = 0; a < numCorners; a++) {
+            for (int b = a + 1; b < numCorners; b++) {
+                var length = Double.POSITIVE_INFINITY;
+                if (isVisible(cornerLongitudes[a], cornerLatitudes[a], cornerLongitudes[b], cornerLatitudes[b])) {
+                    length = EuclideanUtils.computeDistance(cornerLongitudes[a], cornerLatitudes[a],
+                            cornerLongitudes[b], cornerLatitudes[b]);
+                }
+                edgeLengths[a][b] = length;
+                edgeLengths[b][a] = length;
+            }
+        }
+
+        var distances = new double[numCorners][];
+        for (int source = 0; source < numCorners; source++) {
+            var distancesFromSource = new double[numCorners];
+            Arrays.fill(distancesFromSource, Double.POSITIVE_INFINITY);
+            distancesFromSource[source] = 0;
+            var settled = new boolean[numCorners];
+
+            for (int k = 0; k < numCorners; k++) {
+                var closest = -1;
+                for (int c = 0; c < numCorners; c++) {
+                    if (!settled[c] && (closest < 0 || distancesFromSource[c] < distancesFromSource[closest])) {
+                        closest = c;
+                    }
+                }
+                if (Double.isInfinite(distancesFromSource[closest])) {
+                    break;
+                }
+                settled[closest] = true;
+                for (int c = 0; c < numCorners; c++) {
+                    var distance = distancesFromSource[closest] + edgeLengths[closest][c];
+                    if (!settled[c] && distance < distancesFromSource[c]) {
+                        distancesFromSource[c] = distance;
+                    }
+                }
+            }
+            distances[source] = distancesFromSource;
+        }
+        return distances;
+    }
+
+    /**
+     * This helper method adds the convex corners of a polygon to the given lists,
+     * each pushed outwards by CORNER_CLEARANCE along the bisector of its angle.
+     *
+     * @param ring       the closed ring of vertices of the polygon
+     * @param longitudes the list the longitudes of the corners are added to
+     * @param latitudes  the list the latitudes of the corners are added to
+     */
+    private static void addConvexCorners(List<Point> ring, ArrayList<Double> longitudes,
+            ArrayList<Double> latitudes) {
+        /* The last vertex of the ring repeats the first */
+        var numVertices = ring.size() - 1;
+
+        /* The sign of the area tells us the orientation of the ring */
+        var signedArea = 0.0;
+        for (int i = 0; i < numVertices; i++) {
+            var a = ring.get(i);
+            var b = ring.get(i + 1);
+            signedArea += a.longitude() * b.latitude() - b.longitude() * a.latitude();
+        }
+
+        for (int i = 0; i < numVertices; i++) {
+            var previous = ring.get((i + numVertices - 1) % numVertices);
+            var corner = ring.get(i);
+            var next = ring.get(i + 1);
+
+            var inX = corner.longitude() - previous.longitude();
+            var inY = corner.latitude() - previous.latitude();
+            var outX = next.longitude() - corner.longitude();
+            var outY = next.latitude() - corner.latitude();
+            var turn = inX * outY - inY * outX;
+            if (turn * signedArea <= 0) {
+                /* Reflex (or straight) corners are never part of a shortest way */
+                continue;
+            }
+
+            /* Away from both neighbours is away from the polygon, at a convex corner */
+            var inLength = Math.hypot(inX, inY);
+            var outLength = Math.hypot(outX, outY);
+            var bisectorX = inX / inLength - outX / outLength;
+            var bisectorY = inY / inLength - outY / outLength;
+            var bisectorLength = Math.hypot(bisectorX, bisectorY);
+            longitudes.add(corner.longitude() + CORNER_CLEARANCE * bisectorX / bisectorLength);
+            latitudes.add(corner.latitude() + CORNER_CLEARANCE * bisectorY / bisectorLength);
+        }
+    }
+
+    /**
+     * This helper method checks whether the edges of any two no fly zones cross or
+     * touch.
+     *
+     * @param world the world whose no fly zones are checked
+     *
+     * @return whether all no fly zones are disjoint
+     */
+    private static boolean noFlyZonesAreDisjoint(FlightWorld world) {
+        var noFlyZones = world.getNoFlyZones();
+        for (int i = 0; i < noFlyZones.size(); i++) {
+            for (int j = i + 1; j < noFlyZones.size(); j++) {
+                var ringA = noFlyZones.get(i).getPolygon().coordinates().get(0);
+                var ringB = noFlyZones.get(j).getPolygon().coordinates().get(0);
+                for (int a = 0; a + 1 < ringA.size(); a++) {
+                    for (int b = 0; b + 1 < ringB.size(); b++) {
+                        if (EuclideanUtils.lineSegmentsIntersect(ringA.get(a).longitude(), ringA.get(a).latitude(),
+                                ringA.get(a + 1).longitude(), ringA.get(a + 1).latitude(), ringB.get(b).longitude(),
+                                ringB.get(b).latitude(), ringB.get(b + 1).longitude(),
+                                ringB.get(b + 1).latitude())) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * This helper method checks whether a straight line between two points is a
+     * legal move in the world of this graph.
+     */
+    private boolean isVisible(double ax, double ay, double bx, double by) {
+        return world.findObstacleCrossedBy(ax, ay, bx, by) == null;
+    }
+
+    /**
+     * This helper method computes the distance from point P to the line segment
+     * from A to B.
+     */
+    private static double computeDistanceToSegment(double px, double py, double ax, double ay, double bx,
+            double by) {
+        var dx = bx - ax;
+        var dy = by - ay;
+        var lengthSquared = dx * dx + dy * dy;
+        var t = lengthSquared == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        return EuclideanUtils.computeDistance(px, py, ax + t * dx, ay + t * dy);
+    }
+
+}
@@ -0,0 +1,26 @@
+package uk.ac.ed.inf.aqmaps.webserver;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * This exception is thrown by the WebServerFileFetcher if the web server could
+ * not be reached at all, or did not respond in time. It is told apart from
+ * other failed requests (e.g. a file that does not exist on the server), since
+ * the application exits with a different code in that case.
+ */
+public class ServerUnreachableException extends UncheckedIOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor
+     * 
+     * @param message a description of what went wrong
+     * @param cause   the IOException that made the request fail
+     */
+    public ServerUnreachableException(String message, IOException cause) {
+        super(message, cause);
+    }
+
+}
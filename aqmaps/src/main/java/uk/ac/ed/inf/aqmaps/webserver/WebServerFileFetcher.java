@@ -1,10 +1,22 @@
 package uk.ac.ed.inf.aqmaps.webserver;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.net.http.HttpResponse.BodyHandlers;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Instances of this class are directly responsible for retrieving files from
@@ -25,8 +37,40 @@ public class WebServerFileFetcher {
     private static final String WORDS_FOLDER_PATH = "/words";
     private static final String WORDS_FILE_NAME = "details.json";
 
+    /* How long we wait for a connection / a response if nothing else is specified */
+    private static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    /* How many requests may be in flight at once if nothing else is specified */
+    private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 8;
+
     private int port;
 
+    /* How long we wait for the server to respond to a single request */
+    private final Duration requestTimeout;
+
+    /*
+     * The client that sends all requests of this fetcher. HttpClients are
+     * thread-safe and keep their connections to the server alive, so sharing one
+     * client means that we do not need a new connection (and selector thread) for
+     * each of the many files we fetch per day.
+     */
+    private final HttpClient client;
+
+    /*
+     * Limits the number of requests that are sent concurrently, so that fetching
+     * many files at once does not overwhelm the server.
+     */
+    private final Semaphore requestPermits;
+
+    /*
+     * Statistics about the requests made so far. They are updated by any thread
+     * that uses this fetcher, hence the atomic counters.
+     */
+    private final AtomicLong numRequests = new AtomicLong();
+    private final AtomicLong numBytesReceived = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+
     /**
      * The constructor of the WebServerFileFetcher class. All information it needs
      * to retrieve files is static, except the port, which depends on the command
@@ -35,7 +79,32 @@ public class WebServerFileFetcher {
      * @param port the port the web server runs on.
      */
     public WebServerFileFetcher(int port) {
+        this(port, DEFAULT_CONNECT_TIMEOUT, DEFAULT_REQUEST_TIMEOUT, DEFAULT_MAX_CONCURRENT_REQUESTS);
+    }
+
+    /**
+     * This constructor additionally allows us to specify how long the fetcher waits
+     * for the server before giving up, and how many requests it may send at once.
+     * 
+     * @param port                  the port the web server runs on.
+     * @param connectTimeout        how long we wait for a connection to the server
+     * @param requestTimeout        how long we wait for the response to a single
+     *                              request
+     * @param maxConcurrentRequests the maximum number of requests that are in
+     *                              flight at the same time
+     */
+    public WebServerFileFetcher(int port, Duration connectTimeout, Duration requestTimeout,
+            int maxConcurrentRequests) {
         this.port = port;
+        this.requestTimeout = requestTimeout;
+        this.requestPermits = new Semaphore(Math.max(1, maxConcurrentRequests));
+
+        /*
+         * Our server speaks plain HTTP/1.1, so we don't attempt an upgrade to HTTP/2
+         * on every connection.
+         */
+        this.client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).connectTimeout(connectTimeout)
+                .build();
     }
 
     /**
@@ -90,6 +159,66 @@ public class WebServerFileFetcher {
      * @return the String contents of the details.json file for the given location
      */
     public String getW3wJsonFromServer(String first, String second, String third) {
+        return extractStringFromFile(generateW3wFilePath(first, second, third));
+    }
+
+    /**
+     * This method retrieves the file contents corresponding to many W3W locations
+     * at once. Instead of waiting for each response before sending the next
+     * request, all requests are sent asynchronously (but never more than the
+     * maximum number of concurrent requests at a time), so the whole batch takes
+     * not much longer than a single round trip.
+     * 
+     * @param w3wStrings the W3W identifiers, each of the form "first.second.third"
+     * 
+     * @return the String contents of the details.json files, in the same order as
+     *         the given identifiers
+     */
+    public List<String> getW3wJsonsFromServer(List<String> w3wStrings) {
+        var responses = new ArrayList<CompletableFuture<HttpResponse<byte[]>>>();
+        var responseBodies = new ArrayList<String>();
+        try {
+            for (var w3wString : w3wStrings) {
+                var w3wParts = w3wString.split("\\.");
+                var request = generateHttpRequest(generateW3wFilePath(w3wParts[0], w3wParts[1], w3wParts[2]));
+
+                /* We wait here if too many requests are in flight already */
+                requestPermits.acquire();
+                var startTime = System.nanoTime();
+                var response = client.sendAsync(request, BodyHandlers.ofByteArray())
+                        .whenComplete((completedResponse, exception) -> {
+                            requestPermits.release();
+                            if (completedResponse != null) {
+                                recordStatistics(completedResponse, System.nanoTime() - startTime);
+                            }
+                        });
+                responses.add(response);
+            }
+
+            /* Collect the responses in the order of the requests */
+            for (var response : responses) {
+                responseBodies.add(extractResponseBody(response.join()));
+            }
+        } catch (CompletionException e) {
+            throw toUncheckedException(e.getCause());
+        } catch (InterruptedException e) {
+            throw toUncheckedException(e);
+        }
+
+        return responseBodies;
+    }
+
+    /**
+     * This helper method generates the path of the file that describes the W3W
+     * location with the given identifier.
+     * 
+     * @param first  the first word of the W3W identifier
+     * @param second the second word of the W3W identifier
+     * @param third  the third word of the W3W identifier
+     * 
+     * @return the path of the details.json file for the given location
+     */
+    private String generateW3wFilePath(String first, String second, String third) {
         var stringBuilder = new StringBuilder();
         stringBuilder.append(WORDS_FOLDER_PATH);
         stringBuilder.append("/");
@@ -101,7 +230,7 @@ public class WebServerFileFetcher {
         stringBuilder.append("/");
         stringBuilder.append(WORDS_FILE_NAME);
 
-        return extractStringFromFile(stringBuilder.toString());
+        return stringBuilder.toString();
     }
 
     /**
@@ -138,7 +267,7 @@ public class WebServerFileFetcher {
         var url = stringBuilder.toString();
 
         /* The client assumes the following is a GET request by default */
-        var request = HttpRequest.newBuilder().uri(URI.create(url)).build();
+        var request = HttpRequest.newBuilder().uri(URI.create(url)).timeout(requestTimeout).build();
 
         return request;
     }
@@ -152,27 +281,130 @@ public class WebServerFileFetcher {
      * @return the body of the server's response
      */
     private String getResponseBodyForRequest(HttpRequest request) {
-        var client = HttpClient.newHttpClient();
         String responseBody = "";
         try {
-            var response = client.send(request, BodyHandlers.ofString());
-            System.out.println("Http response received with status code " + response.statusCode() + ".");
-
-            /* I am assuming that a 200 status code is the only acceptable response */
-            if (response.statusCode() != 200) {
-                throw new Exception("Http error with return code " + response.statusCode());
+            requestPermits.acquire();
+            try {
+                var startTime = System.nanoTime();
+                var response = client.send(request, BodyHandlers.ofByteArray());
+                recordStatistics(response, System.nanoTime() - startTime);
+                responseBody = extractResponseBody(response);
+            } finally {
+                requestPermits.release();
             }
-
-            responseBody = response.body();
-        } catch (IOException | InterruptedException e) { // ConnectException is a subclass of IOException
-            System.out.println("Fatal error: Unable to connect to " + SERVER + " at port " + port + ".");
-            System.exit(418);
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.exit(1);
+        } catch (IOException | InterruptedException e) {
+            throw toUncheckedException(e);
         }
 
         return responseBody;
     }
 
+    /**
+     * This helper method checks that the server responded as expected and turns
+     * the body of its response into a String.
+     * 
+     * @param response the response of the server
+     * 
+     * @return the body of the response
+     * 
+     * @throws UncheckedIOException if the server did not respond with status code
+     *                              200
+     */
+    private String extractResponseBody(HttpResponse<byte[]> response) {
+        System.out.println("Http response received with status code " + response.statusCode() + ".");
+
+        /* I am assuming that a 200 status code is the only acceptable response */
+        if (response.statusCode() != 200) {
+            throw new UncheckedIOException(new IOException(
+                    "Http error with return code " + response.statusCode() + " for " + response.uri()));
+        }
+
+        return new String(response.body(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * This helper method updates the request statistics of this fetcher once a
+     * response has been received.
+     * 
+     * @param response the response of the server
+     * @param latency  the time between sending the request and receiving the full
+     *                 response, in nanoseconds
+     */
+    private void recordStatistics(HttpResponse<byte[]> response, long latency) {
+        numRequests.incrementAndGet();
+        numBytesReceived.addAndGet(response.body().length);
+        totalLatencyNanos.addAndGet(latency);
+    }
+
+    /**
+     * This helper method deals with a request that went wrong. There is nothing we
+     * can do without our input files, so the caller throws the returned exception.
+     * It is up to the application to decide whether that ends the whole run, or
+     * e.g. only the tour of one day in a batch.
+     * 
+     * @param e the reason the request failed
+     * 
+     * @return a ServerUnreachableException if the server could not be reached or
+     *         did not respond in time, and an unchecked version of the given
+     *         exception otherwise
+     */
+    private RuntimeException toUncheckedException(Throwable e) {
+        if (e instanceof HttpTimeoutException) {
+            return new ServerUnreachableException(SERVER + " at port " + port + " did not respond in time.",
+                    (IOException) e);
+        } else if (e instanceof IOException) {
+            // ConnectException is a subclass of IOException
+            return new ServerUnreachableException("Unable to connect to " + SERVER + " at port " + port + ".",
+                    (IOException) e);
+        } else if (e instanceof InterruptedException) {
+            Thread.currentThread().interrupt();
+            return new ServerUnreachableException("Interrupted while waiting for " + SERVER + " at port " + port
+                    + ".", new InterruptedIOException(e.getMessage()));
+        } else if (e instanceof RuntimeException) {
+            return (RuntimeException) e;
+        } else {
+            return new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * This method summarises the requests this fetcher has made so far, e.g. to be
+     * printed at the end of a run.
+     * 
+     * @return a human-readable summary of the request statistics
+     */
+    public String getStatisticsSummary() {
+        return String.format("Fetched %d files (%d bytes) with an average latency of %.2f ms.", getNumRequests(),
+                getNumBytesReceived(), getAverageLatencyMillis());
+    }
+
+    /**
+     * Computes the average time between sending a request and having received the
+     * full response.
+     * 
+     * @return the average latency of all requests so far in milliseconds, or 0 if
+     *         no request has been made yet
+     */
+    public double getAverageLatencyMillis() {
+        var requests = numRequests.get();
+        if (requests == 0) {
+            return 0.0;
+        }
+        return totalLatencyNanos.get() / 1e6 / requests;
+    }
+
+    /* Getters */
+
+    public long getNumRequests() {
+        return numRequests.get();
+    }
+
+    public long getNumBytesReceived() {
+        return numBytesReceived.get();
+    }
+
+    public long getTotalLatencyNanos() {
+        return totalLatencyNanos.get();
+    }
+
 }
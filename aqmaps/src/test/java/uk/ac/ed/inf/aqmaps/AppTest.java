@@ -1,28 +1,72 @@
 package uk.ac.ed.inf.aqmaps;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 
+import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.mapbox.geojson.FeatureCollection;
 import com.mapbox.geojson.Point;
+import com.mapbox.geojson.Polygon;
 
 import uk.ac.ed.inf.aqmaps.application.App;
+import uk.ac.ed.inf.aqmaps.application.BatchRunner;
+import uk.ac.ed.inf.aqmaps.application.What3WordsCache;
+import uk.ac.ed.inf.aqmaps.drone.Drone;
 import uk.ac.ed.inf.aqmaps.drone.MainDrone;
 import uk.ac.ed.inf.aqmaps.drone.ShadowDrone;
+import uk.ac.ed.inf.aqmaps.drone.StepTable;
+import uk.ac.ed.inf.aqmaps.geometry.CollisionEngine;
 import uk.ac.ed.inf.aqmaps.geometry.EuclideanUtils;
 import uk.ac.ed.inf.aqmaps.geometry.LineSegment;
+import uk.ac.ed.inf.aqmaps.map.FlightWorld;
+import uk.ac.ed.inf.aqmaps.map.HeldKarpSolver;
+import uk.ac.ed.inf.aqmaps.map.PairCostCache;
 import uk.ac.ed.inf.aqmaps.map.Sensor;
+import uk.ac.ed.inf.aqmaps.map.TourPlanner;
 import uk.ac.ed.inf.aqmaps.map.What3WordsLocation;
+import uk.ac.ed.inf.aqmaps.webserver.ServerUnreachableException;
+import uk.ac.ed.inf.aqmaps.webserver.WebServerFileFetcher;
 
 /**
  * Unit test for simple App.
  */
 public class AppTest {
 
+    /*
+     * App and BatchRunner persist the costs of the flights they simulate, as well
+     * as the What3Words locations they fetch. The tests give them fresh files for
+     * that, so that no run depends on an earlier one and nothing is left in the
+     * working directory.
+     */
+    @BeforeClass
+    public static void useCachesInTempFiles() throws IOException {
+        var pairCostFile = Files.createTempFile("pair-cost-cache", ".txt");
+        pairCostFile.toFile().deleteOnExit();
+        System.setProperty("aqmaps.paircache", pairCostFile.toString());
+
+        var w3wFile = Files.createTempFile("w3w-cache", ".txt");
+        w3wFile.toFile().deleteOnExit();
+        System.setProperty("aqmaps.w3wcache", w3wFile.toString());
+    }
+
     /*
      * EuclideanUtils
      */
@@ -130,15 +174,111 @@ public class AppTest {
         assertFalse(EuclideanUtils.lineSegmentsIntersect(firstLine, secondLine));
     }
 
+    @Test
+    public void collisionEngineAgreesWithPolygonIntersection() {
+        var world = App.loadFlightWorld(80);
+
+        var polygons = new ArrayList<Polygon>();
+        for (var forbiddenObject : world.getForbiddenObjects()) {
+            polygons.add(forbiddenObject.getPolygon());
+        }
+        var engine = new CollisionEngine(polygons);
+
+        /* Random moves of the usual length all across (and slightly beyond) the map */
+        var random = new Random(42);
+        for (int n = 0; n < 20000; n++) {
+            var start = Point.fromLngLat(-3.1926 + 0.0084 * random.nextDouble(),
+                    55.9425 + 0.0038 * random.nextDouble());
+            var end = EuclideanUtils.getNextPosition(start, 10 * random.nextInt(36), 0.0003);
+            var move = new LineSegment(start, end);
+
+            var expectedFirstPolygon = -1;
+            for (int i = polygons.size() - 1; i >= 0; i--) {
+                var expected = EuclideanUtils.lineSegmentAndPolygonIntersect(move, polygons.get(i));
+                var actual = engine.crossesPolygon(i, start.longitude(), start.latitude(), end.longitude(),
+                        end.latitude());
+                assertTrue(expected == actual);
+                if (expected) {
+                    expectedFirstPolygon = i;
+                }
+            }
+            assertTrue(expectedFirstPolygon == engine.findFirstPolygonCrossedBy(start.longitude(), start.latitude(),
+                    end.longitude(), end.latitude()));
+        }
+    }
+
+    @Test
+    public void collisionEngineScalesToManyPolygons() {
+        /* A few thousand small, randomly placed triangles */
+        var random = new Random(7);
+        var polygons = new ArrayList<Polygon>();
+        for (int i = 0; i < 3000; i++) {
+            var x = 100 * random.nextDouble();
+            var y = 100 * random.nextDouble();
+            var corners = List.of(Point.fromLngLat(x, y), Point.fromLngLat(x + random.nextDouble(), y),
+                    Point.fromLngLat(x, y + random.nextDouble()), Point.fromLngLat(x, y));
+            polygons.add(Polygon.fromLngLats(List.of(corners)));
+        }
+        var engine = new CollisionEngine(polygons);
+
+        for (int n = 0; n < 2000; n++) {
+            var start = Point.fromLngLat(100 * random.nextDouble(), 100 * random.nextDouble());
+            var end = EuclideanUtils.getNextPosition(start, 10 * random.nextInt(36), 2 * random.nextDouble());
+            var move = new LineSegment(start, end);
+
+            var expectedFirstPolygon = -1;
+            for (int i = 0; i < polygons.size() && expectedFirstPolygon < 0; i++) {
+                if (EuclideanUtils.lineSegmentAndPolygonIntersect(move, polygons.get(i))) {
+                    expectedFirstPolygon = i;
+                }
+            }
+            assertTrue(expectedFirstPolygon == engine.findFirstPolygonCrossedBy(start.longitude(), start.latitude(),
+                    end.longitude(), end.latitude()));
+        }
+    }
+
     /*
      * Drone tests
      */
 
+    /*
+     * Replays every move recorded in the ilp-results flight paths and checks that
+     * the step table arrives at exactly the recorded positions - the same ones the
+     * trigonometric computation produces.
+     */
+    @Test
+    public void stepTableIsBitIdenticalToTrigonometryOnIlpResults() throws IOException {
+        var stepTable = new StepTable(10, 0.0003);
+
+        var numMovesChecked = 0;
+        try (var files = Files.newDirectoryStream(Path.of("..", "ilp-results"), "flightpath-*.txt")) {
+            for (var file : files) {
+                for (var line : Files.readAllLines(file)) {
+                    var fields = line.split(",");
+                    var before = Point.fromLngLat(Double.parseDouble(fields[1]), Double.parseDouble(fields[2]));
+                    var angle = Integer.parseInt(fields[3]);
+                    var after = Point.fromLngLat(Double.parseDouble(fields[4]), Double.parseDouble(fields[5]));
+
+                    var fromTable = stepTable.getNextPosition(before, angle);
+                    var fromTrigonometry = EuclideanUtils.getNextPosition(before, angle, 0.0003);
+
+                    assertTrue(fromTable.longitude() == after.longitude() && fromTable.latitude() == after.latitude());
+                    assertTrue(fromTable.longitude() == fromTrigonometry.longitude()
+                            && fromTable.latitude() == fromTrigonometry.latitude());
+                    numMovesChecked++;
+                }
+            }
+        }
+
+        assertTrue(numMovesChecked > 0);
+    }
+
     // Test disabled
     @Test
     public void droneCanFlyInStraightLine() {
 
         App.main(new String[] { "15", "06", "2021", "55.9444", "-3.1878", "5678", "80" });
+        var world = App.loadFlightWorld(80);
 
         Point destination = Point.fromLngLat(55.944, -3.187);
         What3WordsLocation w3w = new What3WordsLocation("a.b.c", destination);
@@ -148,7 +288,7 @@ public class AppTest {
         
         System.out.println(arr.size());
         
-        MainDrone d = new MainDrone(Point.fromLngLat(55.9461, -3.1924), arr, true);
+        MainDrone d = new MainDrone(Point.fromLngLat(55.9461, -3.1924), arr, world, true);
 
         //assertTrue(d.canMoveTowardsGoal());
 
@@ -158,6 +298,7 @@ public class AppTest {
     @Test
     public void droneDoesNotLeaveZone() {
         App.main(new String[] { "15", "06", "2021", "55.9444", "-3.1878", "5678", "80" });
+        var world = App.loadFlightWorld(80);
 
         Point destination = Point.fromLngLat(-3.193, 55.947);
         
@@ -166,7 +307,7 @@ public class AppTest {
         
         ArrayList<Sensor> arr = new ArrayList<Sensor>(Arrays.asList(s));
         
-        MainDrone d = new MainDrone(Point.fromLngLat(-3.192472, 55.94623), arr, true);
+        MainDrone d = new MainDrone(Point.fromLngLat(-3.192472, 55.94623), arr, world, true);
 
         //assertFalse(d.canFlyStraightAtGoal());
     }
@@ -175,13 +316,14 @@ public class AppTest {
     @Test
     public void droneDoesNotCrossNoFlyZone() {
         App.main(new String[] { "15", "06", "2021", "55.9444", "-3.1878", "5678", "80" });
+        var world = App.loadFlightWorld(80);
         
         Point destination = Point.fromLngLat(-3.185, 55.9427);
         
         What3WordsLocation w3w = new What3WordsLocation("a.b.c", destination);
         Sensor s = new Sensor(0.0f, 0.0, w3w);
         
-        MainDrone d = new MainDrone(Point.fromLngLat(-3.18971, 55.94284), new ArrayList<Sensor>(Arrays.asList(s)), true);
+        MainDrone d = new MainDrone(Point.fromLngLat(-3.18971, 55.94284), new ArrayList<Sensor>(Arrays.asList(s)), world, true);
 
         //assertFalse(d.canFlyStraightAtGoal());
     }
@@ -189,12 +331,13 @@ public class AppTest {
     @Test
     public void shadowDroneCanAvoidSimpleObstacleClockwise() {
         App.main(new String[] { "15", "06", "2021", "55.9444", "-3.1878", "5678", "80" });
+        var world = App.loadFlightWorld(80);
         
         Point destination = Point.fromLngLat(-3.18825, 55.9426170001);
         
-        ShadowDrone d = new ShadowDrone(Point.fromLngLat(-3.18962, 55.9426170001), destination, true);
+        ShadowDrone d = new ShadowDrone(Point.fromLngLat(-3.18962, 55.9426170001), destination, world, true);
 
-        var obst = App.getNoFlyZones().get(2);
+        var obst = world.getNoFlyZones().get(2);
         
         System.out.println("Obstacle: " + obst);
         
@@ -207,12 +350,13 @@ public class AppTest {
     @Test
     public void shadowDroneCanAvoidSimpleObstacleCounterClockwise() {
         App.main(new String[] { "15", "06", "2021", "55.9444", "-3.1878", "5678", "80" });
+        var world = App.loadFlightWorld(80);
         
         Point destination = Point.fromLngLat(-3.18962, 55.9426170001);
         
-        ShadowDrone d = new ShadowDrone(Point.fromLngLat(-3.18825, 55.9426170001), destination, true);
+        ShadowDrone d = new ShadowDrone(Point.fromLngLat(-3.18825, 55.9426170001), destination, world, true);
 
-        var obst = App.getNoFlyZones().get(2);
+        var obst = world.getNoFlyZones().get(2);
         
         System.out.println("Obstacle: " + obst);
         
@@ -225,12 +369,13 @@ public class AppTest {
     @Test
     public void shadowDroneNoticesIfClockwiseRotationDoesNotWork() {
         App.main(new String[] { "15", "06", "2021", "55.9444", "-3.1878", "5678", "80" });
+        var world = App.loadFlightWorld(80);
         
         Point destination = Point.fromLngLat(-3.18962, 55.9426170001);
         
-        ShadowDrone d = new ShadowDrone(Point.fromLngLat(-3.18825, 55.9426170001), destination, true);
+        ShadowDrone d = new ShadowDrone(Point.fromLngLat(-3.18825, 55.9426170001), destination, world, true);
 
-        var obst = App.getNoFlyZones().get(2);
+        var obst = world.getNoFlyZones().get(2);
         
         System.out.println("Obstacle: " + obst);
         
@@ -243,12 +388,13 @@ public class AppTest {
     @Test
     public void shadowDroneNoticesIfCounterClockwiseRotationDoesNotWork() {
         App.main(new String[] { "15", "06", "2021", "55.9444", "-3.1878", "5678", "80" });
+        var world = App.loadFlightWorld(80);
         
         Point destination = Point.fromLngLat(-3.18925, 55.9426170001);
         
-        ShadowDrone d = new ShadowDrone(Point.fromLngLat(-3.18962, 55.9426170001), destination, true);
+        ShadowDrone d = new ShadowDrone(Point.fromLngLat(-3.18962, 55.9426170001), destination, world, true);
 
-        var obst = App.getNoFlyZones().get(2);
+        var obst = world.getNoFlyZones().get(2);
         
         System.out.println("Obstacle: " + obst);
         
@@ -261,14 +407,15 @@ public class AppTest {
     @Test
     public void droneCanAvoidSimpleObstacleClockwise() {
         App.main(new String[] { "15", "06", "2021", "55.9444", "-3.1878", "5678", "80" });
+        var world = App.loadFlightWorld(80);
         
         Point destination = Point.fromLngLat(-3.18825, 55.9426170001);
         What3WordsLocation w3w = new What3WordsLocation("a.b.c", destination);
         Sensor s = new Sensor(0.0f, 0.0, w3w);
         
-        MainDrone d = new MainDrone(Point.fromLngLat(-3.18962, 55.9426170001), new ArrayList<Sensor>(Arrays.asList(s)), true);
+        MainDrone d = new MainDrone(Point.fromLngLat(-3.18962, 55.9426170001), new ArrayList<Sensor>(Arrays.asList(s)), world, true);
 
-        var obst = App.getNoFlyZones().get(2);
+        var obst = world.getNoFlyZones().get(2);
         
         System.out.println("Initial Position: " + d.getCurrentPosition());
         
@@ -282,14 +429,15 @@ public class AppTest {
     @Test
     public void droneCanAvoidSimpleObstacleCounterClockwise() {
         App.main(new String[] { "15", "06", "2021", "55.9444", "-3.1878", "5678", "80" });
+        var world = App.loadFlightWorld(80);
         
         Point destination = Point.fromLngLat(-3.18962, 55.9426170001);
         What3WordsLocation w3w = new What3WordsLocation("a.b.c", destination);
         Sensor s = new Sensor(0.0f, 0.0, w3w);
         
-        MainDrone d = new MainDrone(Point.fromLngLat(-3.18825, 55.9426170001), new ArrayList<Sensor>(Arrays.asList(s)), true);
+        MainDrone d = new MainDrone(Point.fromLngLat(-3.18825, 55.9426170001), new ArrayList<Sensor>(Arrays.asList(s)), world, true);
 
-        var obst = App.getNoFlyZones().get(2);
+        var obst = world.getNoFlyZones().get(2);
         
         System.out.println("Initial Position: " + d.getCurrentPosition());
         
@@ -303,12 +451,13 @@ public class AppTest {
     @Test
     public void droneCanFlyFromBottomLeftToBottomRight() {
         App.main(new String[] { "15", "06", "2021", "55.9444", "-3.1878", "5678", "80" });
+        var world = App.loadFlightWorld(80);
         
         Point destination = Point.fromLngLat(-3.18432, 55.942618);
         What3WordsLocation w3w = new What3WordsLocation("a.b.c", destination);
         Sensor s = new Sensor(0.0f, 0.0, w3w);
         
-        MainDrone d = new MainDrone(Point.fromLngLat(-3.19247, 55.942618), new ArrayList<Sensor>(Arrays.asList(s)), true);
+        MainDrone d = new MainDrone(Point.fromLngLat(-3.19247, 55.942618), new ArrayList<Sensor>(Arrays.asList(s)), world, true);
         
         System.out.println("Initial Position: " + d.getCurrentPosition());
         
@@ -323,12 +472,13 @@ public class AppTest {
     @Test
     public void droneCanFlyFromBottomLeftToTopLeft() {
         App.main(new String[] { "15", "06", "2021", "55.9444", "-3.1878", "5678", "80" });
+        var world = App.loadFlightWorld(80);
         
         Point destination = Point.fromLngLat(-3.192473, 55.946233);
         What3WordsLocation w3w = new What3WordsLocation("a.b.c", destination);
         Sensor s = new Sensor(0.0f, 0.0, w3w);
         
-        MainDrone d = new MainDrone(Point.fromLngLat(-3.19247, 55.942618), new ArrayList<Sensor>(Arrays.asList(s)), true);
+        MainDrone d = new MainDrone(Point.fromLngLat(-3.19247, 55.942618), new ArrayList<Sensor>(Arrays.asList(s)), world, true);
         
         System.out.println("Initial Position: " + d.getCurrentPosition());
         
@@ -343,12 +493,13 @@ public class AppTest {
     @Test
     public void droneCanFlyFromBottomLeftToTopRight() {
         App.main(new String[] { "15", "06", "2021", "55.9444", "-3.1878", "5678", "80" });
+        var world = App.loadFlightWorld(80);
         
         Point destination = Point.fromLngLat(-3.184319, 55.946233);
         What3WordsLocation w3w = new What3WordsLocation("a.b.c", destination);
         Sensor s = new Sensor(0.0f, 0.0, w3w);
         
-        MainDrone d = new MainDrone(Point.fromLngLat(-3.19247, 55.942618), new ArrayList<Sensor>(Arrays.asList(s)), true);
+        MainDrone d = new MainDrone(Point.fromLngLat(-3.19247, 55.942618), new ArrayList<Sensor>(Arrays.asList(s)), world, true);
         
         System.out.println("Initial Position: " + d.getCurrentPosition());
         
@@ -360,6 +511,767 @@ public class AppTest {
         assertTrue(true);
     }
     
+    @Test
+    public void aStarNavigationNeverNeedsMoreStepsThanGreedyFlight() throws IOException {
+        var world = App.loadFlightWorld(80);
+        var tourNodes = loadSubmittedTourNodes("01-01-2020");
+        var start = tourNodes.get(tourNodes.size() - 1);
+
+        /* Including a flight right around the obstacle of the avoidance tests */
+        var destinations = new ArrayList<Point>(tourNodes.subList(0, tourNodes.size() - 1));
+        destinations.add(Point.fromLngLat(-3.18825, 55.9426170001));
+        var starts = new ArrayList<Point>(Collections.nCopies(destinations.size() - 1, start));
+        starts.add(Point.fromLngLat(-3.18962, 55.9426170001));
+
+        for (int i = 0; i < destinations.size(); i++) {
+            var steps = new int[MainDrone.NavigationEngine.values().length];
+            for (var navigationEngine : MainDrone.NavigationEngine.values()) {
+                var sensor = new Sensor(0.0f, 0.0, new What3WordsLocation("a.b.c", destinations.get(i)));
+                var drone = new MainDrone(starts.get(i), new ArrayList<Sensor>(Arrays.asList(sensor)), world, false);
+                drone.setNavigationEngine(navigationEngine);
+                steps[navigationEngine.ordinal()] = drone.flyToCurrentDestination();
+
+                assertFalse(drone.hasCrashed());
+                assertTrue(EuclideanUtils.computeDistance(drone.getCurrentPosition(),
+                        destinations.get(i)) <= Drone.getMaxReadDistance());
+            }
+            assertTrue(steps[MainDrone.NavigationEngine.A_STAR.ordinal()] <= steps[MainDrone.NavigationEngine.GREEDY
+                    .ordinal()]);
+        }
+    }
+
+    @Test
+    public void beamSearchFliesToursInFewerStepsThanGreedyFlight() throws IOException {
+        var world = App.loadFlightWorld(80);
+
+        var totalSteps = new int[2];
+        var navigationEngines = new MainDrone.NavigationEngine[] { MainDrone.NavigationEngine.GREEDY,
+                MainDrone.NavigationEngine.BEAM_SEARCH };
+        for (var dateString : new String[] { "01-01-2020", "02-02-2020", "03-03-2020" }) {
+            var tourNodes = loadSubmittedTourNodes(dateString);
+            var sensors = new ArrayList<Sensor>();
+            for (var node : tourNodes.subList(0, tourNodes.size() - 1)) {
+                sensors.add(new Sensor(0.0f, 0.0, new What3WordsLocation("a.b.c", node)));
+            }
+            var start = tourNodes.get(tourNodes.size() - 1);
+
+            for (int e = 0; e < navigationEngines.length; e++) {
+                var drone = new MainDrone(start, sensors, world, false);
+                drone.setNavigationEngine(navigationEngines[e]);
+                drone.completeTour();
+                totalSteps[e] += drone.getStepsMade();
+
+                assertFalse(drone.hasCrashed());
+                for (var visited : drone.getSensorsVisitedArray()) {
+                    assertTrue(visited);
+                }
+                assertTrue(EuclideanUtils.computeDistance(drone.getCurrentPosition(),
+                        start) <= Drone.getMaxLandingDistance());
+            }
+        }
+        assertTrue(totalSteps[1] < totalSteps[0]);
+    }
+
+    @Test
+    public void avoidanceCacheRepeatsFlightsExactly() throws IOException {
+        var world = App.loadFlightWorld(80);
+        var tourNodes = loadSubmittedTourNodes("02-02-2020");
+        var sensors = new ArrayList<Sensor>();
+        for (var node : tourNodes.subList(0, tourNodes.size() - 1)) {
+            sensors.add(new Sensor(0.0f, 0.0, new What3WordsLocation("a.b.c", node)));
+        }
+        var start = tourNodes.get(tourNodes.size() - 1);
+
+        var uncachedDrone = new MainDrone(start, sensors, world, false);
+        uncachedDrone.setUsesAvoidanceCache(false);
+        uncachedDrone.completeTour();
+
+        /* The first drone fills the cache, the second one finds every situation in it */
+        var avoidanceCache = MainDrone.getAvoidanceCache();
+        avoidanceCache.clear();
+        var longitudeHistories = new ArrayList<double[]>();
+        var latitudeHistories = new ArrayList<double[]>();
+        var numHitsOfFlight = new long[2];
+        for (int i = 0; i < 2; i++) {
+            var numHitsBefore = avoidanceCache.getNumHits();
+            var cachedDrone = new MainDrone(start, sensors, world, false);
+            cachedDrone.setUsesAvoidanceCache(true);
+            cachedDrone.completeTour();
+            numHitsOfFlight[i] = avoidanceCache.getNumHits() - numHitsBefore;
+            longitudeHistories.add(cachedDrone.getLongitudeHistory());
+            latitudeHistories.add(cachedDrone.getLatitudeHistory());
+        }
+
+        for (int i = 0; i < 2; i++) {
+            assertArrayEquals(uncachedDrone.getLongitudeHistory(), longitudeHistories.get(i), 0.0);
+            assertArrayEquals(uncachedDrone.getLatitudeHistory(), latitudeHistories.get(i), 0.0);
+        }
+        assertTrue(numHitsOfFlight[1] > numHitsOfFlight[0]);
+
+        /*
+         * A world sharing the same obstacles must not replay the ways found in the first
+         * one, so its drone fares exactly like the first drone did with an empty cache
+         */
+        var otherWorld = App.createFlightWorld(world.getNoFlyZones());
+        var numHitsBefore = avoidanceCache.getNumHits();
+        var otherDrone = new MainDrone(start, sensors, otherWorld, false);
+        otherDrone.setUsesAvoidanceCache(true);
+        otherDrone.completeTour();
+        assertEquals(numHitsOfFlight[0], avoidanceCache.getNumHits() - numHitsBefore);
+    }
+
+    @Test
+    public void concurrentAvoidanceChoosesSameWaysAsSequentialOne() throws IOException {
+        var world = App.loadFlightWorld(80);
+        var tourNodes = loadSubmittedTourNodes("04-04-2020");
+        var sensors = new ArrayList<Sensor>();
+        for (var node : tourNodes.subList(0, tourNodes.size() - 1)) {
+            sensors.add(new Sensor(0.0f, 0.0, new What3WordsLocation("a.b.c", node)));
+        }
+        var start = tourNodes.get(tourNodes.size() - 1);
+
+        var longitudeHistories = new ArrayList<double[]>();
+        var latitudeHistories = new ArrayList<double[]>();
+        for (var concurrentAvoidance : new boolean[] { false, true }) {
+            var drone = new MainDrone(start, sensors, world, false);
+            drone.setUsesAvoidanceCache(false);
+            drone.setConcurrentAvoidance(concurrentAvoidance);
+            drone.completeTour();
+            assertFalse(drone.hasCrashed());
+            longitudeHistories.add(drone.getLongitudeHistory());
+            latitudeHistories.add(drone.getLatitudeHistory());
+        }
+
+        assertArrayEquals(longitudeHistories.get(0), longitudeHistories.get(1), 0.0);
+        assertArrayEquals(latitudeHistories.get(0), latitudeHistories.get(1), 0.0);
+    }
+
+    @Test
+    public void restartedDroneFliesLikeNewOne() throws IOException {
+        var world = App.loadFlightWorld(80);
+        var sensorsOfDays = new ArrayList<ArrayList<Sensor>>();
+        Point start = null;
+        for (var dateString : new String[] { "01-01-2020", "02-02-2020" }) {
+            var tourNodes = loadSubmittedTourNodes(dateString);
+            var sensors = new ArrayList<Sensor>();
+            for (var node : tourNodes.subList(0, tourNodes.size() - 1)) {
+                sensors.add(new Sensor(0.0f, 0.0, new What3WordsLocation("a.b.c", node)));
+            }
+            sensorsOfDays.add(sensors);
+            start = tourNodes.get(tourNodes.size() - 1);
+        }
+
+        var newDrone = new MainDrone(start, sensorsOfDays.get(1), world, false);
+        newDrone.completeTour();
+
+        var restartedDrone = new MainDrone(start, sensorsOfDays.get(0), world, false);
+        restartedDrone.completeTour();
+        restartedDrone.restartTour(sensorsOfDays.get(1));
+        restartedDrone.completeTour();
+
+        assertFalse(restartedDrone.hasCrashed());
+        assertArrayEquals(newDrone.getLongitudeHistory(), restartedDrone.getLongitudeHistory(), 0.0);
+        assertArrayEquals(newDrone.getLatitudeHistory(), restartedDrone.getLatitudeHistory(), 0.0);
+        assertTrue(Arrays.equals(newDrone.getSensorsVisitedArray(), restartedDrone.getSensorsVisitedArray()));
+        assertEquals(newDrone.getSensorReadHistory(), restartedDrone.getSensorReadHistory());
+    }
+
+    @Test
+    public void restoringSnapshotForgetsLaterMoves() {
+        var world = App.loadFlightWorld(80);
+        var position = Point.fromLngLat(-3.18962, 55.9426170001);
+        var mockSensor = new Sensor(0.0f, 0.0, new What3WordsLocation("a.b.c", position));
+        var drone = new MainDrone(position, new ArrayList<Sensor>(Arrays.asList(mockSensor)), world, false);
+
+        /* The drone starts at the sensor, so each parking manoeuvre flies away and back */
+        assertTrue(drone.park());
+        var snapshot = new Drone.Snapshot();
+        drone.saveSnapshot(snapshot);
+        var stepsAtSnapshot = drone.getStepsMade();
+        var anglesAtSnapshot = drone.getMoveAngleHistory();
+        var longitudesAtSnapshot = drone.getLongitudeHistory();
+        var latitudesAtSnapshot = drone.getLatitudeHistory();
+
+        assertTrue(drone.park());
+        assertTrue(drone.park());
+        var anglesAfterwards = drone.getMoveAngleHistory();
+        var longitudesAfterwards = drone.getLongitudeHistory();
+        var latitudesAfterwards = drone.getLatitudeHistory();
+
+        drone.restoreSnapshot(snapshot);
+        assertEquals(stepsAtSnapshot, drone.getStepsMade());
+        assertEquals(stepsAtSnapshot, drone.getSensorReadHistory().size());
+        assertEquals(longitudesAtSnapshot[stepsAtSnapshot], drone.getCurrentLongitude(), 0.0);
+        assertEquals(latitudesAtSnapshot[stepsAtSnapshot], drone.getCurrentLatitude(), 0.0);
+        assertArrayEquals(anglesAtSnapshot, drone.getMoveAngleHistory());
+        assertArrayEquals(longitudesAtSnapshot, drone.getLongitudeHistory(), 0.0);
+        assertArrayEquals(latitudesAtSnapshot, drone.getLatitudeHistory(), 0.0);
+
+        /* Rolling back leaves no trace, so the same moves are made again */
+        assertTrue(drone.park());
+        assertTrue(drone.park());
+        assertArrayEquals(anglesAfterwards, drone.getMoveAngleHistory());
+        assertArrayEquals(longitudesAfterwards, drone.getLongitudeHistory(), 0.0);
+        assertArrayEquals(latitudesAfterwards, drone.getLatitudeHistory(), 0.0);
+    }
+
+    /*
+     * FlightWorld tests
+     */
+
+    @Test
+    public void flightWorldReportsFirstObstacleCrossed() {
+        var world = App.loadFlightWorld(80);
+
+        var leavingObstacle = world.findObstacleCrossedBy(-3.19247, 55.942618, -3.1926, 55.942618);
+        var buildingObstacle = world.findObstacleCrossedBy(-3.18962, 55.9426170001, -3.18825, 55.9426170001);
+        var legalObstacle = world.findObstacleCrossedBy(-3.1878, 55.9444, -3.1875, 55.9444);
+
+        assertTrue(leavingObstacle == world.getConfinementArea());
+        assertTrue(buildingObstacle == world.getNoFlyZones().get(2));
+        assertTrue(legalObstacle == null);
+    }
+
+    /*
+     * TourPlanner tests
+     */
+
+    /* A handful of tour nodes spread across the map, the last one being the start */
+    private static final List<Point> TOUR_NODES = List.of(Point.fromLngLat(-3.18962, 55.9426170001),
+            Point.fromLngLat(-3.18825, 55.9426170001), Point.fromLngLat(-3.19247, 55.942618),
+            Point.fromLngLat(-3.18432, 55.942618), Point.fromLngLat(-3.184319, 55.946233),
+            Point.fromLngLat(-3.1911, 55.9457), Point.fromLngLat(-3.1878, 55.9444));
+
+    @Test
+    public void parallelDistanceMatrixEqualsSequentialOne() {
+        var world = App.loadFlightWorld(80);
+
+        var sequentialPlanner = new TourPlanner(TOUR_NODES, world);
+        sequentialPlanner.setParallelism(1);
+        var parallelPlanner = new TourPlanner(TOUR_NODES, world);
+        parallelPlanner.setParallelism(4);
+
+        var sequentialMatrix = sequentialPlanner.getDistanceMatrix();
+        var parallelMatrix = parallelPlanner.getDistanceMatrix();
+
+        for (int i = 0; i < TOUR_NODES.size(); i++) {
+            assertArrayEquals(sequentialMatrix[i], parallelMatrix[i]);
+        }
+    }
+
+    @Test
+    public void pairCostCacheReproducesSimulatedMatrix() throws IOException {
+        var world = App.loadFlightWorld(80);
+        var file = Files.createTempFile("pair-cost-cache", ".txt");
+        Files.delete(file);
+
+        var uncachedPlanner = new TourPlanner(TOUR_NODES, world);
+        uncachedPlanner.setParallelism(1);
+        var uncachedMatrix = uncachedPlanner.getDistanceMatrix();
+
+        var cache = new PairCostCache(file);
+        var firstPlanner = new TourPlanner(TOUR_NODES, world);
+        firstPlanner.setPairCostCache(cache);
+        var firstMatrix = firstPlanner.getDistanceMatrix();
+
+        /*
+         * A line that was cut off while writing (e.g. "...,12" as "...,1") must not
+         * overwrite the right cost
+         */
+        var longLine = Files.readAllLines(file).stream().filter(line -> line.matches(".*,[0-9]{2,}")).findFirst()
+                .get();
+        Files.writeString(file, longLine.substring(0, longLine.length() - 1), StandardOpenOption.APPEND);
+
+        /* A fresh cache reading the same file knows every pair except the diagonal */
+        var reopenedCache = new PairCostCache(file);
+        var secondPlanner = new TourPlanner(TOUR_NODES, world);
+        secondPlanner.setPairCostCache(reopenedCache);
+        var secondMatrix = secondPlanner.getDistanceMatrix();
+
+        var numPoints = TOUR_NODES.size();
+        assertTrue(cache.getNumMisses() == numPoints * (numPoints - 1));
+        assertTrue(reopenedCache.getNumHits() == numPoints * (numPoints - 1));
+        assertTrue(reopenedCache.getNumMisses() == 0);
+        for (int i = 0; i < numPoints; i++) {
+            assertArrayEquals(uncachedMatrix[i], firstMatrix[i]);
+            assertArrayEquals(uncachedMatrix[i], secondMatrix[i]);
+        }
+        Files.delete(file);
+    }
+
+    @Test
+    public void flightWorldFingerprintDependsOnlyOnGeometry() {
+        var world = App.loadFlightWorld(80);
+        var sameWorld = App.loadFlightWorld(80);
+        var smallerWorld = App.createFlightWorld(world.getNoFlyZones().subList(1, world.getNoFlyZones().size()));
+
+        assertTrue(world.getFingerprint() == sameWorld.getFingerprint());
+        assertFalse(world.getFingerprint() == smallerWorld.getFingerprint());
+    }
+
+    /* Random asymmetric step counts, similar in size to those of our drone */
+    private static int[][] randomDistanceMatrix(int numPoints, long seed) {
+        var random = new Random(seed);
+        var positions = new double[numPoints][2];
+        for (var position : positions) {
+            position[0] = random.nextDouble() * 30;
+            position[1] = random.nextDouble() * 15;
+        }
+        var distanceMatrix = new int[numPoints][numPoints];
+        for (int i = 0; i < numPoints; i++) {
+            for (int j = 0; j < numPoints; j++) {
+                if (i != j) {
+                    var dx = positions[i][0] - positions[j][0];
+                    var dy = positions[i][1] - positions[j][1];
+                    distanceMatrix[i][j] = 1 + (int) Math.sqrt(dx * dx + dy * dy) + random.nextInt(3);
+                }
+            }
+        }
+        return distanceMatrix;
+    }
+
+    @Test
+    public void neighbourListTwoOptReachesLocalOptimum() {
+        var numPoints = 150;
+        var distanceMatrix = randomDistanceMatrix(numPoints, 7);
+
+        /* With neighbour lists covering all nodes, no 2-opt move may be missed */
+        var tourPlanner = new TourPlanner(distanceMatrix);
+        tourPlanner.setNumNeighbours(numPoints);
+        var tour = tourPlanner.findShortestTour();
+
+        var permutation = Arrays.copyOf(tour, numPoints);
+        permutation[numPoints - 1] = numPoints - 1;
+        var sortedTour = tour.clone();
+        Arrays.sort(sortedTour);
+        for (int k = 0; k < numPoints - 1; k++) {
+            assertTrue(sortedTour[k] == k);
+        }
+
+        for (int j = 0; j < numPoints - 1; j++) {
+            for (int i = 0; i < j; i++) {
+                var a = permutation[(i - 1 + numPoints) % numPoints];
+                var b = permutation[i];
+                var c = permutation[j];
+                var e = permutation[j + 1];
+                assertTrue(distanceMatrix[a][c] + distanceMatrix[b][e] >= distanceMatrix[a][b] + distanceMatrix[c][e]);
+            }
+        }
+    }
+
+    /* The cost of a tour that starts and ends at the last node, which it omits */
+    private static int tourCost(int[][] distanceMatrix, int[] tour) {
+        var startIndex = distanceMatrix.length - 1;
+        var cost = distanceMatrix[startIndex][tour[0]] + distanceMatrix[tour[tour.length - 1]][startIndex];
+        for (int k = 0; k + 1 < tour.length; k++) {
+            cost += distanceMatrix[tour[k]][tour[k + 1]];
+        }
+        return cost;
+    }
+
+    @Test
+    public void orOptAndThreeOptNeverLengthenTwoOptTours() {
+        var numPoints = 35;
+        var numStrictImprovements = 0;
+        for (long seed = 0; seed < 20; seed++) {
+            var distanceMatrix = randomDistanceMatrix(numPoints, seed);
+            var costs = new int[TourPlanner.LocalSearch.values().length];
+            for (var localSearch : TourPlanner.LocalSearch.values()) {
+                var tourPlanner = new TourPlanner(distanceMatrix);
+                tourPlanner.setLocalSearch(localSearch);
+                var tour = tourPlanner.findShortestTour();
+
+                var sortedTour = tour.clone();
+                Arrays.sort(sortedTour);
+                for (int k = 0; k < numPoints - 1; k++) {
+                    assertTrue(sortedTour[k] == k);
+                }
+                costs[localSearch.ordinal()] = tourCost(distanceMatrix, tour);
+            }
+
+            var twoOptCost = costs[TourPlanner.LocalSearch.TWO_OPT.ordinal()];
+            assertTrue(costs[TourPlanner.LocalSearch.OR_OPT.ordinal()] <= twoOptCost);
+            assertTrue(costs[TourPlanner.LocalSearch.THREE_OPT.ordinal()] <= twoOptCost);
+            if (costs[TourPlanner.LocalSearch.THREE_OPT.ordinal()] < twoOptCost) {
+                numStrictImprovements++;
+            }
+        }
+        assertTrue(numStrictImprovements > 0);
+    }
+
+    /* The cost of the shortest tour, found by trying every order of the sensors */
+    private static int bruteForceTourCost(int[][] distanceMatrix, int[] tour, int numFixed) {
+        if (numFixed == tour.length) {
+            return tourCost(distanceMatrix, tour);
+        }
+        var bestCost = Integer.MAX_VALUE;
+        for (int k = numFixed; k < tour.length; k++) {
+            var temp = tour[numFixed];
+            tour[numFixed] = tour[k];
+            tour[k] = temp;
+            bestCost = Math.min(bestCost, bruteForceTourCost(distanceMatrix, tour, numFixed + 1));
+            tour[k] = tour[numFixed];
+            tour[numFixed] = temp;
+        }
+        return bestCost;
+    }
+
+    @Test
+    public void heldKarpSolverFindsShortestTour() {
+        var numPoints = 9;
+        for (long seed = 0; seed < 5; seed++) {
+            var distanceMatrix = randomDistanceMatrix(numPoints, seed);
+            var sensors = new int[numPoints - 1];
+            for (int k = 0; k < sensors.length; k++) {
+                sensors[k] = k;
+            }
+            var shortestCost = bruteForceTourCost(distanceMatrix, sensors, 0);
+
+            for (var memoryBounded : new boolean[] { false, true }) {
+                var solver = new HeldKarpSolver(distanceMatrix);
+                solver.setMemoryBounded(memoryBounded);
+                var tour = solver.solve();
+
+                assertTrue(tour[numPoints - 1] == numPoints - 1);
+                assertTrue(solver.getOptimalCost() == shortestCost);
+                assertTrue(tourCost(distanceMatrix, Arrays.copyOf(tour, numPoints - 1)) == shortestCost);
+            }
+
+            /* Small tours are solved exactly by the TourPlanner, too */
+            var tourPlanner = new TourPlanner(distanceMatrix);
+            assertTrue(tourCost(distanceMatrix, tourPlanner.findShortestTour()) == shortestCost);
+        }
+    }
+
+    @Test
+    public void multiStartIsDeterministicAndNeverWorseThanSingleStart() {
+        var distanceMatrix = randomDistanceMatrix(40, 3);
+        var singleStartTour = new TourPlanner(distanceMatrix).findShortestTour();
+
+        var sequentialPlanner = new TourPlanner(distanceMatrix);
+        sequentialPlanner.setParallelism(1);
+        sequentialPlanner.setMultiStart(16, 5678);
+        var sequentialTour = sequentialPlanner.findShortestTour();
+
+        var parallelPlanner = new TourPlanner(distanceMatrix);
+        parallelPlanner.setParallelism(4);
+        parallelPlanner.setMultiStart(16, 5678);
+        var parallelTour = parallelPlanner.findShortestTour();
+
+        assertArrayEquals(sequentialTour, parallelTour);
+        assertTrue(tourCost(distanceMatrix, sequentialTour) <= tourCost(distanceMatrix, singleStartTour));
+    }
+
+    @Test
+    public void timeBudgetedPlannerReportsEveryImprovement() {
+        var distanceMatrix = randomDistanceMatrix(80, 11);
+        var localSearchTour = new TourPlanner(distanceMatrix).findShortestTour();
+
+        var reportedCosts = new ArrayList<Integer>();
+        var tourPlanner = new TourPlanner(distanceMatrix);
+        tourPlanner.setTimeBudget(Duration.ofMillis(300));
+        tourPlanner.addProgressListener((bestCost, numIterations, elapsedMillis) -> reportedCosts.add(bestCost));
+
+        var startTime = System.currentTimeMillis();
+        var tour = tourPlanner.findShortestTour();
+        var elapsedMillis = System.currentTimeMillis() - startTime;
+
+        /* The first report is the tour of the plain local search */
+        assertTrue(reportedCosts.get(0) == tourCost(distanceMatrix, localSearchTour));
+        for (int k = 1; k < reportedCosts.size(); k++) {
+            assertTrue(reportedCosts.get(k) < reportedCosts.get(k - 1));
+        }
+        assertTrue(tourCost(distanceMatrix, tour) == reportedCosts.get(reportedCosts.size() - 1));
+        assertTrue(elapsedMillis >= 300);
+    }
+
+    @Test
+    public void timeBudgetIncludesDistanceMatrix() throws IOException {
+        var world = App.loadFlightWorld(80);
+        var tourNodes = loadSubmittedTourNodes("01-01-2020");
+
+        var unbudgetedPlanner = new TourPlanner(tourNodes, world);
+        unbudgetedPlanner.setParallelism(1);
+        unbudgetedPlanner.setMultiStart(8, 5678);
+        unbudgetedPlanner.setSimulatedCandidates(4);
+        var startTime = System.currentTimeMillis();
+        unbudgetedPlanner.findShortestTour();
+        var unbudgetedMillis = System.currentTimeMillis() - startTime;
+
+        /* The budget runs out long before all flights of the matrix are simulated */
+        var tourPlanner = new TourPlanner(tourNodes, world);
+        tourPlanner.setParallelism(1);
+        tourPlanner.setMultiStart(8, 5678);
+        tourPlanner.setSimulatedCandidates(4);
+        tourPlanner.setTimeBudget(Duration.ofMillis(unbudgetedMillis / 10));
+        var tour = tourPlanner.findShortestTour();
+
+        assertTrue(tourPlanner.getNumComputedDistances() < unbudgetedPlanner.getNumComputedDistances());
+        assertEquals(-1, tourPlanner.getSimulatedSteps());
+        var sortedTour = tour.clone();
+        Arrays.sort(sortedTour);
+        for (int i = 0; i < sortedTour.length; i++) {
+            assertEquals(i, sortedTour[i]);
+        }
+        assertEquals(tourNodes.size() - 1, tour.length);
+    }
+
+    @Test
+    public void lazyDistanceMatrixFindsSameTourWithFewerSimulations() throws IOException {
+        var world = App.loadFlightWorld(80);
+        var tourNodes = loadSubmittedTourNodes("01-01-2020");
+        var numPoints = tourNodes.size();
+
+        for (var numStarts : new int[] { 1, 8 }) {
+            var eagerPlanner = new TourPlanner(tourNodes, world);
+            eagerPlanner.setMultiStart(numStarts, 5678);
+            var eagerTour = eagerPlanner.findShortestTour();
+
+            var lazyPlanner = new TourPlanner(tourNodes, world);
+            lazyPlanner.setMultiStart(numStarts, 5678);
+            lazyPlanner.setLazyDistanceMatrix(true);
+            var lazyTour = lazyPlanner.findShortestTour();
+
+            assertArrayEquals(eagerTour, lazyTour);
+            assertTrue(eagerPlanner.getNumComputedDistances() == numPoints * (numPoints - 1));
+            assertTrue(lazyPlanner.getNumComputedDistances() < numPoints * (numPoints - 1));
+
+            /* Asking for the matrix completes it, with the same entries */
+            var eagerMatrix = eagerPlanner.getDistanceMatrix();
+            var lazyMatrix = lazyPlanner.getDistanceMatrix();
+            for (int i = 0; i < numPoints; i++) {
+                assertArrayEquals(eagerMatrix[i], lazyMatrix[i]);
+            }
+        }
+    }
+
+    @Test
+    public void estimatedDistanceMatrixNeverExceedsSimulatedOne() throws IOException {
+        var world = App.loadFlightWorld(80);
+        var tourNodes = loadSubmittedTourNodes("01-01-2020");
+        var numPoints = tourNodes.size();
+
+        /* The way around the building of the avoidance tests is longer than the straight line */
+        var westOfBuilding = Point.fromLngLat(-3.18962, 55.9426170001);
+        var eastOfBuilding = Point.fromLngLat(-3.18825, 55.9426170001);
+        assertTrue(world.getVisibilityGraph().computeShortestDistance(westOfBuilding,
+                eastOfBuilding) > EuclideanUtils.computeDistance(westOfBuilding, eastOfBuilding));
+
+        var simulatedMatrix = new TourPlanner(tourNodes, world).getDistanceMatrix();
+        var estimatingPlanner = new TourPlanner(tourNodes, world);
+        estimatingPlanner.setEstimatedDistanceMatrix(true);
+        var tour = estimatingPlanner.findShortestTour();
+        var estimatedMatrix = estimatingPlanner.getDistanceMatrix();
+
+        assertTrue(estimatingPlanner.getNumComputedDistances() == 0);
+        assertTrue(tour.length == numPoints - 1);
+        for (int i = 0; i < numPoints; i++) {
+            for (int j = 0; j < numPoints; j++) {
+                assertTrue(estimatedMatrix[i][j] <= simulatedMatrix[i][j]);
+            }
+        }
+    }
+
+    @Test
+    public void simulatedCandidatesNeverLengthenTheFlownTour() throws IOException {
+        var world = App.loadFlightWorld(80);
+        var tourNodes = loadSubmittedTourNodes("03-03-2020");
+
+        var plainPlanner = new TourPlanner(tourNodes, world);
+        plainPlanner.setMultiStart(32, 5678);
+        var plainSteps = flyTour(tourNodes, plainPlanner.findShortestTour(), world);
+        assertTrue(plainPlanner.getSimulatedSteps() == -1);
+
+        int[] previousTour = null;
+        for (var parallelism : new int[] { 1, 4 }) {
+            var planner = new TourPlanner(tourNodes, world);
+            planner.setParallelism(parallelism);
+            planner.setMultiStart(32, 5678);
+            planner.setSimulatedCandidates(8);
+            var tour = planner.findShortestTour();
+
+            /* The planner flies the tour exactly like the main drone of App does */
+            assertTrue(planner.getSimulatedSteps() == flyTour(tourNodes, tour, world));
+            assertTrue(planner.getSimulatedSteps() <= plainSteps);
+            if (previousTour != null) {
+                assertArrayEquals(previousTour, tour);
+            }
+            previousTour = tour;
+        }
+    }
+
+    /* The sensors of a day of our submitted results, plus the starting point */
+    private static List<Point> loadSubmittedTourNodes(String dateString) throws IOException {
+        var readings = FeatureCollection.fromJson(Files.readString(Path.of("..", "ilp-results",
+                "readings-" + dateString + ".geojson")));
+        var tourNodes = new ArrayList<Point>();
+        for (var feature : readings.features()) {
+            if (feature.geometry() instanceof Point) {
+                tourNodes.add((Point) feature.geometry());
+            }
+        }
+        tourNodes.add(Point.fromLngLat(-3.1878, 55.9444));
+        return tourNodes;
+    }
+
+    /* The number of steps a main drone needs to fly the given tour of mock sensors */
+    private static int flyTour(List<Point> tourNodes, int[] tour, FlightWorld world) {
+        var sensors = new ArrayList<Sensor>();
+        for (var node : tour) {
+            sensors.add(new Sensor(0.0f, 0.0, new What3WordsLocation("a.b.c", tourNodes.get(node))));
+        }
+        var drone = new MainDrone(tourNodes.get(tourNodes.size() - 1), sensors, world, false);
+        drone.completeTour();
+        return drone.getStepsMade();
+    }
+
+    /*
+     * BatchRunner tests
+     */
+
+    @Test
+    public void batchRunnerWritesSameFlightPathAsApp() throws IOException {
+        App.main(new String[] { "15", "06", "2021", "55.9444", "-3.1878", "5678", "80" });
+        var flightPathFile = Path.of("flightpath-15-06-2021.txt");
+        var flightPathOfApp = Files.readString(flightPathFile);
+
+        var date = LocalDate.of(2021, 6, 15);
+        var numFailedDays = BatchRunner.runDays(date, date, Point.fromLngLat(-3.1878, 55.9444), 5678, 80, 2);
+
+        assertTrue(numFailedDays == 0);
+        assertTrue(Files.readString(flightPathFile).equals(flightPathOfApp));
+    }
+
+    @Test
+    public void batchRunnerCarriesOnAfterMissingDay() throws IOException {
+        /* The server has no sensor map for any day of 2022 */
+        var firstDate = LocalDate.of(2021, 12, 31);
+        var lastDate = LocalDate.of(2022, 1, 1);
+        var flightPathFile = Path.of("flightpath-31-12-2021.txt");
+        var readingsFile = Path.of("readings-31-12-2021.geojson");
+
+        try {
+            var numFailedDays = BatchRunner.runDays(firstDate, lastDate, Point.fromLngLat(-3.1878, 55.9444), 5678,
+                    80, 2);
+
+            assertTrue(numFailedDays == 1);
+            assertTrue(Files.exists(flightPathFile));
+            assertTrue(Files.exists(readingsFile));
+            assertTrue(Files.notExists(Path.of("flightpath-01-01-2022.txt")));
+        } finally {
+            Files.deleteIfExists(flightPathFile);
+            Files.deleteIfExists(readingsFile);
+        }
+    }
+
+    /*
+     * WebServerFileFetcher tests
+     */
+
+    @Test
+    public void fileFetcherCountsRequestsAndBytes() throws IOException {
+        var fileFetcher = new WebServerFileFetcher(80);
+
+        var buildings = fileFetcher.getBuildingsGeojsonFromServer();
+        fileFetcher.getBuildingsGeojsonFromServer();
+
+        var fileSize = Files.size(Path.of("WebServer", "buildings", "no-fly-zones.geojson"));
+        assertTrue(buildings.length() > 0);
+        assertTrue(fileFetcher.getNumRequests() == 2);
+        assertTrue(fileFetcher.getNumBytesReceived() == 2 * fileSize);
+        assertTrue(fileFetcher.getAverageLatencyMillis() > 0.0);
+    }
+
+    @Test
+    public void fileFetcherThrowsForMissingFile() {
+        var fileFetcher = new WebServerFileFetcher(80);
+
+        try {
+            fileFetcher.getSensorsGeojsonFromServer(1, 1, 2022);
+            fail();
+        } catch (ServerUnreachableException e) {
+            fail();
+        } catch (UncheckedIOException e) {
+            assertTrue(e.getMessage().contains("404"));
+        }
+    }
+
+    @Test
+    public void concurrentW3wRequestsPreserveOrder() {
+        var fileFetcher = new WebServerFileFetcher(80, Duration.ofSeconds(10), Duration.ofSeconds(30), 3);
+        var w3wStrings = List.of("acid.chair.butter", "slips.mass.baking", "acid.chair.butter", "coherent.saints.stuck",
+                "tonic.bliss.cove");
+
+        var jsonW3wStrings = fileFetcher.getW3wJsonsFromServer(w3wStrings);
+
+        assertTrue(jsonW3wStrings.size() == w3wStrings.size());
+        for (int i = 0; i < w3wStrings.size(); i++) {
+            var w3wParts = w3wStrings.get(i).split("\\.");
+            var expected = fileFetcher.getW3wJsonFromServer(w3wParts[0], w3wParts[1], w3wParts[2]);
+            assertTrue(jsonW3wStrings.get(i).equals(expected));
+            assertTrue(jsonW3wStrings.get(i).contains(w3wStrings.get(i)));
+        }
+        assertTrue(fileFetcher.getNumRequests() == 2 * w3wStrings.size());
+    }
+
+    /*
+     * What3WordsCache tests
+     */
+
+    @Test
+    public void w3wCacheSurvivesReopeningAndInvalidation() throws IOException {
+        var file = Files.createTempFile("w3w-cache", ".txt");
+        Files.delete(file);
+
+        var position = Point.fromLngLat(-3.1862876415252686, 55.94444880463538);
+        var location = new What3WordsLocation("acid.chair.butter", position);
+        var cache = new What3WordsCache(file);
+        assertTrue(cache.get("acid.chair.butter") == null);
+        cache.putAll(List.of(location));
+
+        /* Garbage at the end of the file, e.g. from an interrupted run, is ignored */
+        Files.writeString(file, "slips.mass", StandardOpenOption.APPEND);
+
+        var reopenedCache = new What3WordsCache(file);
+        var cachedLocation = reopenedCache.get("acid.chair.butter");
+        assertTrue(reopenedCache.size() == 1);
+        assertTrue(cachedLocation.getPosition().longitude() == location.getPosition().longitude());
+        assertTrue(cachedLocation.getPosition().latitude() == location.getPosition().latitude());
+        assertTrue(reopenedCache.getNumHits() == 1 && reopenedCache.getNumMisses() == 0);
+
+        reopenedCache.invalidate();
+        assertFalse(Files.exists(file));
+        assertTrue(reopenedCache.get("acid.chair.butter") == null);
+        assertTrue(new What3WordsCache(file).size() == 0);
+    }
+
+    @Test
+    public void w3wCacheDropsRecordCutOffWhileWriting() throws IOException {
+        var file = Files.createTempFile("w3w-cache", ".txt");
+        Files.delete(file);
+
+        var location = new What3WordsLocation("acid.chair.butter",
+                Point.fromLngLat(-3.1862876415252686, 55.94444880463538));
+        new What3WordsCache(file).putAll(List.of(location));
+
+        /* A record without its line break, whose numbers still parse */
+        Files.writeString(file, "slips.mass.baking,-3.186,55.9", StandardOpenOption.APPEND);
+
+        var reopenedCache = new What3WordsCache(file);
+        assertTrue(reopenedCache.size() == 1);
+        assertTrue(reopenedCache.get("slips.mass.baking") == null);
+
+        /* The cut off record is removed before new ones are appended */
+        var otherLocation = new What3WordsLocation("slips.mass.baking",
+                Point.fromLngLat(-3.1861023902893066, 55.94468935669445));
+        reopenedCache.putAll(List.of(otherLocation));
+        var cachedLocation = new What3WordsCache(file).get("slips.mass.baking");
+        assertTrue(cachedLocation.getPosition().longitude() == otherLocation.getPosition().longitude());
+        assertTrue(cachedLocation.getPosition().latitude() == otherLocation.getPosition().latitude());
+        assertTrue(Files.readAllLines(file).size() == 2);
+        Files.delete(file);
+    }
+
     /* Massive unit test - need to make slight changes to App class to be able to run. */
     /*@Test
     public void bigTest() {